@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.4.4"
     id("io.spring.dependency-management") version "1.1.7"
+    id("me.champeau.jmh") version "0.7.2"
     `maven-publish`
 }
 
@@ -55,6 +56,13 @@ tasks.named<Test>("test") {
     useJUnitPlatform()
 }
 
+// Benchmarks run with ./gradlew jmh, they read the markdown corpus from the test resources
+sourceSets {
+    named("jmh") {
+        resources.srcDir("src/test/resources")
+    }
+}
+
 springBoot {
     mainClass.set("com.github.beothorn.telegramAIConnector.Main")
 }
@@ -0,0 +1,60 @@
+package com.github.beothorn.telegramAIConnector.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the work done before sending a markdown answer.
+ * The old path only split the answer and let Telegram parse it, an answer Telegram refused cost a
+ * second request sent as plain text. The local conversion converts, validates and splits, so the
+ * answer goes in a single request. The difference between the two is what the conversion adds before
+ * the first send, to weigh against the round trip it saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TelegramMarkdownBenchmark {
+
+    @Param({"broken", "code", "mixed", "recipe", "reminder"})
+    public String answer;
+
+    private String markdown;
+
+    @Setup
+    public void load() throws IOException {
+        try (InputStream in = TelegramMarkdownBenchmark.class.getResourceAsStream("/markdown/" + answer + ".md")) {
+            if (in == null) throw new IOException("Missing corpus answer " + answer);
+            markdown = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public List<String> oldPath() {
+        return MessageSplitter.split(markdown, true);
+    }
+
+    @Benchmark
+    public List<String> localConversion() {
+        final String markdownV2 = TelegramMarkdown.toMarkdownV2(markdown);
+        if (!TelegramMarkdown.isValidMarkdownV2(markdownV2)) return MessageSplitter.split(markdown, false);
+        return MessageSplitter.split(markdownV2, true);
+    }
+}
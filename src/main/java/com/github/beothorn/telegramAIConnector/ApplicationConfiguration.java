@@ -3,13 +3,24 @@ package com.github.beothorn.telegramAIConnector;
 import ai.fal.client.ClientConfig;
 import ai.fal.client.CredentialsResolver;
 import ai.fal.client.FalClient;
+import com.github.beothorn.telegramAIConnector.ai.AdaptiveConcurrencyLimiter;
+import com.github.beothorn.telegramAIConnector.ai.LimitedChatModel;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.apache.logging.log4j.util.Strings;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.web.filter.HiddenHttpMethodFilter;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class ApplicationConfiguration {
 
@@ -23,6 +34,32 @@ public class ApplicationConfiguration {
         return new TelegramBotsLongPollingApplication();
     }
 
+    /**
+     * Creates the http client used for calls to Telegram.
+     * Calls are asynchronous and all go to the same host, so the per host limit is raised from
+     * the OkHttp default of 5 to the global one, otherwise sends to different chats would queue
+     * on the client instead of being in flight together. Idle connections are kept for reuse.
+     *
+     * @param maxRequests        calls in flight at once
+     * @param maxIdleConnections idle connections kept open
+     * @param keepAliveSeconds   how long an idle connection is kept
+     * @return shared http client
+     */
+    @Bean
+    public OkHttpClient telegramHttpClient(
+        @Value("${telegramIAConnector.telegramHttp.maxRequests:64}") final int maxRequests,
+        @Value("${telegramIAConnector.telegramHttp.maxIdleConnections:16}") final int maxIdleConnections,
+        @Value("${telegramIAConnector.telegramHttp.keepAliveSeconds:300}") final long keepAliveSeconds
+    ) {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+        return new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+            .build();
+    }
+
     /**
      * Registers the filter enabling HTTP method overrides used by Spring.
      *
@@ -33,6 +70,25 @@ public class ApplicationConfiguration {
         return new HiddenHttpMethodFilter();
     }
 
+    /**
+     * Wraps the OpenAI chat model with an adaptive concurrency limit.
+     * Being primary, this is the chat model injected everywhere, including on the chat client.
+     *
+     * @param openAiChatModel    model created by Spring AI
+     * @param limiter            limiter shared by all model calls
+     * @param toolCallingManager runs tools between model calls, outside the limit
+     * @return limited chat model
+     */
+    @Bean
+    @Primary
+    public ChatModel limitedChatModel(
+        final OpenAiChatModel openAiChatModel,
+        final AdaptiveConcurrencyLimiter limiter,
+        final ToolCallingManager toolCallingManager
+    ) {
+        return new LimitedChatModel(openAiChatModel, limiter, toolCallingManager);
+    }
+
     @Bean
     public FalClient client(
         @Value("${fal.key:}") final String falKey
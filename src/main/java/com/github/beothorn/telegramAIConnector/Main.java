@@ -10,6 +10,7 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import java.io.File;
 import java.util.Arrays;
@@ -33,23 +34,48 @@ public class Main {
     }
 
     /**
-     * Registers the bot with Telegram when the application starts.
+     * Starts receiving updates when the application starts.
+     * On polling mode the bot is registered for long polling, on webhook mode Telegram posts the
+     * updates to {@link com.github.beothorn.telegramAIConnector.telegram.TelegramWebhookController}.
      *
      * @param botsApplication telegram bots application
      * @param telegramAIBot    the bot instance
      * @param botToken         bot authentication token
+     * @param mode             polling or webhook
+     * @param webhookUrl       public address of the webhook, blank if it is set some other way
+     * @param webhookSecret    token Telegram must send with every webhook request
      * @return command line runner executing the registration
      */
     @Bean
     public CommandLineRunner onExecute(
         final TelegramBotsLongPollingApplication botsApplication,
         final TelegramAiBot telegramAIBot,
-        final @Value("${telegram.key}") String botToken
+        final @Value("${telegram.key}") String botToken,
+        final @Value("${telegram.mode:polling}") String mode,
+        final @Value("${telegram.webhook.url:}") String webhookUrl,
+        final @Value("${telegram.webhook.secret:}") String webhookSecret
     ) {
         return args -> {
-            logger.info("Bot will be registered.");
-            botsApplication.registerBot(botToken, telegramAIBot);
-            logger.info("Bots application is running: " + botsApplication.isRunning());
+            switch (mode) {
+                case "webhook" -> {
+                    if (webhookUrl.isBlank()) {
+                        logger.info("Webhook mode, expecting the webhook to be already set.");
+                    } else {
+                        telegramAIBot.setWebhook(webhookUrl, webhookSecret);
+                    }
+                }
+                case "polling" -> {
+                    try {
+                        telegramAIBot.deleteWebhook();
+                    } catch (TelegramApiException e) {
+                        logger.warn("Could not remove webhook, polling may fail.", e);
+                    }
+                    logger.info("Bot will be registered.");
+                    botsApplication.registerBot(botToken, telegramAIBot);
+                    logger.info("Bots application is running: " + botsApplication.isRunning());
+                }
+                default -> throw new IllegalArgumentException("Unknown telegram.mode '" + mode + "', expected polling or webhook");
+            }
         };
     }
 }
@@ -0,0 +1,195 @@
+package com.github.beothorn.telegramAIConnector.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits concurrent calls to the chat model, adjusting the limit to what the provider sustains.
+ * Uses additive increase, multiplicative decrease: each fast successful call while the limit is
+ * in use raises it by one, each rate limited, failing or slow call shrinks it by the backoff ratio.
+ * Callers over the limit wait for a running call to finish.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long slowCallNanos;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long increases;
+    private long decreases;
+
+    /**
+     * Creates the limiter.
+     *
+     * @param initialLimit   concurrent calls allowed at startup
+     * @param minLimit       the limit never goes below this
+     * @param maxLimit       the limit never goes above this
+     * @param slowCallMillis calls slower than this count as the provider being overloaded
+     * @param backoffRatio   the limit is multiplied by this when the provider is overloaded
+     */
+    public AdaptiveConcurrencyLimiter(
+        @Value("${telegramIAConnector.modelInitialConcurrency:8}") final int initialLimit,
+        @Value("${telegramIAConnector.modelMinConcurrency:1}") final int minLimit,
+        @Value("${telegramIAConnector.modelMaxConcurrency:64}") final int maxLimit,
+        @Value("${telegramIAConnector.modelSlowCallMillis:30000}") final long slowCallMillis,
+        @Value("${telegramIAConnector.modelBackoffRatio:0.9}") final double backoffRatio
+    ) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.clamp(initialLimit, this.minLimit, this.maxLimit);
+        this.slowCallNanos = Duration.ofMillis(slowCallMillis).toNanos();
+        this.backoffRatio = Math.clamp(backoffRatio, 0.1, 1.0);
+    }
+
+    /**
+     * Waits until a call is allowed.
+     * The returned permit must be completed exactly once with the call outcome.
+     *
+     * @return permit for one call
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Permit acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    released.await();
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return new Permit(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current limit and counters.
+     *
+     * @return limiter state
+     */
+    public LimiterStats stats() {
+        lock.lock();
+        try {
+            return new LimiterStats((int) limit, inFlight, waiting, increases, decreases);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(final long latencyNanos) {
+        lock.lock();
+        try {
+            // inFlight still counts this call
+            if (latencyNanos > slowCallNanos) {
+                decrease("slow call of " + Duration.ofNanos(latencyNanos).toMillis() + "ms");
+            } else if (inFlight * 2 >= (int) limit && limit < maxLimit) {
+                // Only grow when the limit is actually being used
+                limit = Math.min(maxLimit, limit + 1);
+                increases++;
+                logger.debug("Model concurrency limit increased to {}", (int) limit);
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onOverload(final String reason) {
+        lock.lock();
+        try {
+            decrease(reason);
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onIgnore() {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(final String reason) {
+        final double previous = limit;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        decreases++;
+        logger.info("Model concurrency limit decreased from {} to {}: {}", (int) previous, (int) limit, reason);
+    }
+
+    private void release() {
+        inFlight--;
+        released.signalAll();
+    }
+
+    /**
+     * Allowance for one model call, tells the limiter how the call went.
+     */
+    public final class Permit {
+        private final long startNanos;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final AtomicLong firstResponseNanos = new AtomicLong(-1);
+
+        private Permit(final long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * The first part of a streamed answer arrived.
+         * A long answer takes long to generate without the provider being overloaded, so once this is
+         * called the latency of the call is the time up to here, not up to the end of the answer.
+         */
+        public void firstResponse() {
+            firstResponseNanos.compareAndSet(-1, System.nanoTime() - startNanos);
+        }
+
+        /**
+         * The call succeeded, its latency is used to adjust the limit.
+         */
+        public void success() {
+            if (!completed.compareAndSet(false, true)) return;
+            final long firstResponse = firstResponseNanos.get();
+            onSuccess(firstResponse >= 0 ? firstResponse : System.nanoTime() - startNanos);
+        }
+
+        /**
+         * The provider is overloaded, rate limited or failing, the limit goes down.
+         *
+         * @param reason what happened, for the logs
+         */
+        public void overloaded(final String reason) {
+            if (completed.compareAndSet(false, true)) onOverload(reason);
+        }
+
+        /**
+         * The call ended without telling anything about the provider load, for example a bad request.
+         */
+        public void ignore() {
+            if (completed.compareAndSet(false, true)) onIgnore();
+        }
+    }
+}
@@ -5,8 +5,10 @@ import com.github.beothorn.telegramAIConnector.ai.tools.AIAnalysisTool;
 import com.github.beothorn.telegramAIConnector.ai.tools.FalAiTools;
 import com.github.beothorn.telegramAIConnector.ai.tools.SystemTools;
 import com.github.beothorn.telegramAIConnector.telegram.TelegramTools;
+import com.github.beothorn.telegramAIConnector.user.AppendOnlyChatMemory;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.advisors.UserProfileAdvisor;
+import com.github.beothorn.telegramAIConnector.user.summary.advisors.ConversationSummaryAdvisor;
 import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
 import org.apache.logging.log4j.util.Strings;
 import org.slf4j.Logger;
@@ -14,7 +16,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.support.ToolCallbacks;
 import org.springframework.ai.tool.ToolCallback;
@@ -22,6 +23,7 @@ import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -43,6 +45,7 @@ public class AiBotService {
     private final ChatClient chatClient;
     private final ToolCallbackProvider tools;
     private final UserProfileAdvisor userProfileAdvisor;
+    private final ConversationSummaryAdvisor conversationSummaryAdvisor;
     private final FalClient falClient;
     private final ChatModel chatModel;
     private final String uploadFolder;
@@ -52,15 +55,16 @@ public class AiBotService {
         final ToolCallbackProvider tools,
         final MessagesRepository messagesRepository,
         final UserProfileAdvisor userProfileAdvisor,
+        final ConversationSummaryAdvisor conversationSummaryAdvisor,
         final ChatModel chatModel,
         final FalClient falClient,
         @Value("${telegramIAConnector.systemPromptFile}") final String systemPromptFile,
         @Value("classpath:prompt.txt") final Resource defaultPromptResource,
-        @Value("${telegramIAConnector.messagesOnConversation}") final int messagesOnConversation,
         @Value("${telegramIAConnector.uploadFolder}") final String uploadFolder
     ) {
         this.tools = tools;
         this.userProfileAdvisor = userProfileAdvisor;
+        this.conversationSummaryAdvisor = conversationSummaryAdvisor;
         this.chatModel = chatModel;
         this.uploadFolder = uploadFolder;
         this.falClient = falClient;
@@ -81,12 +85,7 @@ public class AiBotService {
         }
 
         final MessageChatMemoryAdvisor messageChatMemoryAdvisor = MessageChatMemoryAdvisor.builder(
-            MessageWindowChatMemory.builder()
-                .chatMemoryRepository(
-                    messagesRepository
-                )
-                .maxMessages(messagesOnConversation)
-            .build()
+            new AppendOnlyChatMemory(messagesRepository)
         ).build();
         chatClient = chatClientBuilder
             .defaultAdvisors(
@@ -129,40 +128,7 @@ public class AiBotService {
     ) {
         try {
             logger.debug("Got prompts");
-
-            final String prompt = "[" + InstantUtils.currentTime() + "] " + message;
-
-            ToolCallback[] toolCallbacks = tools.getToolCallbacks();
-            List<ToolCallback> toolCallbackList = new ArrayList<>();
-
-            final String uploadFolderForCurrentChat = uploadFolder + "/" + chatId;
-            if (falClient != null && telegramTools != null) {
-                FalAiTools falAiTools = new FalAiTools(falClient, uploadFolderForCurrentChat, telegramTools);
-                toolCallbackList.addAll(Arrays.asList(ToolCallbacks.from(falAiTools)));
-            }
-
-            if(telegramTools != null) {
-                toolCallbackList.addAll(Arrays.asList(ToolCallbacks.from(telegramTools)));
-            }
-
-            final AIAnalysisTool aiAnalysisTool = new AIAnalysisTool(chatModel, uploadFolderForCurrentChat);
-            final SystemTools systemTools = new SystemTools();
-            toolCallbackList.addAll(Arrays.asList(ToolCallbacks.from(
-                systemTools,
-                aiAnalysisTool
-            )));
-
-            toolCallbackList.addAll(Arrays.asList(toolCallbacks));
-
-            Consumer<ChatClient.AdvisorSpec> chatMemoryConversationId = advisor ->
-                    advisor.param("chat_memory_conversation_id", Long.toString(chatId));
-            final String answer = chatClient
-                .prompt(prompt)
-                .toolCallbacks(toolCallbackList)
-                .advisors(
-                    chatMemoryConversationId
-                )
-                .advisors(userProfileAdvisor)
+            final String answer = request(chatId, message, telegramTools)
                 .call()
                 .content();
             logger.info("Answered: '{}'", answer);
@@ -173,4 +139,71 @@ public class AiBotService {
         }
     }
 
+    /**
+     * Sends a prompt to the underlying chat client using the provided telegram tools and
+     * streams the AI answer as it is generated.
+     * The conversation memory only gets the whole answer, once the stream ends.
+     *
+     * @param chatId        the conversation identifier
+     * @param message       the message from the user
+     * @param telegramTools telegram tools to send messages and files
+     * @return the answer in pieces, in order, ending with the error message if something fails
+     */
+    public Flux<String> promptStream(
+        final Long chatId,
+        final String message,
+        final TelegramTools telegramTools
+    ) {
+        return Flux.defer(() -> {
+            logger.debug("Got streamed prompt");
+            return request(chatId, message, telegramTools)
+                .stream()
+                .content();
+        }).onErrorResume(error -> {
+            logger.error("Failed prompt", error);
+            return error.getMessage() == null ? Flux.empty() : Flux.just(error.getMessage());
+        });
+    }
+
+    private ChatClient.ChatClientRequestSpec request(
+        final Long chatId,
+        final String message,
+        final TelegramTools telegramTools
+    ) {
+        final String prompt = "[" + InstantUtils.currentTime() + "] " + message;
+
+        ToolCallback[] toolCallbacks = tools.getToolCallbacks();
+        List<ToolCallback> toolCallbackList = new ArrayList<>();
+
+        final String uploadFolderForCurrentChat = uploadFolder + "/" + chatId;
+        if (falClient != null && telegramTools != null) {
+            FalAiTools falAiTools = new FalAiTools(falClient, uploadFolderForCurrentChat, telegramTools);
+            toolCallbackList.addAll(Arrays.asList(ToolCallbacks.from(falAiTools)));
+        }
+
+        if(telegramTools != null) {
+            toolCallbackList.addAll(Arrays.asList(ToolCallbacks.from(telegramTools)));
+        }
+
+        final AIAnalysisTool aiAnalysisTool = new AIAnalysisTool(chatModel, uploadFolderForCurrentChat);
+        final SystemTools systemTools = new SystemTools();
+        toolCallbackList.addAll(Arrays.asList(ToolCallbacks.from(
+            systemTools,
+            aiAnalysisTool
+        )));
+
+        toolCallbackList.addAll(Arrays.asList(toolCallbacks));
+
+        Consumer<ChatClient.AdvisorSpec> chatMemoryConversationId = advisor ->
+                advisor.param("chat_memory_conversation_id", Long.toString(chatId));
+        return chatClient
+            .prompt(prompt)
+            .toolCallbacks(toolCallbackList)
+            .advisors(
+                chatMemoryConversationId
+            )
+            .advisors(userProfileAdvisor)
+            .advisors(conversationSummaryAdvisor);
+    }
+
 }
@@ -0,0 +1,203 @@
+package com.github.beothorn.telegramAIConnector.ai;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.RestClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Chat model that goes through an {@link AdaptiveConcurrencyLimiter} before calling the real model.
+ * Every component asking the model something shares the same limit.
+ * Only the round-trips to the provider hold a permit. Tool calls are run here, between round-trips,
+ * instead of inside the real model, so a slow tool neither counts as model latency nor keeps a
+ * permit, and a tool asking the model something itself does not wait on its caller's permit.
+ */
+public class LimitedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ToolCallingManager toolCallingManager;
+
+    /**
+     * Wraps a chat model.
+     *
+     * @param delegate           model doing the calls
+     * @param limiter            limiter shared by all calls
+     * @param toolCallingManager runs the tools the model asks for
+     */
+    public LimitedChatModel(
+        final ChatModel delegate,
+        final AdaptiveConcurrencyLimiter limiter,
+        final ToolCallingManager toolCallingManager
+    ) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.toolCallingManager = toolCallingManager;
+    }
+
+    /**
+     * Calls the model once the limiter allows it, running the tools it asks for between calls.
+     *
+     * @param prompt prompt to send
+     * @return model response
+     */
+    @Override
+    public ChatResponse call(final Prompt prompt) {
+        Prompt current = withoutInternalTools(prompt);
+        if (current == null) return limitedCall(prompt);
+        while (true) {
+            final ChatResponse response = limitedCall(current);
+            if (response == null || !response.hasToolCalls()) return response;
+            final ToolExecutionResult result = toolCallingManager.executeToolCalls(current, response);
+            if (result.returnDirect()) return directResponse(response, result);
+            current = new Prompt(result.conversationHistory(), current.getOptions());
+        }
+    }
+
+    /**
+     * Streams the model response, running the tools it asks for between calls.
+     * Each call counts against the limit until its stream ends, but its latency is the time to
+     * the first part of the answer.
+     *
+     * @param prompt prompt to send
+     * @return streamed response
+     */
+    @Override
+    public Flux<ChatResponse> stream(final Prompt prompt) {
+        final Prompt roundTrip = withoutInternalTools(prompt);
+        if (roundTrip == null) return limitedStream(prompt);
+        return streamWithTools(roundTrip);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    /**
+     * Copies the prompt with tool execution turned off on the real model.
+     *
+     * @return prompt for a single round-trip, null if the caller runs the tools itself
+     */
+    private static Prompt withoutInternalTools(final Prompt prompt) {
+        if (!(prompt.getOptions() instanceof ToolCallingChatOptions options)) return null;
+        if (!ToolCallingChatOptions.isInternalToolExecutionEnabled(options)) return null;
+        final ToolCallingChatOptions roundTrip = options.copy();
+        roundTrip.setInternalToolExecutionEnabled(false);
+        return new Prompt(prompt.getInstructions(), roundTrip);
+    }
+
+    private static ChatResponse directResponse(
+        final ChatResponse response,
+        final ToolExecutionResult result
+    ) {
+        return ChatResponse.builder()
+            .from(response)
+            .generations(ToolExecutionResult.buildGenerations(result))
+            .build();
+    }
+
+    private Flux<ChatResponse> streamWithTools(final Prompt prompt) {
+        return Flux.defer(() -> {
+            final AtomicReference<ChatResponse> toolCalls = new AtomicReference<>();
+            return limitedStream(prompt)
+                .filter(response -> {
+                    if (!response.hasToolCalls()) return true;
+                    toolCalls.set(response);
+                    return false;
+                })
+                // Subscribed once the round-trip completed and gave its permit back
+                .concatWith(Flux.defer(() -> {
+                    final ChatResponse response = toolCalls.get();
+                    if (response == null) return Flux.empty();
+                    final ToolExecutionResult result = toolCallingManager.executeToolCalls(prompt, response);
+                    if (result.returnDirect()) return Flux.just(directResponse(response, result));
+                    return streamWithTools(new Prompt(result.conversationHistory(), prompt.getOptions()));
+                }).subscribeOn(Schedulers.boundedElastic()));
+        });
+    }
+
+    private ChatResponse limitedCall(final Prompt prompt) {
+        final AdaptiveConcurrencyLimiter.Permit permit = acquire();
+        try {
+            final ChatResponse response = delegate.call(prompt);
+            permit.success();
+            return response;
+        } catch (RuntimeException e) {
+            complete(permit, e);
+            throw e;
+        } finally {
+            permit.ignore();
+        }
+    }
+
+    private Flux<ChatResponse> limitedStream(final Prompt prompt) {
+        return Flux.defer(() -> {
+            final AdaptiveConcurrencyLimiter.Permit permit = acquire();
+            return delegate.stream(prompt)
+                .doOnNext(response -> permit.firstResponse())
+                .doOnComplete(permit::success)
+                .doOnError(e -> complete(permit, e))
+                .doFinally(signal -> permit.ignore());
+        });
+    }
+
+    private AdaptiveConcurrencyLimiter.Permit acquire() {
+        try {
+            return limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting to call the chat model", e);
+        }
+    }
+
+    private static void complete(
+        final AdaptiveConcurrencyLimiter.Permit permit,
+        final Throwable error
+    ) {
+        final String overload = overloadReason(error);
+        if (overload != null) {
+            permit.overloaded(overload);
+        } else {
+            permit.ignore();
+        }
+    }
+
+    /**
+     * Tells if an error means the provider is rate limiting or struggling.
+     *
+     * @param error error thrown by the model
+     * @return description of the overload or null if the error is not about load
+     */
+    static String overloadReason(final Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TransientAiException) {
+                return "provider error " + t.getMessage();
+            }
+            // Spring AI reports client errors as "<status> - <body>"
+            if (t instanceof NonTransientAiException && t.getMessage() != null && t.getMessage().startsWith("429")) {
+                return "rate limited";
+            }
+            if (t instanceof RestClientResponseException response) {
+                final int status = response.getStatusCode().value();
+                if (status == 429) return "rate limited";
+                if (status >= 500) return "provider error " + status;
+            }
+            if (t instanceof SocketTimeoutException) {
+                return "timeout";
+            }
+        }
+        return null;
+    }
+}
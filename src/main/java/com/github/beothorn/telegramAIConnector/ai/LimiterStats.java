@@ -0,0 +1,18 @@
+package com.github.beothorn.telegramAIConnector.ai;
+
+/**
+ * State of the chat model concurrency limiter.
+ *
+ * @param limit     concurrent calls currently allowed
+ * @param inFlight  calls running now
+ * @param waiting   calls waiting for the limit
+ * @param increases times the limit went up since startup
+ * @param decreases times the limit went down since startup
+ */
+public record LimiterStats(
+    int limit,
+    int inFlight,
+    int waiting,
+    long increases,
+    long decreases
+) {}
@@ -1,5 +1,6 @@
 package com.github.beothorn.telegramAIConnector.auth;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -12,31 +13,15 @@ public class AuthenticationRepository {
 
     private final Logger logger = LoggerFactory.getLogger(AuthenticationRepository.class);
 
-    private String dbUrl;
+    private Database database;
 
     /**
-     * Initializes the repository using the given SQLite database URL.
+     * Initializes the repository using the given SQLite database.
      *
-     * @param dbUrl JDBC URL of the database
+     * @param database shared database
      */
-    public void initDatabase(final String dbUrl) {
-        this.dbUrl = dbUrl;
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement()) {
-
-            stmt.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS auth (
-                    chatId INTEGER PRIMARY KEY,
-                    password_hash TEXT NOT NULL,
-                    logged BOOLEAN NOT NULL DEFAULT FALSE,
-                    log_expiration_date TEXT
-                )
-            """);
-            logger.info("Auth table created or already exists.");
-        } catch (SQLException e) {
-            logger.error("Failed to initialize database", e);
-            throw new RuntimeException("Failed to initialize database", e);
-        }
+    public void initDatabase(final Database database) {
+        this.database = database;
     }
 
     /**
@@ -59,15 +44,15 @@ public class AuthenticationRepository {
             VALUES (?, ?, ?, ?)
         """;
 
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, chatId);
-            stmt.setString(2, passwordHash);
-            stmt.setBoolean(3, logged);
-            stmt.setString(4, logExpirationDate);
-
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                stmt.setString(2, passwordHash);
+                stmt.setBoolean(3, logged);
+                stmt.setString(4, logExpirationDate);
+                return stmt.executeUpdate();
+            });
             logger.info("Auth entry added/updated for chatId {}", chatId);
         } catch (SQLException e) {
             logger.error("Failed to add/update auth entry for chatId {}", chatId, e);
@@ -94,14 +79,14 @@ public class AuthenticationRepository {
             WHERE chatId = ?
         """;
 
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setBoolean(1, logged);
-            stmt.setString(2, logExpirationDate);
-            stmt.setLong(3, chatId);
-
-            int rowsAffected = stmt.executeUpdate();
+        try {
+            int rowsAffected = database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setBoolean(1, logged);
+                stmt.setString(2, logExpirationDate);
+                stmt.setLong(3, chatId);
+                return stmt.executeUpdate();
+            });
             if (rowsAffected > 0) {
                 logger.info("Set logged state for chatId {} to {} with expiration {}", chatId, logged, logExpirationDate);
             } else {
@@ -123,24 +108,24 @@ public class AuthenticationRepository {
     public Optional<AuthData> getAuthData(final long chatId) {
         String sql = "SELECT chatId, password_hash, logged, log_expiration_date FROM auth WHERE chatId = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, chatId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    Long foundChatId = rs.getLong("chatId");
-                    String passwordHash = rs.getString("password_hash");
-                    boolean logged = rs.getBoolean("logged");
-                    String logExpirationDate = rs.getString("log_expiration_date");
-
-                    return Optional.of(new AuthData(foundChatId, passwordHash, logged, logExpirationDate));
-                } else {
-                    logger.warn("No auth data found for chatId {}", chatId);
-                    return Optional.empty();
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        Long foundChatId = rs.getLong("chatId");
+                        String passwordHash = rs.getString("password_hash");
+                        boolean logged = rs.getBoolean("logged");
+                        String logExpirationDate = rs.getString("log_expiration_date");
+
+                        return Optional.of(new AuthData(foundChatId, passwordHash, logged, logExpirationDate));
+                    } else {
+                        logger.warn("No auth data found for chatId {}", chatId);
+                        return Optional.<AuthData>empty();
+                    }
                 }
-            }
-
+            });
         } catch (SQLException e) {
             logger.error("Failed to retrieve auth data for chatId {}", chatId, e);
             return Optional.empty();
@@ -154,10 +139,12 @@ public class AuthenticationRepository {
      */
     public void deleteAuthData(long chatId) {
         String sql = "DELETE FROM auth WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, chatId);
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                return stmt.executeUpdate();
+            });
         } catch (SQLException e) {
             logger.error("Failed to delete auth data for chatId {}", chatId, e);
         }
@@ -1,26 +1,49 @@
 package com.github.beothorn.telegramAIConnector.backoffice;
 
+import com.github.beothorn.telegramAIConnector.ai.AdaptiveConcurrencyLimiter;
+import com.github.beothorn.telegramAIConnector.ai.LimiterStats;
 import com.github.beothorn.telegramAIConnector.auth.Authentication;
 import com.github.beothorn.telegramAIConnector.tasks.TaskCommand;
 import com.github.beothorn.telegramAIConnector.tasks.TaskRepository;
+import com.github.beothorn.telegramAIConnector.telegram.MailboxStats;
+import com.github.beothorn.telegramAIConnector.telegram.OutboundStats;
+import com.github.beothorn.telegramAIConnector.telegram.StageStats;
 import com.github.beothorn.telegramAIConnector.telegram.TelegramAiBot;
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import com.github.beothorn.telegramAIConnector.user.MessagePage;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.SearchPage;
 import com.github.beothorn.telegramAIConnector.user.StoredMessage;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.UserProfileRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.multipart.MultipartFile;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api")
 public class Api {
 
+    static final int MESSAGES_PER_PAGE = 50;
+    static final int SEARCH_RESULTS_PER_PAGE = 20;
+    private static final String NDJSON = "application/x-ndjson";
+    private static final ObjectWriter EXPORT_WRITER = new ObjectMapper().writerFor(StoredMessage.class);
+
     private final TelegramAiBot telegramAiBot;
     private final TaskRepository taskRepository;
     private final MessagesRepository messagesRepository;
@@ -28,6 +51,7 @@ public class Api {
     private final UserProfileRepository userProfileRepository;
     private final FileService fileService;
     private final UserRepository userRepository;
+    private final AdaptiveConcurrencyLimiter modelLimiter;
 
     /**
      * Creates a REST API with required dependencies.
@@ -38,6 +62,8 @@ public class Api {
      * @param authentication        authentication service
      * @param userProfileRepository repository for user profiles
      * @param fileService           file service
+     * @param userRepository        repository for users
+     * @param modelLimiter          limiter for chat model calls
      */
     public Api(
         final TelegramAiBot telegramAiBot,
@@ -46,7 +72,8 @@ public class Api {
         final Authentication authentication,
         final UserProfileRepository userProfileRepository,
         final FileService fileService,
-        final UserRepository userRepository
+        final UserRepository userRepository,
+        final AdaptiveConcurrencyLimiter modelLimiter
     ) {
         this.telegramAiBot = telegramAiBot;
         this.taskRepository = taskRepository;
@@ -55,6 +82,7 @@ public class Api {
         this.userProfileRepository = userProfileRepository;
         this.fileService = fileService;
         this.userRepository = userRepository;
+        this.modelLimiter = modelLimiter;
     }
 
     /**
@@ -80,9 +108,10 @@ public class Api {
      */
     @PostMapping("/broadcast")
     public void broadcast(@RequestParam("message") final String message) {
-        for (String id : messagesRepository.findConversationIds()) {
-            telegramAiBot.sendMessage(Long.parseLong(id), message);
-        }
+        telegramAiBot.broadcast(
+            messagesRepository.findConversationIds().stream().map(Long::parseLong).toList(),
+            message
+        );
     }
 
     /**
@@ -149,6 +178,46 @@ public class Api {
         return taskRepository.deleteTask(key);
     }
 
+    /**
+     * Returns how much work the bot is doing and how much is waiting.
+     *
+     * @return running, waiting and rejected work counts
+     */
+    @GetMapping("/load")
+    public MailboxStats load() {
+        return telegramAiBot.getLoad();
+    }
+
+    /**
+     * Returns the queue of calls to Telegram, paced by its rate limits.
+     *
+     * @return queued calls per priority and send counters
+     */
+    @GetMapping("/outbound")
+    public OutboundStats outbound() {
+        return telegramAiBot.getOutboundStats();
+    }
+
+    /**
+     * Returns load, queue time and service time of each stage updates go through.
+     *
+     * @return stage statistics in pipeline order
+     */
+    @GetMapping("/pipeline")
+    public List<StageStats> pipeline() {
+        return telegramAiBot.getPipelineStats();
+    }
+
+    /**
+     * Returns the current concurrency limit for chat model calls and how it changed.
+     *
+     * @return limiter state
+     */
+    @GetMapping("/modelLimit")
+    public LimiterStats modelLimit() {
+        return modelLimiter.stats();
+    }
+
     /**
      * Lists known conversation ids.
      * Conversations are open chats with a user.
@@ -175,6 +244,46 @@ public class Api {
         return messagesRepository.getConversations(chatId);
     }
 
+    /**
+     * Exports a conversation as newline delimited JSON, one stored message per line, oldest first.
+     * Messages are written to the response as they are read, so memory use does not depend on the
+     * conversation size.
+     *
+     * @param chatId conversation identifier
+     * @return streamed NDJSON response
+     */
+    @GetMapping(value = "/conversations/{chatId}/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportConversation(@PathVariable String chatId) {
+        // Checked before streaming starts, once it does the status can no longer change
+        final long id;
+        try {
+            id = Long.parseLong(chatId);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid chat id '" + chatId + "'", e);
+        }
+        StreamingResponseBody body = out -> {
+            OutputStream buffered = new BufferedOutputStream(out);
+            try {
+                messagesRepository.forEachMessage(Long.toString(id), message -> {
+                    try {
+                        buffered.write(EXPORT_WRITER.writeValueAsBytes(message));
+                        buffered.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            buffered.flush();
+        };
+        return ResponseEntity.ok()
+            .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION,
+                    "attachment; filename=" + id + ".ndjson")
+            .contentType(MediaType.parseMediaType(NDJSON))
+            .body(body);
+    }
+
     /**
      * Deletes a conversation.
      * A conversation is a single message, from the user or from the assistant.
@@ -208,20 +317,50 @@ public class Api {
     }
 
     /**
-     * Returns paginated messages for a conversation.
+     * Searches stored messages, best matches first.
      *
-     * @param chatId conversation identifier
+     * @param q      words to search for
+     * @param chatId optional chat to restrict the search to
      * @param page   zero-based page number
-     * @return list of stored messages
+     * @return matching messages with snippets and the next page number
+     */
+    @GetMapping("/search")
+    public SearchPage search(
+        @RequestParam String q,
+        @RequestParam(required = false) Long chatId,
+        @RequestParam(defaultValue = "0") int page
+    ) {
+        return messagesRepository.search(q, chatId, Math.max(page, 0), SEARCH_RESULTS_PER_PAGE);
+    }
+
+    /**
+     * Returns paginated messages for a conversation, newest first.
+     *
+     * @param chatId conversation identifier
+     * @param cursor the next cursor from the previous page, absent for the first page
+     * @return stored messages and the cursor for the next page
      */
     @GetMapping("/conversations/{chatId}/messages")
-    public List<StoredMessage> paginatedMessages(
+    public MessagePage paginatedMessages(
         @PathVariable String chatId,
-        @RequestParam(defaultValue = "0") int page
+        @RequestParam(required = false) String cursor
     ) {
-        int limit = 50;
-        int offset = page * limit;
-        return messagesRepository.getMessages(chatId, limit, offset);
+        return messagesRepository.getMessagePage(chatId, parseCursor(cursor), MESSAGES_PER_PAGE);
+    }
+
+    /**
+     * Parses a pagination cursor received from a client.
+     *
+     * @param cursor cursor text, may be null or blank
+     * @return the cursor or null if absent
+     */
+    static MessageCursor parseCursor(final String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            return MessageCursor.parse(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
     }
 
     /**
@@ -242,6 +381,7 @@ public class Api {
 
     /**
      * Updates a stored message.
+     * Answers 409 for archived messages, which are read only, and 404 for unknown ones.
      *
      * @param id      message identifier
      * @param content new content
@@ -251,17 +391,25 @@ public class Api {
         @PathVariable long id,
         @RequestParam String content
     ) {
-        messagesRepository.updateMessage(id, content);
+        if (!messagesRepository.updateMessage(id, content)) throw notChanged(id);
     }
 
     /**
      * Deletes a stored message.
+     * Answers 409 for archived messages, which are read only, and 404 for unknown ones.
      *
      * @param id message identifier
      */
     @DeleteMapping("/conversations/{chatId}/messages/{id}")
     public void deleteMessage(@PathVariable long id) {
-        messagesRepository.deleteMessage(id);
+        if (!messagesRepository.deleteMessage(id)) throw notChanged(id);
+    }
+
+    private ResponseStatusException notChanged(final long id) {
+        if (messagesRepository.isArchived(id)) {
+            return new ResponseStatusException(HttpStatus.CONFLICT, "Message " + id + " is archived and can't be changed");
+        }
+        return new ResponseStatusException(HttpStatus.NOT_FOUND, "Message " + id + " not found");
     }
 
     /**
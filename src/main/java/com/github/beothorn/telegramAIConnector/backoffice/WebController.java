@@ -2,7 +2,9 @@ package com.github.beothorn.telegramAIConnector.backoffice;
 
 import com.github.beothorn.telegramAIConnector.tasks.TaskRepository;
 import com.github.beothorn.telegramAIConnector.telegram.TelegramAiBot;
+import com.github.beothorn.telegramAIConnector.user.MessagePage;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.SearchPage;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.UserProfileRepository;
 import org.springframework.stereotype.Controller;
@@ -74,27 +76,49 @@ public class WebController {
         return "backoffice";
     }
 
+    /**
+     * Shows the messages matching a search.
+     *
+     * @param q      words to search for
+     * @param page   zero-based page number
+     * @param model  UI model to populate
+     * @return view name
+     */
+    @GetMapping("/search")
+    public String search(
+        @RequestParam(defaultValue = "") String q,
+        @RequestParam(defaultValue = "0") int page,
+        Model model
+    ) {
+        int currentPage = Math.max(page, 0);
+        SearchPage results = messagesRepository.search(q, null, currentPage, Api.SEARCH_RESULTS_PER_PAGE);
+        model.addAttribute("q", q);
+        model.addAttribute("results", results.results());
+        model.addAttribute("page", currentPage);
+        model.addAttribute("nextPage", results.nextPage());
+        return "search";
+    }
+
     /**
      * Shows a single conversation page.
      *
      * @param chatId conversation identifier
-     * @param page   page number for pagination
+     * @param cursor cursor of the page to show, absent for the newest messages
      * @param model  UI model to populate
      * @return view name
      */
     @GetMapping({"/conversations/{chatId}", "/conversations/{chatId}/"})
     public String conversation(
         @PathVariable String chatId,
-        @RequestParam(defaultValue = "0") int page,
+        @RequestParam(required = false) String cursor,
         Model model
     ) {
-        int limit = 50;
+        MessagePage page = messagesRepository.getMessagePage(chatId, Api.parseCursor(cursor), Api.MESSAGES_PER_PAGE);
         model.addAttribute("chatId", chatId);
         model.addAttribute("user", userRepository.getUser(Long.parseLong(chatId)));
-        model.addAttribute("messages", messagesRepository.getMessages(chatId, limit, page * limit));
-        model.addAttribute("prevPage", Math.max(page - 1, 0));
-        model.addAttribute("nextPage", page + 1);
-        model.addAttribute("page", page);
+        model.addAttribute("messages", page.messages());
+        model.addAttribute("cursor", cursor);
+        model.addAttribute("nextCursor", page.next());
         model.addAttribute("tasks", taskRepository.findByChatId(Long.parseLong(chatId)));
         model.addAttribute("profile", userProfileRepository.getProfile(Long.parseLong(chatId)).orElse(""));
         model.addAttribute("files", fileService.list(Long.parseLong(chatId)));
@@ -0,0 +1,164 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connections to the SQLite database shared by all repositories.
+ * SQLite only allows one writer at a time, so all writes go through a single connection guarded by a lock,
+ * each one inside a transaction.
+ * Reads are spread over a small pool of query only connections.
+ * The database runs in WAL mode so readers are not blocked while the writer commits.
+ */
+public class Database implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Database.class);
+
+    public static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    private final String dbUrl;
+    private final DatabaseConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final BlockingQueue<DatabaseConnection> readers;
+    private final List<DatabaseConnection> allReaders = new ArrayList<>();
+
+    /**
+     * Opens the writer and the reader connections.
+     *
+     * @param dbUrl             JDBC connection string
+     * @param readerConnections number of connections used for reads
+     */
+    public Database(
+        final String dbUrl,
+        final int readerConnections
+    ) {
+        this.dbUrl = dbUrl;
+        final int readerCount = Math.max(1, readerConnections);
+        this.readers = new ArrayBlockingQueue<>(readerCount);
+        try {
+            // The writer goes first, it creates the file and switches it to WAL
+            this.writer = open(true);
+            for (int i = 0; i < readerCount; i++) {
+                final DatabaseConnection reader = open(false);
+                allReaders.add(reader);
+                readers.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException("Failed to open database " + dbUrl, e);
+        }
+        logger.info("Opened '{}' with one writer and {} readers", dbUrl, readerCount);
+    }
+
+    private DatabaseConnection open(final boolean writable) throws SQLException {
+        final SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        if (writable) {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        }
+        final DatabaseConnection connection = new DatabaseConnection(
+            DriverManager.getConnection(dbUrl, config.toProperties())
+        );
+        if (!writable) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA query_only = true");
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Runs the given work on one of the reader connections.
+     * Blocks if all readers are in use.
+     *
+     * @param work work to run
+     * @param <T>  result type
+     * @return the work result
+     * @throws SQLException if the work fails or the thread is interrupted while waiting for a connection
+     */
+    public <T> T read(
+        final SqlFunction<DatabaseConnection, T> work
+    ) throws SQLException {
+        final DatabaseConnection reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a reader connection", e);
+        }
+        try {
+            return work.apply(reader);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Runs the given work on the writer connection inside a transaction.
+     * Nested calls on the same thread join the outer transaction.
+     *
+     * @param work work to run
+     * @param <T>  result type
+     * @return the work result
+     * @throws SQLException if the work fails, in which case the transaction is rolled back
+     */
+    public <T> T write(
+        final SqlFunction<DatabaseConnection, T> work
+    ) throws SQLException {
+        writeLock.lock();
+        try {
+            if (writeLock.getHoldCount() > 1) {
+                return work.apply(writer);
+            }
+            writer.connection().setAutoCommit(false);
+            try {
+                final T result = work.apply(writer);
+                writer.connection().commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                writer.connection().rollback();
+                throw e;
+            } finally {
+                writer.connection().setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the JDBC connection string.
+     *
+     * @return JDBC connection string
+     */
+    public String getUrl() {
+        return dbUrl;
+    }
+
+    /**
+     * Closes all connections.
+     */
+    @Override
+    public void close() {
+        if (writer != null) {
+            writeLock.lock();
+            try {
+                writer.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        allReaders.forEach(DatabaseConnection::close);
+    }
+}
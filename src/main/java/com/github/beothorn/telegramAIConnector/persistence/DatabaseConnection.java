@@ -0,0 +1,99 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A pooled connection that keeps its prepared statements around.
+ * Statements returned by {@link #prepare(String)} are owned by this connection and must not be closed
+ * by the caller, only their result sets.
+ * A connection is only used by one thread at a time, see {@link Database}.
+ */
+public class DatabaseConnection implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseConnection.class);
+
+    static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= STATEMENT_CACHE_SIZE) return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    DatabaseConnection(final Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Returns a cached prepared statement for the given sql, preparing it on first use.
+     * Parameters from previous uses are cleared.
+     *
+     * @param sql statement sql
+     * @return prepared statement owned by this connection
+     * @throws SQLException if the statement can't be prepared
+     */
+    public PreparedStatement prepare(final String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * Creates a plain statement, for DDL and one-off queries.
+     * The caller is responsible for closing it.
+     *
+     * @return new statement
+     * @throws SQLException if the statement can't be created
+     */
+    public Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    /**
+     * Returns the underlying JDBC connection.
+     *
+     * @return JDBC connection
+     */
+    public Connection connection() {
+        return connection;
+    }
+
+    /**
+     * Closes all cached statements and the connection.
+     */
+    @Override
+    public void close() {
+        statements.values().forEach(DatabaseConnection::closeQuietly);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close connection", e);
+        }
+    }
+
+    private static void closeQuietly(final Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close statement", e);
+        }
+    }
+}
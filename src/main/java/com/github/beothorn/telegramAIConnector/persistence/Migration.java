@@ -0,0 +1,33 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import java.sql.SQLException;
+
+/**
+ * A single step of the database schema evolution.
+ * Once released, a migration must never change, new changes go into a new migration with a higher version.
+ */
+public interface Migration {
+
+    /**
+     * Schema version reached after this migration is applied.
+     *
+     * @return schema version
+     */
+    int version();
+
+    /**
+     * Short human readable description, used in logs.
+     *
+     * @return description
+     */
+    String description();
+
+    /**
+     * Applies the migration.
+     * Runs inside the same transaction that bumps the schema version.
+     *
+     * @param conn writer connection
+     * @throws SQLException if the migration fails
+     */
+    void apply(DatabaseConnection conn) throws SQLException;
+}
@@ -2,9 +2,12 @@ package com.github.beothorn.telegramAIConnector.persistence;
 
 import com.github.beothorn.telegramAIConnector.auth.AuthenticationRepository;
 import com.github.beothorn.telegramAIConnector.tasks.TaskRepository;
+import com.github.beothorn.telegramAIConnector.telegram.UpdateOffsetRepository;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.UserProfileRepository;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummaryRepository;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,33 +18,70 @@ public class SQLite {
 
     private static final Logger logger = LoggerFactory.getLogger(SQLite.class);
 
-    private final String dbUrl;
+    private final Database database;
+    private final MessagesRepository messagesRepository;
 
     /**
      * Creates and initializes all repositories using a SQLite database stored in the given folder.
+     * All repositories share the same {@link Database}, migrated to the latest schema on startup.
      *
-     * @param dbFolder               folder where the database file is located
-     * @param messagesRepository     repository for messages
-     * @param taskRepository         repository for tasks
-     * @param userRepository         repository for users
+     * @param dbFolder                 folder where the database file is located
+     * @param readerConnections        number of pooled connections used for reads
+     * @param messagesRepository       repository for messages
+     * @param taskRepository           repository for tasks
+     * @param userRepository           repository for users
      * @param authenticationRepository repository for authentication
-     * @param userProfileRepository  repository for user profiles
+     * @param userProfileRepository    repository for user profiles
+     * @param summaryRepository        repository for conversation summaries
+     * @param updateOffsetRepository   repository for the last processed update
      */
     public SQLite(
         @Value("${telegramIAConnector.dbFilesFolder}")  final String dbFolder,
+        @Value("${telegramIAConnector.dbReaderConnections:4}") final int readerConnections,
         final MessagesRepository messagesRepository,
         final TaskRepository taskRepository,
         final UserRepository userRepository,
         final AuthenticationRepository authenticationRepository,
-        final UserProfileRepository userProfileRepository
+        final UserProfileRepository userProfileRepository,
+        final ConversationSummaryRepository summaryRepository,
+        final UpdateOffsetRepository updateOffsetRepository
     ) {
-        this.dbUrl = "jdbc:sqlite:" + dbFolder + "/telegramAIConnector.db";
+        final String dbUrl = "jdbc:sqlite:" + dbFolder + "/telegramAIConnector.db";
         logger.info("Connection string is '{}'", dbUrl);
-        messagesRepository.initDatabase(dbUrl);
-        taskRepository.initDatabase(dbUrl);
-        userRepository.initDatabase(dbUrl);
-        authenticationRepository.initDatabase(dbUrl);
-        userProfileRepository.initDatabase(dbUrl);
+        this.database = open(dbUrl, readerConnections);
+        this.messagesRepository = messagesRepository;
+        messagesRepository.initDatabase(database);
+        taskRepository.initDatabase(database);
+        userRepository.initDatabase(database);
+        authenticationRepository.initDatabase(database);
+        userProfileRepository.initDatabase(database);
+        summaryRepository.initDatabase(database);
+        updateOffsetRepository.initDatabase(database);
     }
 
+    /**
+     * Opens a database and migrates it to the latest schema.
+     *
+     * @param dbUrl             JDBC connection string
+     * @param readerConnections number of pooled connections used for reads
+     * @return database ready to be used by the repositories
+     */
+    public static Database open(
+        final String dbUrl,
+        final int readerConnections
+    ) {
+        final Database database = new Database(dbUrl, readerConnections);
+        final int version = SchemaMigrations.migrate(database);
+        logger.info("Database schema is at version {}", version);
+        return database;
+    }
+
+    /**
+     * Commits pending message inserts and closes the database connections.
+     */
+    @PreDestroy
+    public void close() {
+        messagesRepository.close();
+        database.close();
+    }
 }
@@ -0,0 +1,90 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V1InitialSchema;
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V2TypedMessages;
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V3MessageSearch;
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V4MessageArchive;
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V5ConversationSummaries;
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V6UpdateOffset;
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V7ArchivedMessageSearch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Brings a database to the latest schema version.
+ * The current version is kept in the SQLite {@code user_version} pragma.
+ * Databases created before migrations existed have version 0 and are upgraded in place.
+ */
+public class SchemaMigrations {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    /**
+     * All migrations, ordered by version.
+     */
+    public static final List<Migration> MIGRATIONS = List.of(
+        new V1InitialSchema(),
+        new V2TypedMessages(),
+        new V3MessageSearch(),
+        new V4MessageArchive(),
+        new V5ConversationSummaries(),
+        new V6UpdateOffset(),
+        new V7ArchivedMessageSearch()
+    );
+
+    /**
+     * Applies all pending migrations, each one in its own transaction.
+     *
+     * @param database database to migrate
+     * @return schema version after migrating
+     */
+    public static int migrate(final Database database) {
+        return migrate(database, MIGRATIONS);
+    }
+
+    static int migrate(
+        final Database database,
+        final List<Migration> migrations
+    ) {
+        try {
+            int version = currentVersion(database);
+            for (Migration migration : migrations) {
+                if (migration.version() <= version) continue;
+                logger.info("Migrating database to version {}: {}", migration.version(), migration.description());
+                database.write(conn -> {
+                    migration.apply(conn);
+                    try (Statement stmt = conn.createStatement()) {
+                        // Pragmas can't be bound as parameters
+                        stmt.executeUpdate("PRAGMA user_version = " + migration.version());
+                    }
+                    return null;
+                });
+                version = migration.version();
+            }
+            return version;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to migrate database", e);
+        }
+    }
+
+    /**
+     * Returns the schema version of a database.
+     *
+     * @param database database to check
+     * @return schema version, 0 for databases never migrated
+     * @throws SQLException if the version can't be read
+     */
+    public static int currentVersion(final Database database) throws SQLException {
+        return database.write(conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+}
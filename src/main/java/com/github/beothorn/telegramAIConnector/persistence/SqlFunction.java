@@ -0,0 +1,22 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import java.sql.SQLException;
+
+/**
+ * A function that can throw {@link SQLException}, used to run work on a pooled connection.
+ *
+ * @param <T> input type
+ * @param <R> result type
+ */
+@FunctionalInterface
+public interface SqlFunction<T, R> {
+
+    /**
+     * Applies the function.
+     *
+     * @param input function input
+     * @return function result
+     * @throws SQLException if the database access fails
+     */
+    R apply(T input) throws SQLException;
+}
@@ -0,0 +1,68 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The schema as it was before migrations existed.
+ * Every statement is idempotent so databases created by older versions pass through unchanged.
+ */
+public class V1InitialSchema implements Migration {
+
+    @Override
+    public int version() {
+        return 1;
+    }
+
+    @Override
+    public String description() {
+        return "Initial schema";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS messages (
+                    chatId TEXT NOT NULL,
+                    role TEXT NOT NULL,
+                    content TEXT NOT NULL,
+                    timestamp INTEGER DEFAULT (strftime('%s','now') * 1000)
+                )
+            """);
+            stmt.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS tasks (
+                    key TEXT PRIMARY KEY,
+                    chatId INTEGER NOT NULL,
+                    dateTime TEXT NOT NULL,
+                    command TEXT NOT NULL
+                )
+            """);
+            stmt.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS users (
+                    chatId INTEGER PRIMARY KEY,
+                    username TEXT,
+                    first_name TEXT,
+                    last_name TEXT
+                )
+            """);
+            stmt.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS auth (
+                    chatId INTEGER PRIMARY KEY,
+                    password_hash TEXT NOT NULL,
+                    logged BOOLEAN NOT NULL DEFAULT FALSE,
+                    log_expiration_date TEXT
+                )
+            """);
+            stmt.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS users_profile (
+                    chatId INTEGER PRIMARY KEY,
+                    profile TEXT NOT NULL
+                )
+            """);
+        }
+    }
+}
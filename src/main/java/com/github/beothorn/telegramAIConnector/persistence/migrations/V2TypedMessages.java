@@ -0,0 +1,103 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds the messages table with an integer chat id, a role code and an explicit primary key,
+ * indexed by chat and time so the conversation window is an index range scan.
+ * Also adds an epoch millis due date to tasks.
+ * Role codes must match {@link com.github.beothorn.telegramAIConnector.user.MessageRole},
+ * messages with any other role can't be read back, so they are left out and logged.
+ */
+public class V2TypedMessages implements Migration {
+
+    private static final Logger logger = LoggerFactory.getLogger(V2TypedMessages.class);
+    private static final String KNOWN_ROLES = "('user', 'assistant', 'system', 'tool')";
+
+    @Override
+    public int version() {
+        return 2;
+    }
+
+    @Override
+    public String description() {
+        return "Typed and indexed messages, tasks due date";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare(
+            "SELECT role, COUNT(*) FROM messages WHERE role IS NULL OR role NOT IN " + KNOWN_ROLES + " GROUP BY role"
+        ).executeQuery()) {
+            while (rs.next()) {
+                logger.warn("Skipping {} messages with unknown role '{}'", rs.getInt(2), rs.getString(1));
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE TABLE messages_v2 (
+                    id INTEGER PRIMARY KEY,
+                    chatId INTEGER NOT NULL,
+                    role INTEGER NOT NULL,
+                    content TEXT NOT NULL,
+                    timestamp INTEGER NOT NULL
+                )
+            """);
+            // rowid is kept as id so message ids seen on the backoffice stay the same
+            stmt.executeUpdate("""
+                INSERT INTO messages_v2 (id, chatId, role, content, timestamp)
+                SELECT
+                    rowid,
+                    CAST(chatId AS INTEGER),
+                    CASE role
+                        WHEN 'user' THEN 0
+                        WHEN 'assistant' THEN 1
+                        WHEN 'system' THEN 2
+                        WHEN 'tool' THEN 3
+                    END,
+                    content,
+                    COALESCE(timestamp, 0)
+                FROM messages
+                WHERE role IN %s
+            """.formatted(KNOWN_ROLES));
+            stmt.executeUpdate("DROP TABLE messages");
+            stmt.executeUpdate("ALTER TABLE messages_v2 RENAME TO messages");
+            stmt.executeUpdate("CREATE INDEX idx_messages_chat_timestamp ON messages (chatId, timestamp)");
+
+            stmt.executeUpdate("ALTER TABLE tasks ADD COLUMN dueAt INTEGER NOT NULL DEFAULT 0");
+            stmt.executeUpdate("CREATE INDEX idx_tasks_due_at ON tasks (dueAt)");
+        }
+
+        final Map<String, String> dateTimes = new LinkedHashMap<>();
+        try (ResultSet rs = conn.prepare("SELECT key, dateTime FROM tasks").executeQuery()) {
+            while (rs.next()) {
+                dateTimes.put(rs.getString("key"), rs.getString("dateTime"));
+            }
+        }
+        final PreparedStatement update = conn.prepare("UPDATE tasks SET dueAt = ? WHERE key = ?");
+        for (Map.Entry<String, String> task : dateTimes.entrySet()) {
+            long dueAt;
+            try {
+                dueAt = InstantUtils.parseToInstant(task.getValue()).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                logger.warn("Task '{}' has an invalid date '{}', it will be considered expired.", task.getKey(), task.getValue());
+                dueAt = 0;
+            }
+            update.setLong(1, dueAt);
+            update.setString(2, task.getKey());
+            update.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Adds a full text index over message contents.
+ * The index is an external content FTS5 table, it stores only the index and reads the text from messages.
+ * Triggers keep it in sync on every insert, update and delete, so it never needs a rebuild after this.
+ */
+public class V3MessageSearch implements Migration {
+
+    @Override
+    public int version() {
+        return 3;
+    }
+
+    @Override
+    public String description() {
+        return "Full text search over messages";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE VIRTUAL TABLE messages_fts USING fts5(
+                    content,
+                    content = 'messages',
+                    content_rowid = 'id',
+                    tokenize = 'unicode61 remove_diacritics 2'
+                )
+            """);
+            stmt.executeUpdate("""
+                CREATE TRIGGER messages_fts_insert AFTER INSERT ON messages BEGIN
+                    INSERT INTO messages_fts (rowid, content) VALUES (new.id, new.content);
+                END
+            """);
+            stmt.executeUpdate("""
+                CREATE TRIGGER messages_fts_delete AFTER DELETE ON messages BEGIN
+                    INSERT INTO messages_fts (messages_fts, rowid, content) VALUES ('delete', old.id, old.content);
+                END
+            """);
+            stmt.executeUpdate("""
+                CREATE TRIGGER messages_fts_update AFTER UPDATE OF content ON messages BEGIN
+                    INSERT INTO messages_fts (messages_fts, rowid, content) VALUES ('delete', old.id, old.content);
+                    INSERT INTO messages_fts (rowid, content) VALUES (new.id, new.content);
+                END
+            """);
+            // Index what is already there
+            stmt.executeUpdate("INSERT INTO messages_fts (messages_fts) VALUES ('rebuild')");
+        }
+    }
+}
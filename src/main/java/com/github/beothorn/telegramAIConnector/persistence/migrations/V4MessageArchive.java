@@ -0,0 +1,43 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Adds the index of archived message segments.
+ * The segments themselves are files, see {@link com.github.beothorn.telegramAIConnector.user.archive.MessageArchive}.
+ */
+public class V4MessageArchive implements Migration {
+
+    @Override
+    public int version() {
+        return 4;
+    }
+
+    @Override
+    public String description() {
+        return "Archived message segments";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE TABLE archive_segments (
+                    id INTEGER PRIMARY KEY,
+                    chatId INTEGER NOT NULL,
+                    firstId INTEGER NOT NULL,
+                    firstTimestamp INTEGER NOT NULL,
+                    lastId INTEGER NOT NULL,
+                    lastTimestamp INTEGER NOT NULL,
+                    messageCount INTEGER NOT NULL,
+                    fileName TEXT NOT NULL
+                )
+            """);
+            stmt.executeUpdate("CREATE INDEX idx_archive_segments_chat ON archive_segments (chatId, lastTimestamp)");
+        }
+    }
+}
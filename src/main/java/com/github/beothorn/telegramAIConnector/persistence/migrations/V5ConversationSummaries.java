@@ -0,0 +1,39 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Adds the rolling conversation summaries.
+ * Each summary remembers the last message it covers, so it can be extended with newer messages only.
+ */
+public class V5ConversationSummaries implements Migration {
+
+    @Override
+    public int version() {
+        return 5;
+    }
+
+    @Override
+    public String description() {
+        return "Rolling conversation summaries";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE TABLE conversation_summaries (
+                    chatId INTEGER PRIMARY KEY,
+                    summary TEXT NOT NULL,
+                    lastMessageId INTEGER NOT NULL,
+                    lastTimestamp INTEGER NOT NULL,
+                    updatedAt INTEGER NOT NULL
+                )
+            """);
+        }
+    }
+}
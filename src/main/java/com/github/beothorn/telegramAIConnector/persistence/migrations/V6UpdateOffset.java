@@ -0,0 +1,37 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Adds the id of the last Telegram update fully processed, so updates delivered again after a restart are skipped.
+ * The table has a single row.
+ */
+public class V6UpdateOffset implements Migration {
+
+    @Override
+    public int version() {
+        return 6;
+    }
+
+    @Override
+    public String description() {
+        return "Last processed Telegram update";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE TABLE update_offset (
+                    id INTEGER PRIMARY KEY CHECK (id = 0),
+                    lastUpdateId INTEGER NOT NULL,
+                    updatedAt INTEGER NOT NULL
+                )
+            """);
+        }
+    }
+}
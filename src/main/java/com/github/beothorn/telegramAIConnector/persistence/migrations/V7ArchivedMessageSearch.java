@@ -0,0 +1,41 @@
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
+
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.persistence.Migration;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Adds a full text index over archived messages.
+ * Archived messages are no longer on the messages table, so unlike the index from
+ * {@link V3MessageSearch} this one stores the text and the fields search returns.
+ * Messages are added when they are archived and removed with the archive of their chat.
+ */
+public class V7ArchivedMessageSearch implements Migration {
+
+    @Override
+    public int version() {
+        return 7;
+    }
+
+    @Override
+    public String description() {
+        return "Full text search over archived messages";
+    }
+
+    @Override
+    public void apply(final DatabaseConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("""
+                CREATE VIRTUAL TABLE archived_messages_fts USING fts5(
+                    content,
+                    chatId UNINDEXED,
+                    role UNINDEXED,
+                    timestamp UNINDEXED,
+                    tokenize = 'unicode61 remove_diacritics 2'
+                )
+            """);
+        }
+    }
+}
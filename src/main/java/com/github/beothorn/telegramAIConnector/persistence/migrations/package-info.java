@@ -0,0 +1,4 @@
+/**
+ * Schema migrations, one class per schema version.
+ */
+package com.github.beothorn.telegramAIConnector.persistence.migrations;
@@ -1,4 +1,4 @@
 /**
- * Database initialization utilities.
+ * Database connections and schema migrations.
  */
 package com.github.beothorn.telegramAIConnector.persistence;
@@ -1,5 +1,7 @@
 package com.github.beothorn.telegramAIConnector.tasks;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -18,54 +20,32 @@ public class TaskRepository {
 
     private final Logger logger = LoggerFactory.getLogger(TaskRepository.class);
 
-    private String dbUrl;
+    private Database database;
 
     /**
-     * Initializes the repository using the provided database URL.
+     * Initializes the repository using the provided database.
      *
-     * @param dbUrl JDBC connection string
+     * @param database shared database
      */
-    public void initDatabase(final String dbUrl) {
-        this.dbUrl = dbUrl;
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement()) {
-
-            stmt.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS tasks (
-                    key TEXT PRIMARY KEY,
-                    chatId INTEGER NOT NULL,
-                    dateTime TEXT NOT NULL,
-                    command TEXT NOT NULL
-                )
-            """);
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to initialize database", e);
-        }
+    public void initDatabase(final Database database) {
+        this.database = database;
     }
 
     /**
-     * Retrieves all stored tasks.
+     * Retrieves all stored tasks, the ones due first come first.
      *
      * @return list of scheduled tasks
      */
     public List<TaskCommand> getAll() {
-        List<TaskCommand> tasks = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT key, chatId, dateTime, command FROM tasks")) {
-
-            while (rs.next()) {
-                tasks.add(new TaskCommand(
-                        rs.getString("key"),
-                        rs.getLong("chatId"),
-                        rs.getString("dateTime"),
-                        rs.getString("command")
-                ));
-            }
+        try {
+            return database.read(conn -> {
+                try (ResultSet rs = conn.prepare("SELECT key, chatId, dateTime, command FROM tasks ORDER BY dueAt").executeQuery()) {
+                    return toTasks(rs);
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to fetch tasks", e);
         }
-        return tasks;
     }
 
     /**
@@ -75,23 +55,30 @@ public class TaskRepository {
      * @return list of tasks for the chat
      */
     public List<TaskCommand> findByChatId(long chatId) {
-        List<TaskCommand> tasks = new ArrayList<>();
-        String sql = "SELECT key, chatId, dateTime, command FROM tasks WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, chatId);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                tasks.add(new TaskCommand(
-                        rs.getString("key"),
-                        rs.getLong("chatId"),
-                        rs.getString("dateTime"),
-                        rs.getString("command")
-                ));
-            }
+        String sql = "SELECT key, chatId, dateTime, command FROM tasks WHERE chatId = ? ORDER BY dueAt";
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return toTasks(rs);
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to fetch tasks", e);
         }
+    }
+
+    private static List<TaskCommand> toTasks(final ResultSet rs) throws SQLException {
+        List<TaskCommand> tasks = new ArrayList<>();
+        while (rs.next()) {
+            tasks.add(new TaskCommand(
+                    rs.getString("key"),
+                    rs.getLong("chatId"),
+                    rs.getString("dateTime"),
+                    rs.getString("command")
+            ));
+        }
         return tasks;
     }
 
@@ -101,16 +88,18 @@ public class TaskRepository {
      * @param taskCommand task to store
      */
     public void addTask(TaskCommand taskCommand) {
-        String sql = "INSERT OR REPLACE INTO tasks (key, chatId, dateTime, command) VALUES (?, ?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, taskCommand.key());
-            stmt.setLong(2, taskCommand.chatId());
-            stmt.setString(3, taskCommand.dateTime());
-            stmt.setString(4, taskCommand.command());
-            stmt.executeUpdate();
-
+        String sql = "INSERT OR REPLACE INTO tasks (key, chatId, dateTime, command, dueAt) VALUES (?, ?, ?, ?, ?)";
+        long dueAt = InstantUtils.parseToInstant(taskCommand.dateTime()).toEpochMilli();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setString(1, taskCommand.key());
+                stmt.setLong(2, taskCommand.chatId());
+                stmt.setString(3, taskCommand.dateTime());
+                stmt.setString(4, taskCommand.command());
+                stmt.setLong(5, dueAt);
+                return stmt.executeUpdate();
+            });
         } catch (SQLException e) {
             logger.error("Error adding task to repository.", e);
             throw new RuntimeException("Failed to add task", e);
@@ -125,17 +114,36 @@ public class TaskRepository {
      */
     public boolean deleteTask(String key) {
         String sql = "DELETE FROM tasks WHERE key = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, key);
-            return stmt.executeUpdate() > 0;
-
+        try {
+            return database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setString(1, key);
+                return stmt.executeUpdate() > 0;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to delete task", e);
         }
     }
 
+    /**
+     * Deletes all tasks that were due before the given time.
+     *
+     * @param epochMillis time limit in epoch milliseconds
+     * @return number of deleted tasks
+     */
+    public int deleteDueBefore(long epochMillis) {
+        String sql = "DELETE FROM tasks WHERE dueAt < ?";
+        try {
+            return database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, epochMillis);
+                return stmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete expired tasks", e);
+        }
+    }
+
     /**
      * Deletes all tasks scheduled for a chat.
      *
@@ -143,10 +151,12 @@ public class TaskRepository {
      */
     public void deleteByChatId(long chatId) {
         String sql = "DELETE FROM tasks WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, chatId);
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                return stmt.executeUpdate();
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to delete tasks", e);
         }
@@ -51,19 +51,17 @@ public class TaskScheduler {
 
     /**
      * Restores tasks persisted in the database.
+     * Expired tasks are deleted first, in a single statement, so every task left is scheduled.
      *
      * @param telegramAiBot bot instance used to execute restored tasks
      */
     public void restoreTasksFromDatabase(
         final TelegramAiBot telegramAiBot
     ) {
+        taskRepository.deleteDueBefore(System.currentTimeMillis()); // Clean up expired tasks
         for (TaskCommand task : taskRepository.getAll()) {
             Instant dateTime = InstantUtils.parseToInstant(task.dateTime());
-            if (dateTime.isAfter(Instant.now())) {
-                schedule(telegramAiBot,task.chatId(), task.command(), dateTime, task.key(), false);
-            } else {
-                taskRepository.deleteTask(task.key()); // Clean up expired tasks
-            }
+            schedule(telegramAiBot,task.chatId(), task.command(), dateTime, task.key(), false);
         }
     }
 
@@ -0,0 +1,258 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs work for each chat one at a time, in the order it was submitted.
+ * Different chats run in parallel, each chat with work pending has one virtual thread draining its queue.
+ * This way two quick messages from the same chat are answered in order and never
+ * read or write the conversation memory at the same time.
+ * <p>
+ * Admission is bounded: at most a fixed number of tasks run at once across all chats, the others
+ * wait for a free slot, and each chat can only have a fixed number of tasks waiting before new
+ * ones are rejected. Slots are handed out in the order they were asked for, and a chat never has
+ * more than one task asking, so chats waiting for a slot take turns.
+ */
+@Component
+@DependsOn("SQLite")
+public class ChatMailbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMailbox.class);
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Semaphore slots;
+    private final int maxQueuedPerChat;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger waitingForSlot = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+
+    /**
+     * Creates a mailbox running work on virtual threads.
+     *
+     * @param maxRunning       tasks running at the same time across all chats, 0 for no limit
+     * @param maxQueuedPerChat tasks waiting per chat before new ones are rejected, 0 for no limit
+     */
+    public ChatMailbox(
+        @Value("${telegramIAConnector.maxConcurrentPrompts:16}") final int maxRunning,
+        @Value("${telegramIAConnector.maxQueuedPerChat:5}") final int maxQueuedPerChat
+    ) {
+        this.slots = maxRunning > 0 ? new Semaphore(maxRunning, true) : null;
+        this.maxQueuedPerChat = maxQueuedPerChat;
+    }
+
+    /**
+     * Queues work for a chat, it starts after all work previously queued for the same chat finished
+     * and a slot is free.
+     *
+     * @param chatId chat identifier
+     * @param work   work to run
+     * @param <T>    result type
+     * @return future completed with the work result
+     * @throws RejectedExecutionException if the chat already has too many tasks waiting
+     */
+    public <T> CompletableFuture<T> submit(
+        final long chatId,
+        final Supplier<T> work
+    ) {
+        return enqueue(chatId, work).result();
+    }
+
+    /**
+     * Queues work for a chat like {@link #submit}, also telling how much is ahead of it.
+     * The position counts the task running or waiting for the same chat and, when no slot is free,
+     * the tasks of other chats already waiting for one.
+     *
+     * @param chatId chat identifier
+     * @param work   work to run
+     * @param <T>    result type
+     * @return the queued work and its position
+     * @throws RejectedExecutionException if the chat already has too many tasks waiting
+     */
+    public <T> QueuedWork<T> enqueue(
+        final long chatId,
+        final Supplier<T> work
+    ) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long submittedAt = System.nanoTime();
+        final Runnable task = () -> {
+            final long startedAt = System.nanoTime();
+            queueNanos.add(startedAt - submittedAt);
+            try {
+                future.complete(work.get());
+            } catch (final Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                serviceNanos.add(System.nanoTime() - startedAt);
+                completed.increment();
+            }
+        };
+        final boolean[] full = new boolean[1];
+        final int[] position = new int[1];
+        // All changes to a mailbox happen inside compute, so adding work and
+        // the drain loop finding the queue empty can not interleave
+        mailboxes.compute(chatId, (id, current) -> {
+            if (current != null && maxQueuedPerChat > 0 && current.pending.size() >= maxQueuedPerChat) {
+                full[0] = true;
+                return current;
+            }
+            final Mailbox mailbox = current == null ? new Mailbox() : current;
+            position[0] = positionOf(mailbox);
+            mailbox.pending.add(task);
+            if (current == null) {
+                executor.execute(() -> drain(chatId, mailbox));
+            }
+            return mailbox;
+        });
+        if (full[0]) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many messages waiting for chat " + chatId);
+        }
+        return new QueuedWork<>(future, position[0]);
+    }
+
+    /**
+     * Counts what is ahead of a task about to be added to a mailbox, called inside compute.
+     */
+    private int positionOf(final Mailbox mailbox) {
+        final int sameChat = mailbox.pending.size() + (mailbox.holding ? 1 : 0);
+        if (slots == null || slots.availablePermits() > 0) return sameChat;
+        // The chat's own task waiting for a slot is already counted
+        final int otherChats = waitingForSlot.get() - (mailbox.waiting ? 1 : 0);
+        return Math.max(1, sameChat + Math.max(0, otherChats));
+    }
+
+    /**
+     * Returns how many submitted tasks for a chat are waiting, not counting the running one.
+     *
+     * @param chatId chat identifier
+     * @return number of waiting tasks
+     */
+    public int queueDepth(final long chatId) {
+        final Mailbox mailbox = mailboxes.get(chatId);
+        return mailbox == null ? 0 : mailbox.pending.size();
+    }
+
+    /**
+     * Returns the current load.
+     *
+     * @return running, waiting and rejected task counts
+     */
+    public MailboxStats stats() {
+        final int queued = mailboxes.values().stream().mapToInt(m -> m.pending.size()).sum();
+        return new MailboxStats(running.get(), waitingForSlot.get(), queued, rejected.get());
+    }
+
+    /**
+     * Returns how long tasks waited and ran.
+     * Waiting includes both the time behind other tasks of the same chat and the time waiting for a slot.
+     *
+     * @return completed task count and average times
+     */
+    public StageTimings timings() {
+        final long done = completed.sum();
+        if (done == 0) return new StageTimings(0, 0, 0);
+        return new StageTimings(
+            done,
+            queueNanos.sum() / 1_000_000.0 / done,
+            serviceNanos.sum() / 1_000_000.0 / done
+        );
+    }
+
+    private void drain(
+        final long chatId,
+        final Mailbox mailbox
+    ) {
+        Runnable next;
+        while ((next = poll(chatId, mailbox)) != null) {
+            mailbox.waiting = true;
+            final boolean acquired = acquireSlot();
+            mailbox.waiting = false;
+            if (!acquired) return;
+            running.incrementAndGet();
+            try {
+                next.run();
+            } finally {
+                running.decrementAndGet();
+                if (slots != null) slots.release();
+            }
+        }
+    }
+
+    private boolean acquireSlot() {
+        if (slots == null) return true;
+        waitingForSlot.incrementAndGet();
+        try {
+            slots.acquire();
+            return true;
+        } catch (final InterruptedException e) {
+            // Only happens on shutdown
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waitingForSlot.decrementAndGet();
+        }
+    }
+
+    private Runnable poll(
+        final long chatId,
+        final Mailbox mailbox
+    ) {
+        final Runnable[] next = new Runnable[1];
+        mailboxes.compute(chatId, (id, current) -> {
+            next[0] = mailbox.pending.poll();
+            mailbox.holding = next[0] != null;
+            // An empty mailbox is removed, the next submit starts a new drain
+            return next[0] == null ? null : current;
+        });
+        return next[0];
+    }
+
+    /**
+     * Stops accepting work, queued work that did not start is dropped.
+     * Running work is interrupted and given a few seconds to end, so it is done with the database
+     * before it is closed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Chat mailbox did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Mailbox {
+        final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        // Set while the drain thread has taken a task, until it asks for the next one
+        volatile boolean holding;
+        // Set while the taken task waits for a slot
+        volatile boolean waiting;
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+/**
+ * Load of the chat mailbox.
+ *
+ * @param running        tasks running now
+ * @param waitingForSlot tasks next in line for their chat, waiting for a free slot
+ * @param queued         tasks waiting behind another task of the same chat
+ * @param rejected       tasks rejected since startup because their chat had too many waiting
+ */
+public record MailboxStats(
+    int running,
+    int waitingForSlot,
+    int queued,
+    long rejected
+) {}
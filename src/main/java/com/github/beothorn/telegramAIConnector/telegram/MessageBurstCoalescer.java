@@ -0,0 +1,138 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Merges messages a user sends in a quick burst into a single prompt.
+ * The first message of a burst opens a batch and, after the burst window, the batch is handed over
+ * to be processed. Messages arriving until the batch is taken, including while it waits
+ * on the chat queue, join the same batch, so the whole burst gets one answer.
+ */
+@Component
+public class MessageBurstCoalescer {
+
+    private final long windowMillis;
+    private final Map<Long, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "MessageBurstCoalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the coalescer.
+     *
+     * @param windowMillis time to wait for more messages after the first one of a burst, 0 to only merge
+     *                     messages that arrive while the previous ones are still waiting
+     */
+    public MessageBurstCoalescer(
+        @Value("${telegramIAConnector.messageBurstWindowMillis:1000}") final long windowMillis
+    ) {
+        this.windowMillis = Math.max(windowMillis, 0);
+    }
+
+    /**
+     * Adds a message to the open batch of the chat.
+     * If this opens a new batch, onBatchReady runs once the burst window is over.
+     * It must eventually call {@link #take(long)}, any message added before that is part of the batch.
+     *
+     * @param chatId       chat identifier
+     * @param text         message text
+     * @param onBatchReady called once per batch when it should be processed, returns a future completed
+     *                     once the batch was answered
+     * @return future completed once the batch the message joined was answered
+     */
+    public CompletableFuture<Void> add(
+        final long chatId,
+        final String text,
+        final Supplier<CompletableFuture<?>> onBatchReady
+    ) {
+        final boolean[] opened = new boolean[1];
+        final Batch batch = batches.compute(chatId, (id, open) -> {
+            final Batch joined = open == null ? new Batch(onBatchReady) : open;
+            opened[0] = open == null;
+            joined.lines.add(text);
+            return joined;
+        });
+        if (!opened[0]) return batch.answered;
+        if (windowMillis == 0) {
+            batch.handOver();
+        } else {
+            scheduler.schedule(batch::handOver, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return batch.answered;
+    }
+
+    /**
+     * Hands over the open batch of a chat now, without waiting for the burst window.
+     * Called before other work is queued for the chat, so the burst keeps its place before it.
+     * Once this returns the batch, if any, was handed over. Messages added later still join it until it is taken.
+     *
+     * @param chatId chat identifier
+     */
+    public void flush(final long chatId) {
+        final Batch batch = batches.get(chatId);
+        if (batch != null) batch.handOver();
+    }
+
+    /**
+     * Closes the batch of a chat and returns its messages as one prompt, one message per line.
+     * The next message added opens a new batch.
+     *
+     * @param chatId chat identifier
+     * @return merged messages or null if there is no open batch
+     */
+    public String take(final long chatId) {
+        final Batch batch = batches.remove(chatId);
+        if (batch == null) return null;
+        return String.join("\n", batch.lines);
+    }
+
+    /**
+     * Messages of a batch and a future completed once they were answered.
+     */
+    private static final class Batch {
+        private final List<String> lines = new ArrayList<>();
+        private final CompletableFuture<Void> answered = new CompletableFuture<>();
+        private final Supplier<CompletableFuture<?>> onBatchReady;
+        private boolean handedOver;
+
+        private Batch(final Supplier<CompletableFuture<?>> onBatchReady) {
+            this.onBatchReady = onBatchReady;
+        }
+
+        /**
+         * Runs onBatchReady the first time it is called, later calls wait for it and do nothing.
+         */
+        synchronized void handOver() {
+            if (handedOver) return;
+            handedOver = true;
+            try {
+                onBatchReady.get().whenComplete((answer, error) -> answered.complete(null));
+            } catch (RuntimeException e) {
+                answered.complete(null);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops the scheduler, batches not handed over yet are dropped.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,435 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces calls to Telegram so they stay under its rate limits instead of failing with too many requests.
+ * Calls are sent when both the global and the chat {@link TokenBucket} have a token.
+ * Each chat has its own queue and one call on the wire at a time, so the calls of a chat are sent in
+ * the order they were queued, whatever their priority. {@link OutboundPriority} only decides which
+ * chat goes first when several are waiting: the one with the most urgent call queued.
+ * When Telegram still answers too many requests, the chat is paused for the time Telegram asks
+ * for and the call is queued again.
+ * Calls are asynchronous, no thread waits while a call is on the wire, so calls to different
+ * chats are in flight at the same time, up to the http client limits.
+ */
+@Component
+public class OutboundDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundDispatcher.class);
+    private static final int MAX_RETRIES = 3;
+    private static final int IDLE_BUCKETS_CHECK = 1024;
+
+    private final double chatPerSecond;
+    private final int chatBurst;
+    private final TokenBucket global;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Long, ChatQueue> chats = new HashMap<>();
+    // Chats with queued calls, a chat is taken out before its calls change and put back after
+    private final TreeSet<ChatQueue> queue = new TreeSet<>(
+        Comparator.<ChatQueue, OutboundPriority>comparing(chat -> chat.priority).thenComparingLong(chat -> chat.sequence)
+    );
+    private final Map<Long, TokenBucket> chatBuckets = new HashMap<>();
+    private final Map<Long, Long> pausedUntil = new HashMap<>();
+    private final Set<Long> sending = new HashSet<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    private long sequence;
+    private boolean stopped;
+    private long sent;
+    private long rateLimited;
+    private long failed;
+    private long coalesced;
+    private long dispatched;
+    private long queueNanos;
+
+    /**
+     * Creates the dispatcher and starts its thread.
+     *
+     * @param globalPerSecond calls per second across all chats, 0 for no limit
+     * @param chatPerSecond   calls per second to the same chat, 0 for no limit
+     * @param chatBurst       calls a chat can get in a row before being paced
+     */
+    public OutboundDispatcher(
+        @Value("${telegramIAConnector.outbound.globalPerSecond:30}") final double globalPerSecond,
+        @Value("${telegramIAConnector.outbound.chatPerSecond:1}") final double chatPerSecond,
+        @Value("${telegramIAConnector.outbound.chatBurst:3}") final int chatBurst
+    ) {
+        this.global = globalPerSecond > 0 ? new TokenBucket(globalPerSecond, globalPerSecond, System.nanoTime()) : null;
+        this.chatPerSecond = chatPerSecond;
+        this.chatBurst = chatBurst;
+        this.dispatcher = new Thread(this::dispatch, "TelegramOutbound");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues a call.
+     * A typing indicator queued while another one for the same chat is still waiting is dropped.
+     *
+     * @param chatId   chat the call is for
+     * @param priority call priority
+     * @param call     call to make
+     * @param <T>      result type
+     * @return future completed with the call result
+     * @throws RejectedExecutionException if the dispatcher is stopped
+     */
+    public <T> CompletableFuture<T> submit(
+        final long chatId,
+        final OutboundPriority priority,
+        final TelegramCall<T> call
+    ) {
+        lock.lock();
+        try {
+            if (stopped) throw new RejectedExecutionException("Outbound dispatcher is stopped");
+            if (priority == OutboundPriority.TYPING && typingQueued(chatId)) {
+                coalesced++;
+                return CompletableFuture.completedFuture(null);
+            }
+            final Job<T> job = new Job<>(chatId, priority, sequence++, call);
+            enqueue(job, false);
+            changed.signalAll();
+            return job.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a call and waits for it.
+     *
+     * @param chatId   chat the call is for
+     * @param priority call priority
+     * @param call     call to make
+     * @param <T>      result type
+     * @return call result
+     * @throws TelegramApiException if the call fails or the wait is interrupted
+     */
+    public <T> T execute(
+        final long chatId,
+        final OutboundPriority priority,
+        final TelegramCall<T> call
+    ) throws TelegramApiException {
+        try {
+            return submit(chatId, priority, call).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException("Interrupted waiting to send to " + chatId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TelegramApiException telegramError) throw telegramError;
+            if (e.getCause() instanceof RuntimeException runtimeError) throw runtimeError;
+            throw new TelegramApiException("Could not send to " + chatId, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the queue metrics.
+     *
+     * @return queued calls and counters since startup
+     */
+    public OutboundStats stats() {
+        lock.lock();
+        try {
+            final Map<OutboundPriority, Integer> queued = new EnumMap<>(OutboundPriority.class);
+            for (OutboundPriority priority : OutboundPriority.values()) queued.put(priority, 0);
+            chats.values().forEach(chat -> chat.jobs.forEach(job -> queued.merge(job.priority, 1, Integer::sum)));
+            final long now = System.nanoTime();
+            final int paused = (int) pausedUntil.values().stream().filter(until -> until > now).count();
+            return new OutboundStats(
+                queued,
+                sending.size(),
+                paused,
+                sent,
+                rateLimited,
+                failed,
+                coalesced,
+                dispatched == 0 ? 0 : queueNanos / 1_000_000.0 / dispatched
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean typingQueued(final long chatId) {
+        final ChatQueue chat = chats.get(chatId);
+        if (chat == null) return false;
+        for (Job<?> job : chat.jobs) {
+            if (job.priority == OutboundPriority.TYPING) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a call to its chat queue, at the end, or at the start for a call being sent again.
+     */
+    private void enqueue(
+        final Job<?> job,
+        final boolean first
+    ) {
+        final ChatQueue chat = chats.computeIfAbsent(job.chatId, ChatQueue::new);
+        if (!chat.jobs.isEmpty()) queue.remove(chat);
+        if (first) {
+            chat.jobs.addFirst(job);
+        } else {
+            chat.jobs.addLast(job);
+        }
+        chat.refresh();
+        queue.add(chat);
+    }
+
+    /**
+     * Takes the oldest call of a chat.
+     */
+    private Job<?> dequeue(final ChatQueue chat) {
+        queue.remove(chat);
+        final Job<?> job = chat.jobs.pollFirst();
+        if (chat.jobs.isEmpty()) {
+            chats.remove(chat.chatId);
+        } else {
+            chat.refresh();
+            queue.add(chat);
+        }
+        return job;
+    }
+
+    private void dispatch() {
+        lock.lock();
+        try {
+            while (!stopped) {
+                final long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                ChatQueue readyChat = null;
+                final long globalWait = global == null ? 0 : global.nanosUntilAvailable(now);
+                if (globalWait > 0) {
+                    wait = globalWait;
+                } else {
+                    for (ChatQueue chat : queue) {
+                        final long chatWait = nanosUntilReady(chat.chatId, now);
+                        if (chatWait == 0) {
+                            readyChat = chat;
+                            break;
+                        }
+                        if (chatWait > 0) wait = Math.min(wait, chatWait);
+                    }
+                }
+                if (readyChat == null) {
+                    if (wait == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(wait);
+                    }
+                    continue;
+                }
+                final Job<?> ready = dequeue(readyChat);
+                if (global != null) global.tryTake(now);
+                if (chatPerSecond > 0) chatBucket(ready.chatId, now).tryTake(now);
+                pausedUntil.remove(ready.chatId);
+                sending.add(ready.chatId);
+                dispatched++;
+                queueNanos += now - ready.queuedAt;
+                final Job<?> job = ready;
+                senders.execute(() -> send(job));
+                if (chatBuckets.size() > IDLE_BUCKETS_CHECK) {
+                    chatBuckets.entrySet().removeIf(e -> !sending.contains(e.getKey()) && e.getValue().isFull(now));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Only happens on shutdown
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns 0 if a call to the chat can be sent now, the time to wait if it can be sent later
+     * or -1 if it has to wait for the call being sent.
+     */
+    private long nanosUntilReady(
+        final long chatId,
+        final long now
+    ) {
+        if (sending.contains(chatId)) return -1;
+        final Long until = pausedUntil.get(chatId);
+        final long pause = until == null ? 0 : Math.max(0, until - now);
+        final long rate = chatPerSecond > 0 ? chatBucket(chatId, now).nanosUntilAvailable(now) : 0;
+        return Math.max(pause, rate);
+    }
+
+    private TokenBucket chatBucket(
+        final long chatId,
+        final long now
+    ) {
+        return chatBuckets.computeIfAbsent(chatId, id -> new TokenBucket(chatPerSecond, chatBurst, now));
+    }
+
+    private <T> void send(final Job<T> job) {
+        final CompletableFuture<T> call;
+        try {
+            call = job.call.execute();
+        } catch (Throwable t) {
+            finish(job, null, t);
+            return;
+        }
+        if (call == null) {
+            finish(job, null, new IllegalStateException("Telegram call returned no future"));
+            return;
+        }
+        call.whenComplete((result, error) -> finish(job, result, error));
+    }
+
+    /**
+     * Runs when Telegram answered, usually on the http client thread, so callers are completed on
+     * the dispatcher executor instead of making the http client wait for them.
+     */
+    private <T> void finish(
+        final Job<T> job,
+        final T result,
+        final Throwable failure
+    ) {
+        final Throwable error = failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+        final Integer retryAfter = retryAfterSeconds(error);
+        boolean retrying = false;
+        lock.lock();
+        try {
+            sending.remove(job.chatId);
+            if (error == null) {
+                sent++;
+            } else if (retryAfter != null) {
+                rateLimited++;
+                pausedUntil.put(job.chatId, System.nanoTime() + Duration.ofSeconds(retryAfter).toNanos());
+                logger.warn("Telegram asked to wait {}s before sending to {}", retryAfter, job.chatId);
+                // A late typing indicator is useless
+                if (job.priority != OutboundPriority.TYPING && job.attempts++ < MAX_RETRIES && !stopped) {
+                    enqueue(job, true);
+                    retrying = true;
+                } else {
+                    failed++;
+                }
+            } else {
+                failed++;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (retrying) return;
+        final Runnable complete = () -> {
+            if (error != null) {
+                job.future.completeExceptionally(error);
+            } else {
+                job.future.complete(result);
+            }
+        };
+        try {
+            senders.execute(complete);
+        } catch (RejectedExecutionException e) {
+            complete.run();
+        }
+    }
+
+    private static Integer retryAfterSeconds(final Throwable error) {
+        if (error instanceof TelegramApiRequestException request
+            && request.getErrorCode() != null
+            && request.getErrorCode() == 429) {
+            if (request.getParameters() != null && request.getParameters().getRetryAfter() != null) {
+                return request.getParameters().getRetryAfter();
+            }
+            return 1;
+        }
+        return null;
+    }
+
+    /**
+     * Stops sending, calls still queued fail.
+     */
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            stopped = true;
+            chats.values().forEach(chat -> chat.jobs.forEach(job -> job.future.completeExceptionally(
+                new RejectedExecutionException("Outbound dispatcher is stopped")
+            )));
+            chats.clear();
+            queue.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dispatcher.interrupt();
+        senders.shutdownNow();
+    }
+
+    /**
+     * Calls waiting for a chat, in order. The chat is served by its most urgent call,
+     * ties go to the chat waiting the longest.
+     */
+    private static final class ChatQueue {
+        final long chatId;
+        final ArrayDeque<Job<?>> jobs = new ArrayDeque<>();
+        OutboundPriority priority;
+        long sequence;
+
+        ChatQueue(final long chatId) {
+            this.chatId = chatId;
+        }
+
+        void refresh() {
+            priority = null;
+            for (Job<?> job : jobs) {
+                if (priority == null || job.priority.compareTo(priority) < 0) priority = job.priority;
+            }
+            sequence = jobs.getFirst().sequence;
+        }
+    }
+
+    private static final class Job<T> {
+        final long chatId;
+        final OutboundPriority priority;
+        final long sequence;
+        final TelegramCall<T> call;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+        int attempts;
+
+        Job(
+            final long chatId,
+            final OutboundPriority priority,
+            final long sequence,
+            final TelegramCall<T> call
+        ) {
+            this.chatId = chatId;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.call = call;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+/**
+ * Order in which chats with calls waiting are served, earlier values first.
+ * Calls to the same chat are always sent in the order they were queued.
+ */
+public enum OutboundPriority {
+    /** Answers and notices to a user waiting for them. */
+    REPLY,
+    /** Messages nobody is waiting for, like broadcasts. */
+    BULK,
+    /** Typing indicators, dropped when one is already waiting. */
+    TYPING
+}
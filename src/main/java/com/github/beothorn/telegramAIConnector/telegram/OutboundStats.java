@@ -0,0 +1,26 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import java.util.Map;
+
+/**
+ * Load of the outbound dispatcher.
+ *
+ * @param queuedByPriority calls waiting to be sent, per priority
+ * @param inFlight         calls being sent now
+ * @param pausedChats      chats Telegram asked to wait before sending again
+ * @param sent             calls sent successfully since startup
+ * @param rateLimited      calls refused by Telegram with too many requests since startup
+ * @param failed           calls that failed since startup
+ * @param coalesced        typing indicators dropped because one was already waiting
+ * @param avgQueueMillis   average time calls waited before being sent
+ */
+public record OutboundStats(
+    Map<OutboundPriority, Integer> queuedByPriority,
+    int inFlight,
+    int pausedChats,
+    long sent,
+    long rateLimited,
+    long failed,
+    long coalesced,
+    double avgQueueMillis
+) {}
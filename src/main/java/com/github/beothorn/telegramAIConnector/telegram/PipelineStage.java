@@ -0,0 +1,19 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+/**
+ * Stages an update goes through, in order.
+ */
+public enum PipelineStage {
+    /** Reads the chat from the update, runs on the polling thread. */
+    DECODE,
+    /** Checks if the chat is logged in, handles login attempts. */
+    AUTHENTICATE,
+    /** Stores the user. */
+    PERSIST,
+    /** Routes commands, downloads files and decides what to ask the model. */
+    DISPATCH,
+    /** Asks the model. */
+    INFER,
+    /** Sends the answer. */
+    DELIVER
+}
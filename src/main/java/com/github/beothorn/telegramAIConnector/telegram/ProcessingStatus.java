@@ -11,6 +11,18 @@ import java.util.stream.Collectors;
 public class ProcessingStatus {
 
     private final Map<Long, Map<Future<?>, String>> running = new ConcurrentHashMap<>();
+    private final ChatMailbox chatMailbox;
+
+    /**
+     * Creates the registry.
+     *
+     * @param chatMailbox mailbox where chat messages wait to be processed
+     */
+    public ProcessingStatus(
+        final ChatMailbox chatMailbox
+    ) {
+        this.chatMailbox = chatMailbox;
+    }
 
     /**
      * Registers a new running asynchronous task for a chat.
@@ -49,6 +61,18 @@ public class ProcessingStatus {
         }
     }
 
+    /**
+     * Returns how many messages of a chat are waiting for the previous ones to be processed.
+     *
+     * @param chatId chat identifier
+     * @return number of waiting messages
+     */
+    public int queueDepth(
+        final Long chatId
+    ) {
+        return chatMailbox.queueDepth(chatId);
+    }
+
     /**
      * Returns a human-readable description of running tasks for a chat.
      *
@@ -69,8 +93,13 @@ public class ProcessingStatus {
             return "I'm not doing anything.";
         }
 
-        return futures.values().stream()
+        final String processing = futures.values().stream()
             .map(desc -> "Processing: " + desc)
             .collect(Collectors.joining("\n"));
+        final int waiting = queueDepth(chatId);
+        if (waiting == 0) {
+            return processing;
+        }
+        return processing + "\nWaiting in line: " + waiting;
     }
 }
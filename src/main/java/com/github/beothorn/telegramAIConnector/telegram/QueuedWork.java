@@ -0,0 +1,15 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Work accepted by the chat mailbox.
+ *
+ * @param result   future completed with the work result
+ * @param position tasks that had to start before this one when it was queued, 0 if it could start right away
+ * @param <T>      result type
+ */
+public record QueuedWork<T>(
+    CompletableFuture<T> result,
+    int position
+) {}
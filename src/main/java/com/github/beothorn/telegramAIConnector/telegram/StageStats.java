@@ -0,0 +1,14 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+/**
+ * Load and timings of one stage of the update pipeline.
+ *
+ * @param stage   stage name
+ * @param load    running, waiting and rejected tasks
+ * @param timings queue and service times
+ */
+public record StageStats(
+    PipelineStage stage,
+    MailboxStats load,
+    StageTimings timings
+) {}
@@ -0,0 +1,14 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+/**
+ * Time spent by tasks on a stage since startup.
+ *
+ * @param completed        tasks finished
+ * @param avgQueueMillis   average time from submission until the task started
+ * @param avgServiceMillis average time the task took to run
+ */
+public record StageTimings(
+    long completed,
+    double avgQueueMillis,
+    double avgServiceMillis
+) {}
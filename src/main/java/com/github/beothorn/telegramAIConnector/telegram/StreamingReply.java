@@ -0,0 +1,196 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import com.github.beothorn.telegramAIConnector.utils.MessageSplitter;
+import com.github.beothorn.telegramAIConnector.utils.TelegramMarkdown;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.ParseMode;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Shows an answer to a chat while the model is still generating it.
+ * The first pieces are sent as a new message, which is then edited as more of the answer arrives,
+ * at most once every {@code editIntervalMillis} and with one edit on the wire at a time, so edits
+ * also respect the chat rate limit of the {@link OutboundDispatcher}.
+ * While streaming the text is shown as is, the whole answer is formatted once it is done.
+ */
+public class StreamingReply {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingReply.class);
+
+    private final long chatId;
+    private final OutboundDispatcher outbound;
+    private final TelegramClient telegramClient;
+    private final long editIntervalNanos;
+    private final Function<String, CompletableFuture<Void>> sendMarkdownMessage;
+    private final StringBuilder text = new StringBuilder();
+    private final CompletableFuture<Void> visible = new CompletableFuture<>();
+    private CompletableFuture<Integer> message;
+    private CompletableFuture<?> lastUpdate;
+    private long lastUpdateAt;
+    private String shown = "";
+    private boolean finished;
+
+    /**
+     * Creates a reply, nothing is sent before the first piece of the answer.
+     *
+     * @param chatId              chat the answer goes to
+     * @param outbound            dispatcher pacing the calls to Telegram
+     * @param telegramClient      client sending the calls
+     * @param editIntervalMillis  least time between two edits
+     * @param sendMarkdownMessage sends the whole answer if nothing was shown while streaming
+     */
+    public StreamingReply(
+        final long chatId,
+        final OutboundDispatcher outbound,
+        final TelegramClient telegramClient,
+        final long editIntervalMillis,
+        final Function<String, CompletableFuture<Void>> sendMarkdownMessage
+    ) {
+        this.chatId = chatId;
+        this.outbound = outbound;
+        this.telegramClient = telegramClient;
+        this.editIntervalNanos = editIntervalMillis * 1_000_000;
+        this.sendMarkdownMessage = sendMarkdownMessage;
+    }
+
+    /**
+     * Adds the next piece of the answer, showing it if it is time to.
+     *
+     * @param piece text generated since the last piece
+     */
+    public synchronized void append(final String piece) {
+        if (finished || piece == null || piece.isEmpty()) return;
+        text.append(piece);
+        final long now = System.nanoTime();
+        if (message != null && (!lastUpdate.isDone() || now - lastUpdateAt < editIntervalNanos)) return;
+        if (message != null && message.isCompletedExceptionally()) return;
+        final String preview = preview();
+        if (preview.isBlank() || preview.equals(shown)) return;
+        shown = preview;
+        lastUpdateAt = now;
+        if (message == null) {
+            final SendMessage sendMessage = new SendMessage(Long.toString(chatId), preview);
+            message = outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendMessage))
+                .thenApply(Message::getMessageId);
+            message.thenRun(() -> visible.complete(null));
+            lastUpdate = message;
+        } else {
+            lastUpdate = edit(message.join(), preview, null);
+        }
+    }
+
+    /**
+     * Returns a future completed once part of the answer is on the chat, from then on the user
+     * sees the answer being written, so there is no need to show the typing status.
+     *
+     * @return future completed once the first message was sent
+     */
+    public CompletableFuture<Void> visible() {
+        return visible;
+    }
+
+    /**
+     * Replaces what was shown with the whole formatted answer, answers longer than a message
+     * continue on new messages.
+     *
+     * @param answer whole answer
+     * @return future completed once the answer was shown or failed, failures are already logged
+     */
+    public CompletableFuture<Void> finish(final String answer) {
+        final CompletableFuture<Integer> sent;
+        final CompletableFuture<?> previous;
+        synchronized (this) {
+            finished = true;
+            sent = message;
+            previous = lastUpdate;
+        }
+        if (sent == null) return sendMarkdownMessage.apply(answer);
+        if (answer == null || answer.isBlank()) return CompletableFuture.completedFuture(null);
+        final String markdownV2 = TelegramMarkdown.toMarkdownV2(answer);
+        final boolean formatted = TelegramMarkdown.isValidMarkdownV2(markdownV2);
+        final List<String> parts = formatted
+            ? MessageSplitter.split(markdownV2, true)
+            : MessageSplitter.split(answer, false);
+        final String parseMode = formatted ? ParseMode.MARKDOWNV2 : null;
+        return previous
+            .handle((ignored, error) -> null)
+            .thenCompose(ignored -> sent)
+            .thenCompose(messageId -> {
+                CompletableFuture<Void> showing = edit(messageId, parts.getFirst(), parseMode);
+                for (String part : parts.subList(1, parts.size())) {
+                    showing = showing.thenCompose(previousPart -> send(part, parseMode));
+                }
+                return showing;
+            })
+            .exceptionallyCompose(error -> {
+                if (sent.isCompletedExceptionally()) {
+                    logger.warn("Could not start streaming to {}, sending the whole answer", chatId, error);
+                    return sendMarkdownMessage.apply(answer);
+                }
+                final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                logger.error("Could not send message to {}", chatId, cause);
+                return CompletableFuture.completedFuture(null);
+            });
+    }
+
+    /**
+     * Returns what fits on the first message.
+     */
+    private String preview() {
+        final String current = text.toString().stripTrailing();
+        if (current.length() <= MessageSplitter.TELEGRAM_LIMIT) return current;
+        return MessageSplitter.split(current, false).getFirst();
+    }
+
+    private CompletableFuture<Void> edit(
+        final int messageId,
+        final String newText,
+        final String parseMode
+    ) {
+        final EditMessageText editMessage = EditMessageText.builder()
+            .chatId(Long.toString(chatId))
+            .messageId(messageId)
+            .text(newText)
+            .parseMode(parseMode)
+            .build();
+        return outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(editMessage))
+            .<Void>thenApply(edited -> null)
+            .exceptionallyCompose(error -> {
+                final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                // The edit had the text already shown
+                if (cause.getMessage() != null && cause.getMessage().contains("message is not modified")) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                if (parseMode == null) return CompletableFuture.failedFuture(cause);
+                logger.warn("Could not edit markdown message '{}'", newText, cause);
+                return edit(messageId, TelegramMarkdown.unescape(newText), null);
+            });
+    }
+
+    private CompletableFuture<Void> send(
+        final String part,
+        final String parseMode
+    ) {
+        final SendMessage sendMessage = SendMessage.builder()
+            .chatId(Long.toString(chatId))
+            .text(part)
+            .parseMode(parseMode)
+            .build();
+        return outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendMessage))
+            .<Void>thenApply(sent -> null)
+            .exceptionallyCompose(error -> {
+                if (parseMode == null) return CompletableFuture.failedFuture(error);
+                logger.warn("Could not send markdown message '{}'", part, error);
+                return send(TelegramMarkdown.unescape(part), null);
+            });
+    }
+}
@@ -10,13 +10,17 @@ import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.utils.CommandParser;
 import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
+import com.github.beothorn.telegramAIConnector.utils.MessageSplitter;
+import com.github.beothorn.telegramAIConnector.utils.TelegramMarkdown;
 import jakarta.annotation.PreDestroy;
+import okhttp3.OkHttpClient;
 import org.apache.logging.log4j.util.Strings;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
@@ -27,6 +31,8 @@ import org.telegram.telegrambots.meta.api.methods.ParseMode;
 import org.telegram.telegrambots.meta.api.methods.send.SendChatAction;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.objects.*;
 import org.telegram.telegrambots.meta.api.objects.message.Message;
 import org.telegram.telegrambots.meta.api.objects.polls.Poll;
@@ -41,8 +47,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -50,6 +60,7 @@ import java.util.stream.Collectors;
  * Receives and send messages, files and any other media types to Telegram.
  */
 @Component
+@DependsOn("SQLite")
 public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
 
     private final AiBotService aiBotService;
@@ -61,11 +72,19 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
     private final AIAnalysisTool aiAnalysisTool;
     private final FalClient falClient;
     private final String uploadFolder;
+    private final int messageAsFileAbove;
+    private final boolean streamReplies;
+    private final long streamEditMillis;
     private final ProcessingStatus processingStatus;
     private final MessagesRepository messagesRepository;
     private String botName = "";
-    private final ExecutorService executor;
+    private final UpdatePipeline pipeline;
+    private final ChatMailbox chatMailbox;
+    private final MessageBurstCoalescer burstCoalescer;
+    private final UpdateDeduplicator deduplicator;
+    private final OutboundDispatcher outbound;
     private final ScheduledExecutorService typingScheduler;
+    private final Map<Long, CompletableFuture<Void>> answering = new ConcurrentHashMap<>();
 
     private final Logger logger = LoggerFactory.getLogger(TelegramAiBot.class);
 
@@ -85,12 +104,20 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         final ChatModel chatModel,
         final FalClient falClient,
         final ProcessingStatus processingStatus,
+        final UpdatePipeline pipeline,
+        final MessageBurstCoalescer burstCoalescer,
+        final UpdateDeduplicator deduplicator,
+        final OutboundDispatcher outbound,
+        final OkHttpClient telegramHttpClient,
         @Value("${telegram.key}") final String botToken,
-        @Value("${telegramIAConnector.uploadFolder}") final String uploadFolder
+        @Value("${telegramIAConnector.uploadFolder}") final String uploadFolder,
+        @Value("${telegramIAConnector.messageAsFileAbove:16384}") final int messageAsFileAbove,
+        @Value("${telegramIAConnector.streamReplies:true}") final boolean streamReplies,
+        @Value("${telegramIAConnector.streamEditMillis:1000}") final long streamEditMillis
     ) {
         this.aiBotService = aiBotService;
         this.falClient = falClient;
-        this.telegramClient = new OkHttpTelegramClient(botToken);
+        this.telegramClient = new OkHttpTelegramClient(telegramHttpClient, botToken);
         this.taskScheduler = taskScheduler;
         this.authentication = authentication;
         this.userRepository = userRepository;
@@ -98,9 +125,20 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         this.messagesRepository = messagesRepository;
         this.aiAnalysisTool = new AIAnalysisTool(chatModel, uploadFolder);
         this.uploadFolder = uploadFolder;
+        this.messageAsFileAbove = messageAsFileAbove;
+        this.streamReplies = streamReplies;
+        this.streamEditMillis = streamEditMillis;
         this.processingStatus = processingStatus;
-        this.executor = Executors.newVirtualThreadPerTaskExecutor();
-        this.typingScheduler = Executors.newScheduledThreadPool(1);
+        this.pipeline = pipeline;
+        this.chatMailbox = pipeline.stage(PipelineStage.INFER);
+        this.burstCoalescer = burstCoalescer;
+        this.deduplicator = deduplicator;
+        this.outbound = outbound;
+        this.typingScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "TelegramAiBot-typing");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         try {
             final User userBot = telegramClient.execute(new GetMe());
@@ -111,27 +149,101 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         }
     }
 
+    /**
+     * Decodes a batch of updates and hands it over to the next stages of the {@link UpdatePipeline}.
+     * The batch is split by chat, each chat gets a single task with its updates in the order they
+     * arrived, so after a reconnect the backlog of different chats is handled in parallel instead of
+     * one update at a time, and a chat with many updates takes one place on the queues instead of many.
+     * This runs on the polling thread, so it only enqueues, user and auth lookups, downloads
+     * and replies all happen on the following stages.
+     * Updates already received, for example after a restart or a webhook retry, are skipped.
+     *
+     * @param updates updates received from Telegram, in order
+     */
     @Override
     public void consume(final List<Update> updates) {
+        final long start = System.nanoTime();
         logger.debug("Got {} updates.", updates.size());
-        updates.forEach(this::consume);
+        final Map<Long, List<Update>> byChat = new LinkedHashMap<>();
+        for (Update update : updates) {
+            logger.debug("Received update {}", update);
+            if (!deduplicator.begin(update.getUpdateId())) continue;
+            if (!update.hasMessage()) {
+                logger.info("Update with no message, skipping");
+                deduplicator.complete(update.getUpdateId());
+                continue;
+            }
+            byChat.computeIfAbsent(update.getMessage().getChatId(), id -> new ArrayList<>()).add(update);
+        }
+        pipeline.recordDecode(System.nanoTime() - start);
+        byChat.forEach((chatId, chatUpdates) -> {
+            final boolean queued = runStage(PipelineStage.AUTHENTICATE, chatId, () -> {
+                for (Update update : chatUpdates) {
+                    try {
+                        authenticate(chatId, update);
+                    } catch (RuntimeException e) {
+                        logger.error("Could not authenticate update {} for {}", update.getUpdateId(), chatId, e);
+                        deduplicator.complete(update.getUpdateId());
+                    }
+                }
+            });
+            if (!queued) chatUpdates.forEach(update -> deduplicator.complete(update.getUpdateId()));
+        });
     }
 
+    /**
+     * Decodes the update and hands it over to the next stages of the {@link UpdatePipeline}.
+     * Same as consuming a batch with a single update.
+     *
+     * @param update update received from Telegram
+     */
     @Override
     public void consume(final Update update) {
-        logger.debug("Received update {}", update);
-        logger.debug("Update hasMessage is {}", update.hasMessage());
-        if (!update.hasMessage()) {
-            logger.info("Update with no message, skipping");
-            return;
-        }
+        consume(List.of(update));
+    }
+
+    private void authenticate(
+        final Long chatId,
+        final Update update
+    ) {
         final Message message = update.getMessage();
         logger.debug("Received message {}", message);
-        final Long chatId = message.getChatId();
-        logger.debug("Received update from chatId {}", chatId);
-
-        final User from = message.getFrom();
+        final boolean loggedIn = !authentication.isNotLogged(chatId);
+        final Runnable processed = () -> deduplicator.complete(update.getUpdateId());
+        final boolean queued = runStage(PipelineStage.PERSIST, chatId, () -> {
+            boolean dispatched = false;
+            try {
+                persistUser(chatId, message.getFrom());
+                if (loggedIn) {
+                    dispatched = runStage(PipelineStage.DISPATCH, chatId, () -> {
+                        try {
+                            dispatch(chatId, update);
+                        } finally {
+                            // Processed once the answers it asked for were sent
+                            final CompletableFuture<Void> pending = answering.get(chatId);
+                            if (pending == null) {
+                                processed.run();
+                            } else {
+                                pending.whenComplete((sent, error) -> processed.run());
+                            }
+                        }
+                    });
+                }
+            } finally {
+                if (!dispatched) processed.run();
+            }
+        });
+        if (!queued) processed.run();
+        // If not logged in, only respond to login attempt
+        if (!loggedIn && message.hasText()) {
+            consumeLogin(chatId, message.getText());
+        }
+    }
 
+    private void persistUser(
+        final Long chatId,
+        final User from
+    ) {
         logger.debug("Will create user {}", from);
         userRepository.createOrUpdateUser(
             chatId,
@@ -139,17 +251,12 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
             from.getFirstName(),
             from.getLastName()
         );
+    }
 
-        // If not logged in, only respond to login attempt
-        if (authentication.isNotLogged(chatId)) {
-            if (!update.hasMessage()) return;
-            if (!message.hasText()) return;
-            final String text = message.getText();
-            consumeLogin(chatId, text);
-            return;
-        }
-
-        // This should be unreachable if not logged in
+    private void dispatch(
+        final Long chatId,
+        final Update update
+    ) {
         try {
             consumeMessage(chatId, update);
         } catch (TelegramApiException e) {
@@ -158,50 +265,162 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         }
     }
 
+    /**
+     * Queues work on a stage, failures are logged.
+     *
+     * @return false if the stage refused the work
+     */
+    private boolean runStage(
+        final PipelineStage stage,
+        final Long chatId,
+        final Runnable work
+    ) {
+        try {
+            pipeline.submit(stage, chatId, () -> {
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    logger.error("Stage {} failed for {}", stage, chatId, e);
+                }
+                return null;
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Dropped update on stage {}: {}", stage, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Sends the same message to many chats.
+     * Chats waiting for replies are served first and messages are paced by the rate limits,
+     * this does not wait for them to be sent.
+     *
+     * @param chatIds target chats
+     * @param message message text
+     */
+    public void broadcast(
+        final List<Long> chatIds,
+        final String message
+    ) {
+        if (Strings.isBlank(message)) {
+            logger.warn("Refused empty broadcast");
+            return;
+        }
+        for (Long chatId : chatIds) {
+            final SendMessage sendMessage = new SendMessage(Long.toString(chatId), message);
+            outbound.submit(chatId, OutboundPriority.BULK, () -> telegramClient.executeAsync(sendMessage))
+                .whenComplete((sent, error) -> {
+                    if (error == null) {
+                        storeAssistantMessage(chatId, message);
+                    } else {
+                        logger.warn("Could not broadcast to {}", chatId, error);
+                    }
+                });
+        }
+    }
+
     /**
      * Sends a plain text message to a chat.
+     * Messages longer than Telegram accepts are sent in parts, cut between paragraphs when possible,
+     * and messages above {@code messageAsFileAbove} characters are sent as a text file.
+     * Does not wait for the message to be sent, messages to the same chat arrive in the order they were sent.
      *
      * @param chatId   target chat identifier
      * @param response message text
+     * @return future completed once the message was sent or failed, failures are already logged
      */
-    public void sendMessage(
+    public CompletableFuture<Void> sendMessage(
         final Long chatId,
         final String response
     ) {
         if (Strings.isBlank(response)) {
             logger.warn("Refused empty message to {}", chatId);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         logger.info("Send message to {}: {}", chatId, response);
-        final SendMessage sendMessage = new SendMessage(Long.toString(chatId), response);
+        return sendText(chatId, response)
+            .thenAccept(sent -> storeAssistantMessage(chatId, response))
+            .exceptionally(error -> {
+                final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                logger.error("Could not send message to {}", chatId, cause);
+                return null;
+            });
+    }
+
+    /**
+     * Sends plain text in parts or as a file, without storing it on the history.
+     */
+    private CompletableFuture<Void> sendText(
+        final Long chatId,
+        final String text
+    ) {
+        return text.length() > messageAsFileAbove
+            ? sendAsFile(chatId, text)
+            : sendParts(MessageSplitter.split(text, false), part -> sendPlain(chatId, part));
+    }
+
+    private CompletableFuture<Void> sendPlain(
+        final Long chatId,
+        final String text
+    ) {
+        final SendMessage sendMessage = new SendMessage(Long.toString(chatId), text);
+        return outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendMessage))
+            .thenApply(sent -> null);
+    }
+
+    /**
+     * Sends the parts one after the other, a part is only sent after the previous one was.
+     */
+    private static CompletableFuture<Void> sendParts(
+        final List<String> parts,
+        final Function<String, CompletableFuture<Void>> send
+    ) {
+        CompletableFuture<Void> sending = CompletableFuture.completedFuture(null);
+        for (String part : parts) {
+            sending = sending.thenCompose(previous -> send.apply(part));
+        }
+        return sending;
+    }
+
+    private CompletableFuture<Void> sendAsFile(
+        final Long chatId,
+        final String response
+    ) {
+        final Path file;
         try {
-            telegramClient.execute(sendMessage);
-            storeAssistantMessage(chatId, response);
-        } catch (TelegramApiException e) {
-            if (e.getMessage().contains("message is too long")) {
-                sendMessage(chatId, "Response was too long and got rejected by telegram. I will send it as a file");
+            file = Files.createTempFile("response", ".txt");
+            Files.writeString(file, response);
+        } catch (IOException e) {
+            sendNotice(chatId, "Error creating file.");
+            return CompletableFuture.failedFuture(e);
+        }
+        logger.info("Response to {} has {} characters, sending as file", chatId, response.length());
+        final SendDocument sendDocument = SendDocument.builder()
+            .chatId(chatId.toString())
+            .document(new InputFile(file.toFile()))
+            .build();
+        return outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendDocument))
+            .<Void>thenApply(sent -> null)
+            .whenComplete((sent, error) -> {
                 try {
-                    Path telegram = Files.createTempFile("telegram", "");
-                    Files.writeString(telegram, response);
-                    sendFileWithCaption(chatId, telegram.toAbsolutePath().toString(), "");
-                } catch (IOException | TelegramApiException ex) {
-                    sendMessage(chatId, "Error creating file.");
-                    return;
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    logger.warn("Could not delete {}", file, e);
                 }
-            }
-            e.printStackTrace();
-        }
+            });
     }
 
     /**
      * Sets the typing status for the chat.
+     * Does not wait for Telegram, the indicator goes after any message to the chat already waiting to be sent.
      *
      * @param chatId chat identifier
-     * @throws TelegramApiException if the request fails
+     * @return future completed once the status was sent
      */
-    public void setTyping(
+    public CompletableFuture<Boolean> setTyping(
         final Long chatId
-    ) throws TelegramApiException {
+    ) {
         logger.info("Set typing to {}", chatId);
         final String chatIdAsString = Long.toString(chatId);
         final SendChatAction typingAction = SendChatAction.builder()
@@ -209,11 +428,11 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
                 .action(ActionType.TYPING.toString())
                 .build();
 
-        telegramClient.execute(typingAction);
+        return outbound.submit(chatId, OutboundPriority.TYPING, () -> telegramClient.executeAsync(typingAction));
     }
 
     /**
-     * Sends a markdown formatted message to a chat.
+     * Sends a markdown formatted message to a chat and waits for it to be sent.
      *
      * @param chatId  target chat identifier
      * @param message markdown message text
@@ -223,28 +442,71 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         final Long chatId,
         final String message
     ) throws TelegramApiException {
+        await(chatId, sendMarkdownMessageAsync(chatId, message));
+    }
+
+    /**
+     * Sends a markdown formatted message to a chat.
+     * The markdown is converted to MarkdownV2 before sending, escaping anything Telegram could refuse,
+     * so the message goes in a single request. Messages longer than Telegram accepts are sent in parts,
+     * never cutting inside formatting, and messages above {@code messageAsFileAbove} characters are
+     * sent as a text file.
+     * The message is not stored on the history, model answers are already stored by the chat memory.
+     * Does not wait for the message to be sent.
+     *
+     * @param chatId  target chat identifier
+     * @param message markdown message text
+     * @return future completed once the message was sent
+     */
+    public CompletableFuture<Void> sendMarkdownMessageAsync(
+        final Long chatId,
+        final String message
+    ) {
         if (Strings.isBlank(message)) {
             logger.warn("Refused empty message to {}", chatId);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         logger.info("Send markdown message to {}: {}", chatId, message);
-        final String chatIdAsString = Long.toString(chatId);
+        final CompletableFuture<Void> sending;
+        if (message.length() > messageAsFileAbove) {
+            sending = sendAsFile(chatId, message);
+        } else {
+            final String markdownV2 = TelegramMarkdown.toMarkdownV2(message);
+            if (TelegramMarkdown.isValidMarkdownV2(markdownV2)) {
+                sending = sendParts(MessageSplitter.split(markdownV2, true), part -> sendMarkdownPart(chatId, part));
+            } else {
+                logger.warn("Could not convert markdown message '{}', sending as plain text", message);
+                sending = sendText(chatId, message);
+            }
+        }
+        return sending
+            .exceptionally(error -> {
+                final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                logger.error("Could not send message to {}", chatId, cause);
+                return null;
+            });
+    }
+
+    private CompletableFuture<Void> sendMarkdownPart(
+        final Long chatId,
+        final String part
+    ) {
         final SendMessage sendMessage = SendMessage.builder()
-            .parseMode(ParseMode.MARKDOWN)
-            .chatId(chatIdAsString)
-            .text(message)
+            .parseMode(ParseMode.MARKDOWNV2)
+            .chatId(Long.toString(chatId))
+            .text(part)
             .build();
-        try {
-            telegramClient.execute(sendMessage);
-        } catch (TelegramApiException e) {
-            // maybe it is a bad formatted markdown
-            logger.warn("Could not send markdown message '{}'", message, e);
-            sendMessage(chatId, message);
-        }
+        return outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendMessage))
+            .<Void>thenApply(sent -> null)
+            .exceptionallyCompose(error -> {
+                // Should not happen, the conversion escapes anything Telegram can't parse
+                logger.warn("Could not send markdown message '{}'", part, error);
+                return sendPlain(chatId, TelegramMarkdown.unescape(part));
+            });
     }
 
     /**
-     * Sends a file with an optional caption to a chat.
+     * Sends a file with an optional caption to a chat and waits for it to be sent.
      *
      * @param chatId   chat identifier
      * @param filePath path to the file on disk
@@ -256,6 +518,14 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         final String filePath,
         final String caption
     ) throws TelegramApiException {
+        await(chatId, sendFileWithCaptionAsync(chatId, filePath, caption));
+    }
+
+    private CompletableFuture<Void> sendFileWithCaptionAsync(
+        final Long chatId,
+        final String filePath,
+        final String caption
+    ) {
         logger.info("Sending file to {}: {}", chatId, filePath);
         final SendDocument sendDocument = SendDocument.builder()
             .chatId(chatId.toString())
@@ -263,8 +533,23 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
             .caption(caption)
             .build();
 
-        telegramClient.execute(sendDocument);
-        storeAssistantMessage(chatId, caption);
+        return outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendDocument))
+            .thenAccept(sent -> storeAssistantMessage(chatId, caption));
+    }
+
+    private static void await(
+        final Long chatId,
+        final CompletableFuture<?> sending
+    ) throws TelegramApiException {
+        try {
+            sending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException("Interrupted waiting to send to " + chatId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TelegramApiException telegramError) throw telegramError;
+            throw new TelegramApiException("Could not send to " + chatId, e.getCause());
+        }
     }
 
     /**
@@ -688,14 +973,17 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         final String text
     ) {
         logger.info("Consume text from {}: {}", chatId, text);
-        runAsync(
-            chatId,
-            "message" + InstantUtils.currentTimeSeconds(),
-            () -> {
-                final TelegramTools telegramTools = getTelegramTools(chatId);
-                return aiBotService.prompt(chatId, text, telegramTools);
-            }
-        );
+        // Messages sent in a quick burst are answered together, with a single prompt
+        track(chatId, burstCoalescer.add(chatId, text, () -> runPrompt(
+                chatId,
+                "message" + InstantUtils.currentTimeSeconds(),
+                () -> burstCoalescer.take(chatId)
+            ).exceptionally(rejected -> {
+                // Drop the batch, otherwise it would stay open and never be answered
+                burstCoalescer.take(chatId);
+                return null;
+            })
+        ));
     }
 
     private void consumeFile(
@@ -705,13 +993,10 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         final String uploadedFileString = uploadedFile.toString();
         logger.info("Consume file from {}: {}", chatId, uploadedFileString);
         final String text = "SystemAction: User upload file to '" + uploadedFileString + "'.";
-        runAsync(
+        runPrompt(
             chatId,
             "file" + InstantUtils.currentTimeSeconds(),
-            () -> {
-                final TelegramTools telegramTools = getTelegramTools(chatId);
-                return aiBotService.prompt(chatId, text, telegramTools);
-            }
+            () -> text
         );
     }
 
@@ -722,30 +1007,29 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
     ) {
         logger.info("Consume location from {}: {}, {}", chatId, latitude, longitude);
         final String locationMessage = String.format("TelegramAction: User shared a location %f %f", latitude, longitude);
-        runAsync(
+        runPrompt(
             chatId,
             "location" + InstantUtils.currentTimeSeconds(),
-            () -> {
-                final TelegramTools telegramTools = getTelegramTools(chatId);
-                return aiBotService.prompt(chatId, locationMessage, telegramTools);
-            }
+            () -> locationMessage
         );
     }
 
     private void sendTypingCommand(
         final Long chatId
     ) {
-        try {
-            setTyping(chatId);
-        } catch (TelegramApiException e) {
+        setTyping(chatId).exceptionally(error -> {
             // Not important if it fails
             logger.error("Could not set status to typing");
-        }
+            return false;
+        });
     }
 
+    /**
+     * Shows the chat as typing until {@code typingUntil} completes.
+     */
     private void startTypingThread(
         final Long chatId,
-        final CompletableFuture<?> processingFuture
+        final CompletableFuture<?> typingUntil
     ) {
         final ScheduledFuture<?> typingFuture = typingScheduler.scheduleAtFixedRate(
             () -> sendTypingCommand(chatId),
@@ -753,34 +1037,177 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
             5,
             TimeUnit.SECONDS
         );
-        processingFuture.whenComplete((r, t) -> typingFuture.cancel(false));
+        typingUntil.whenComplete((r, t) -> typingFuture.cancel(false));
     }
 
-    private void runAsync(
+    /**
+     * Queues a prompt for a chat and sends the answer.
+     * When streaming, the answer is shown while it is generated, see {@link StreamingReply}.
+     *
+     * @param message supplies the prompt once it is the chat turn
+     * @return future completed once the answer was sent, failed if the prompt was rejected
+     */
+    private CompletableFuture<Void> runPrompt(
+        final Long chatId,
+        final String description,
+        final Supplier<String> message
+    ) {
+        if (!streamReplies) {
+            return runAsync(
+                chatId,
+                description,
+                () -> aiBotService.prompt(chatId, message.get(), getTelegramTools(chatId))
+            );
+        }
+        final StreamingReply reply = new StreamingReply(
+            chatId,
+            outbound,
+            telegramClient,
+            streamEditMillis,
+            answer -> sendMarkdownMessageAsync(chatId, answer)
+        );
+        return runAsync(
+            chatId,
+            description,
+            () -> aiBotService.promptStream(chatId, message.get(), getTelegramTools(chatId))
+                .doOnNext(reply::append)
+                .collect(Collectors.joining())
+                .block(),
+            reply::finish,
+            reply.visible()
+        );
+    }
+
+    /**
+     * Queues work for a chat and sends the result when done.
+     * When the chat already has too many messages waiting the work is rejected right away,
+     * when it has to wait the user is told its position.
+     *
+     * @return future completed once the result was sent, failed if the work was rejected
+     */
+    private CompletableFuture<Void> runAsync(
         final Long chatId,
         final String description,
         final Supplier<String> work
     ) {
-        final CompletableFuture<String> future = CompletableFuture.supplyAsync(work, executor);
+        return runAsync(
+            chatId,
+            description,
+            work,
+            response -> sendMarkdownMessageAsync(chatId, response),
+            new CompletableFuture<>()
+        );
+    }
+
+    /**
+     * Queues work for a chat and hands the result to {@code deliver} when done.
+     * The chat shows as typing until the work is done or {@code visible} completes.
+     *
+     * @param visible completes when the user can already see the answer being written
+     * @return future completed once the result was sent, failed if the work was rejected
+     */
+    private CompletableFuture<Void> runAsync(
+        final Long chatId,
+        final String description,
+        final Supplier<String> work,
+        final Function<String, CompletableFuture<Void>> deliver,
+        final CompletableFuture<?> visible
+    ) {
+        // A burst of texts still waiting for its window was sent before this, so it is queued first
+        burstCoalescer.flush(chatId);
+        // One message at a time per chat, so answers and memory writes keep the message order
+        final QueuedWork<String> queued;
+        try {
+            queued = chatMailbox.enqueue(chatId, work);
+        } catch (final RejectedExecutionException e) {
+            logger.warn("Rejected {} for {}: {}", description, chatId, e.getMessage());
+            sendNotice(chatId, "I'm busy with your previous messages, please wait for the answers before sending more.");
+            return CompletableFuture.failedFuture(e);
+        }
+        if (queued.position() > 0) {
+            sendNotice(chatId, "Busy, your message is queued at position " + queued.position() + ".");
+        }
+        final CompletableFuture<String> future = queued.result();
         processingStatus.register(chatId, future, description);
+        final CompletableFuture<Void> delivered = new CompletableFuture<>();
+        // Sending goes to the deliver stage, so the infer slot is free as soon as the answer is ready
         future.whenComplete((response, throwable) -> {
-            try {
-                if (throwable == null) {
-                    try {
-                        sendMarkdownMessage(chatId, response);
-                    } catch (final TelegramApiException e) {
-                        logger.error("Could not send result", e);
-                        sendMessage(chatId, "Failed sending result '" + e.getMessage() + "'");
+            final boolean queued = runStage(PipelineStage.DELIVER, chatId, () -> {
+                try {
+                    final CompletableFuture<Void> sending;
+                    if (throwable == null) {
+                        sending = deliver.apply(response);
+                    } else {
+                        logger.error("Failed async work", throwable);
+                        sending = sendMessage(chatId, "Something went wrong '" + throwable.getMessage() + "'");
                     }
-                } else {
-                    logger.error("Failed async work", throwable);
-                    sendMessage(chatId, "Something went wrong '" + throwable.getMessage() + "'");
+                    sending.whenComplete((sent, error) -> {
+                        processingStatus.unregister(chatId, future);
+                        delivered.complete(null);
+                    });
+                } catch (RuntimeException e) {
+                    delivered.complete(null);
+                    throw e;
                 }
-            } finally {
-                processingStatus.unregister(chatId, future);
-            }
+            });
+            if (!queued) delivered.complete(null);
         });
-        startTypingThread(chatId, future);
+        startTypingThread(chatId, CompletableFuture.anyOf(future, visible));
+        track(chatId, delivered);
+        return delivered;
+    }
+
+    /**
+     * Adds to what must be sent to a chat before the updates dispatched so far count as processed.
+     */
+    private void track(
+        final Long chatId,
+        final CompletableFuture<Void> answer
+    ) {
+        final CompletableFuture<Void> pending = answering.merge(chatId, answer, CompletableFuture::allOf);
+        pending.whenComplete((sent, error) -> answering.remove(chatId, pending));
+    }
+
+    /**
+     * Sends a message that is not part of the conversation, so it is not stored on the history.
+     */
+    private void sendNotice(
+        final Long chatId,
+        final String notice
+    ) {
+        final SendMessage sendMessage = new SendMessage(Long.toString(chatId), notice);
+        outbound.submit(chatId, OutboundPriority.REPLY, () -> telegramClient.executeAsync(sendMessage))
+            .exceptionally(error -> {
+                logger.warn("Could not send notice to {}", chatId, error);
+                return null;
+            });
+    }
+
+    /**
+     * Returns the current load of the chat queues.
+     *
+     * @return running, waiting and rejected work counts
+     */
+    public MailboxStats getLoad() {
+        return chatMailbox.stats();
+    }
+
+    /**
+     * Returns the queue of calls to Telegram.
+     *
+     * @return queued calls and send counters
+     */
+    public OutboundStats getOutboundStats() {
+        return outbound.stats();
+    }
+
+    /**
+     * Returns load and timings of each stage updates go through.
+     *
+     * @return stage statistics in pipeline order
+     */
+    public List<StageStats> getPipelineStats() {
+        return pipeline.stats();
     }
 
     @NotNull
@@ -796,6 +1223,36 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
         );
     }
 
+    /**
+     * Tells Telegram to push updates to a webhook instead of waiting for them to be polled.
+     *
+     * @param url    public https address of the webhook
+     * @param secret token Telegram sends back on every request
+     * @throws TelegramApiException if Telegram refuses the webhook
+     */
+    public void setWebhook(
+        final String url,
+        final String secret
+    ) throws TelegramApiException {
+        telegramClient.execute(SetWebhook.builder()
+            .url(url)
+            .secretToken(secret)
+            .build());
+        logger.info("Webhook set to {}", url);
+    }
+
+    /**
+     * Removes any webhook, Telegram refuses to be polled while one is set.
+     * Pending updates are kept, so they are received by the next poll.
+     *
+     * @throws TelegramApiException if the webhook could not be removed
+     */
+    public void deleteWebhook() throws TelegramApiException {
+        telegramClient.execute(DeleteWebhook.builder()
+            .dropPendingUpdates(false)
+            .build());
+    }
+
     /**
      * Returns the configured bot name.
      *
@@ -810,7 +1267,6 @@ public class TelegramAiBot implements LongPollingSingleThreadUpdateConsumer {
      */
     @PreDestroy
     public void shutdown() {
-        executor.shutdown();
         typingScheduler.shutdown();
     }
 }
@@ -0,0 +1,22 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An asynchronous call to the Telegram api.
+ *
+ * @param <T> result type
+ */
+@FunctionalInterface
+public interface TelegramCall<T> {
+
+    /**
+     * Starts the call.
+     *
+     * @return future completed with the call result
+     * @throws TelegramApiException if the call could not be started
+     */
+    CompletableFuture<T> execute() throws TelegramApiException;
+}
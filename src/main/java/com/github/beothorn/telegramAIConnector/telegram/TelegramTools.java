@@ -4,6 +4,8 @@ import com.github.beothorn.telegramAIConnector.tasks.TaskScheduler;
 import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
 import com.github.beothorn.telegramAIConnector.utils.TelegramAIFileUtils;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.SearchPage;
+import com.github.beothorn.telegramAIConnector.user.SearchResult;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
@@ -16,6 +18,8 @@ import java.util.Arrays;
 
 public class TelegramTools {
 
+    private static final int HISTORY_SEARCH_RESULTS = 10;
+
     private final TelegramAiBot telegramAiBot;
     private final Long chatId;
     private final TaskScheduler taskScheduler;
@@ -342,4 +346,27 @@ public class TelegramTools {
             return "Could not send file '" + fileName + "' due to error: " + e.getMessage();
         }
     }
+
+    /**
+     * Searches this chat's message history.
+     *
+     * @param query words to search for
+     * @return matching messages, best match first
+     */
+    @Tool(description = "Search the message history of this conversation. Returns the best matching messages with their time, matched words are between square brackets.")
+    public String searchHistory(
+        @ToolParam(description = "The words to search for") final String query
+    ) {
+        final SearchPage page = messagesRepository.search(query, chatId, 0, HISTORY_SEARCH_RESULTS);
+        if (page.results().isEmpty()) {
+            return "No message found for '" + query + "'.";
+        }
+        StringBuilder result = new StringBuilder();
+        for (SearchResult r : page.results()) {
+            result.append("[").append(r.timestamp()).append("] ")
+                .append(r.role()).append(": ")
+                .append(r.snippet()).append("\n");
+        }
+        return "Matching messages:\n" + result;
+    }
 }
@@ -0,0 +1,90 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.regex.Pattern;
+
+/**
+ * Receives updates pushed by Telegram, used instead of long polling when {@code telegram.mode} is webhook.
+ * Requests without the configured secret token are refused. Accepted updates are only enqueued on the
+ * {@link UpdatePipeline}, so Telegram gets its answer right away and does not resend the update
+ * while the bot is still thinking.
+ */
+@RestController
+@ConditionalOnProperty(name = "telegram.mode", havingValue = "webhook")
+public class TelegramWebhookController {
+
+    static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    // Characters and length Telegram accepts for the secret token
+    private static final Pattern VALID_SECRET = Pattern.compile("[A-Za-z0-9_-]{1,256}");
+    private static final ObjectReader UPDATE_READER = new ObjectMapper()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .readerFor(Update.class);
+
+    private final Logger logger = LoggerFactory.getLogger(TelegramWebhookController.class);
+
+    private final TelegramAiBot telegramAiBot;
+    private final byte[] secret;
+
+    /**
+     * Creates the webhook endpoint.
+     *
+     * @param telegramAiBot bot consuming the updates
+     * @param secret        token Telegram sends on every request
+     * @throws IllegalArgumentException if the secret is missing or has characters Telegram does not accept
+     */
+    public TelegramWebhookController(
+        final TelegramAiBot telegramAiBot,
+        @Value("${telegram.webhook.secret:}") final String secret
+    ) {
+        if (!VALID_SECRET.matcher(secret).matches()) {
+            throw new IllegalArgumentException("telegram.webhook.secret must have 1 to 256 characters among A-Z, a-z, 0-9, _ and -");
+        }
+        this.telegramAiBot = telegramAiBot;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Receives one update.
+     * The body is only parsed after the secret is checked.
+     *
+     * @param token secret token sent by Telegram
+     * @param body  update as json
+     * @return 200 once the update is enqueued, 401 for a wrong token, 400 for a body that is not an update
+     */
+    @PostMapping("${telegram.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> receive(
+        @RequestHeader(value = SECRET_HEADER, required = false) final String token,
+        @RequestBody final byte[] body
+    ) {
+        if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+            logger.warn("Refused webhook request with wrong secret token");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        final Update update;
+        try {
+            update = UPDATE_READER.readValue(body);
+        } catch (IOException e) {
+            logger.warn("Could not read webhook update", e);
+            return ResponseEntity.badRequest().build();
+        }
+        telegramAiBot.consume(update);
+        return ResponseEntity.ok().build();
+    }
+}
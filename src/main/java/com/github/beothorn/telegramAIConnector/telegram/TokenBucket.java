@@ -0,0 +1,74 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+/**
+ * Rate limit allowing short bursts.
+ * The bucket holds up to {@code burst} tokens and gains {@code perSecond} tokens each second, each call takes one.
+ * Not thread safe, times are {@link System#nanoTime()} values passed by the caller.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long updatedAt;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param perSecond tokens gained each second
+     * @param burst     tokens the bucket holds, at least one
+     * @param now       current time
+     */
+    public TokenBucket(
+        final double perSecond,
+        final double burst,
+        final long now
+    ) {
+        this.tokensPerNano = perSecond / 1_000_000_000.0;
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.updatedAt = now;
+    }
+
+    /**
+     * Returns how long until a token is available.
+     *
+     * @param now current time
+     * @return nanoseconds to wait, 0 if a token is available now
+     */
+    public long nanosUntilAvailable(final long now) {
+        refill(now);
+        if (tokens >= 1) return 0;
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now current time
+     * @return true if a token was taken
+     */
+    public boolean tryTake(final long now) {
+        refill(now);
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Tells if the bucket refilled completely, so it is the same as a new bucket.
+     *
+     * @param now current time
+     * @return true if full
+     */
+    public boolean isFull(final long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(final long now) {
+        if (now <= updatedAt) return;
+        tokens = Math.min(capacity, tokens + (now - updatedAt) * tokensPerNano);
+        updatedAt = now;
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure each Telegram update is processed once, so a redelivered update never pays for a second answer.
+ * Updates already seen are recognized by a ring of the most recent update ids, which catches webhook retries
+ * and updates received twice while running.
+ * Updates delivered again after a restart are recognized by the id of the last update fully processed,
+ * saved on the database every few moments and on shutdown. An update counts as processed once its answer
+ * was sent, or it was dropped, and all updates received before it were too.
+ * Telegram may start update ids over from a random number, so the saved id only skips updates a little
+ * below it. An update further below means the ids started over and the saved id is forgotten.
+ */
+@Component
+@DependsOn("SQLite")
+public class UpdateDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpdateDeduplicator.class);
+
+    private final UpdateOffsetRepository repository;
+    private final int[] recent;
+    private final long offsetWindow;
+    private final Set<Integer> recentIds = new HashSet<>();
+    private final TreeSet<Integer> inFlight = new TreeSet<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "UpdateOffset");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int nextSlot;
+    private boolean loaded;
+    private long processedBeforeStart;
+    private long highestCompleted;
+    private long lastProcessed;
+    private long saved;
+
+    /**
+     * Creates the deduplicator.
+     *
+     * @param repository  repository keeping the last processed update
+     * @param window       how many recent update ids are remembered, 0 to only check the saved offset
+     * @param offsetWindow how far below the last processed update an update is still taken as already processed
+     * @param flushMillis  how often the last processed update is saved, 0 to only save it on shutdown
+     */
+    public UpdateDeduplicator(
+        final UpdateOffsetRepository repository,
+        @Value("${telegramIAConnector.updateDedupWindow:1024}") final int window,
+        @Value("${telegramIAConnector.updateOffsetWindow:100000}") final long offsetWindow,
+        @Value("${telegramIAConnector.updateOffsetFlushMillis:1000}") final long flushMillis
+    ) {
+        this.repository = repository;
+        this.recent = new int[Math.max(0, window)];
+        this.offsetWindow = Math.max(1, offsetWindow);
+        if (flushMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Tells if an update must be processed, in that case it is tracked until {@link #complete(int)} is called.
+     *
+     * @param updateId update id
+     * @return true the first time an update is seen, false if it was already seen or processed before a restart
+     */
+    public synchronized boolean begin(final int updateId) {
+        load();
+        if (lastProcessed - updateId >= offsetWindow) {
+            logger.warn("Update ids started over at {}, forgetting last processed update {}", updateId, lastProcessed);
+            processedBeforeStart = 0;
+            lastProcessed = updateId - 1L;
+            highestCompleted = updateId - 1L;
+            saved = -1;
+            // Updates of the old ids can no longer hold the offset back
+            inFlight.clear();
+        }
+        if (updateId <= processedBeforeStart || !remember(updateId)) {
+            logger.info("Skipping update {}, it was already received", updateId);
+            return false;
+        }
+        inFlight.add(updateId);
+        return true;
+    }
+
+    /**
+     * Marks an update as processed, which is once its answer was sent.
+     * Calling it more than once or for an update that was skipped has no effect.
+     *
+     * @param updateId update id
+     */
+    public synchronized void complete(final int updateId) {
+        if (!inFlight.remove(updateId)) return;
+        highestCompleted = Math.max(highestCompleted, updateId);
+        // Updates received before one still running are not processed yet
+        final long processed = inFlight.isEmpty()
+            ? highestCompleted
+            : Math.min(highestCompleted, inFlight.first() - 1L);
+        lastProcessed = Math.max(lastProcessed, processed);
+    }
+
+    /**
+     * Returns the id of the last update processed with all updates before it.
+     *
+     * @return update id, 0 if none
+     */
+    public synchronized long lastProcessed() {
+        load();
+        return lastProcessed;
+    }
+
+    /**
+     * Saves the last processed update if it changed since the last save.
+     */
+    public void flush() {
+        final long toSave;
+        synchronized (this) {
+            if (!loaded || lastProcessed == saved) return;
+            toSave = lastProcessed;
+        }
+        repository.setLastUpdateId(toSave);
+        synchronized (this) {
+            saved = Math.max(saved, toSave);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Could not save last processed update", e);
+        }
+    }
+
+    private void load() {
+        if (loaded) return;
+        processedBeforeStart = repository.getLastUpdateId();
+        lastProcessed = processedBeforeStart;
+        highestCompleted = processedBeforeStart;
+        saved = processedBeforeStart;
+        loaded = true;
+    }
+
+    private boolean remember(final int updateId) {
+        if (recent.length == 0) return true;
+        if (!recentIds.add(updateId)) return false;
+        if (recentIds.size() > recent.length) {
+            recentIds.remove(recent[nextSlot]);
+        }
+        recent[nextSlot] = updateId;
+        nextSlot = (nextSlot + 1) % recent.length;
+        return true;
+    }
+
+    /**
+     * Stops the periodic save and saves the last processed update one last time.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+}
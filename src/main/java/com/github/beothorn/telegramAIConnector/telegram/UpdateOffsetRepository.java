@@ -0,0 +1,62 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@Service
+public class UpdateOffsetRepository {
+
+    private Database database;
+
+    /**
+     * Sets the database holding the update offset table.
+     *
+     * @param database shared database
+     */
+    public void initDatabase(final Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Retrieves the id of the last update fully processed.
+     *
+     * @return update id or 0 if no update was processed yet
+     */
+    public long getLastUpdateId() {
+        String sql = "SELECT lastUpdateId FROM update_offset WHERE id = 0";
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong("lastUpdateId") : 0L;
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to get last update id", e);
+        }
+    }
+
+    /**
+     * Stores the id of the last update fully processed.
+     *
+     * @param updateId update id
+     */
+    public void setLastUpdateId(long updateId) {
+        String sql = "INSERT INTO update_offset (id, lastUpdateId, updatedAt) VALUES (0, ?, ?) "
+            + "ON CONFLICT(id) DO UPDATE SET lastUpdateId = excluded.lastUpdateId, updatedAt = excluded.updatedAt";
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, updateId);
+                stmt.setLong(2, System.currentTimeMillis());
+                return stmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to set last update id", e);
+        }
+    }
+}
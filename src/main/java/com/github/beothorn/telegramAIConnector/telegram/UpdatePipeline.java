@@ -0,0 +1,125 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The stages an update goes through, from decoding it to delivering the answer.
+ * Each stage is a {@link ChatMailbox}: it keeps the order of the updates of each chat, has its own
+ * budget of tasks running at once and its own cap of tasks waiting per chat, and measures how long
+ * tasks wait versus how long they run, so the slow stage can be found and sized on its own.
+ * The infer stage is the shared chat mailbox, limited by the prompt settings.
+ * Decoding runs on the polling thread, so it only has timings.
+ */
+@Component
+@DependsOn("SQLite")
+public class UpdatePipeline {
+
+    private final Map<PipelineStage, ChatMailbox> stages = new EnumMap<>(PipelineStage.class);
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    /**
+     * Creates the pipeline.
+     *
+     * @param inferStage          mailbox running the prompts
+     * @param authenticateThreads authentication tasks running at once, 0 for no limit
+     * @param persistThreads      persistence tasks running at once, 0 for no limit
+     * @param dispatchThreads     dispatch tasks running at once, 0 for no limit
+     * @param deliverThreads      delivery tasks running at once, 0 for no limit
+     * @param queuePerChat        tasks waiting per chat on each stage before new ones are dropped, 0 for no limit
+     */
+    public UpdatePipeline(
+        final ChatMailbox inferStage,
+        @Value("${telegramIAConnector.pipeline.authenticateThreads:4}") final int authenticateThreads,
+        @Value("${telegramIAConnector.pipeline.persistThreads:4}") final int persistThreads,
+        @Value("${telegramIAConnector.pipeline.dispatchThreads:16}") final int dispatchThreads,
+        @Value("${telegramIAConnector.pipeline.deliverThreads:16}") final int deliverThreads,
+        @Value("${telegramIAConnector.pipeline.queuePerChat:100}") final int queuePerChat
+    ) {
+        stages.put(PipelineStage.AUTHENTICATE, new ChatMailbox(authenticateThreads, queuePerChat));
+        stages.put(PipelineStage.PERSIST, new ChatMailbox(persistThreads, queuePerChat));
+        stages.put(PipelineStage.DISPATCH, new ChatMailbox(dispatchThreads, queuePerChat));
+        stages.put(PipelineStage.INFER, inferStage);
+        stages.put(PipelineStage.DELIVER, new ChatMailbox(deliverThreads, queuePerChat));
+    }
+
+    /**
+     * Returns the mailbox of a stage.
+     *
+     * @param stage stage, not decode
+     * @return mailbox running the stage tasks
+     */
+    public ChatMailbox stage(final PipelineStage stage) {
+        final ChatMailbox mailbox = stages.get(stage);
+        if (mailbox == null) {
+            throw new IllegalArgumentException("Stage " + stage + " has no queue");
+        }
+        return mailbox;
+    }
+
+    /**
+     * Queues work on a stage for a chat.
+     *
+     * @param stage  stage running the work
+     * @param chatId chat identifier
+     * @param work   work to run
+     * @param <T>    result type
+     * @return future completed with the work result
+     * @throws java.util.concurrent.RejectedExecutionException if the chat has too many tasks waiting on the stage
+     */
+    public <T> CompletableFuture<T> submit(
+        final PipelineStage stage,
+        final long chatId,
+        final Supplier<T> work
+    ) {
+        return stage(stage).submit(chatId, work);
+    }
+
+    /**
+     * Records the time taken to decode an update.
+     *
+     * @param nanos decode time
+     */
+    public void recordDecode(final long nanos) {
+        decoded.increment();
+        decodeNanos.add(nanos);
+    }
+
+    /**
+     * Returns load and timings of every stage, in pipeline order.
+     *
+     * @return stage statistics
+     */
+    public List<StageStats> stats() {
+        final List<StageStats> result = new ArrayList<>();
+        final long decodeCount = decoded.sum();
+        result.add(new StageStats(
+            PipelineStage.DECODE,
+            new MailboxStats(0, 0, 0, 0),
+            new StageTimings(decodeCount, 0, decodeCount == 0 ? 0 : decodeNanos.sum() / 1_000_000.0 / decodeCount)
+        ));
+        stages.forEach((stage, mailbox) -> result.add(new StageStats(stage, mailbox.stats(), mailbox.timings())));
+        return result;
+    }
+
+    /**
+     * Stops the stages owned by the pipeline, the infer stage is stopped on its own.
+     */
+    @PreDestroy
+    public void shutdown() {
+        stages.forEach((stage, mailbox) -> {
+            if (stage != PipelineStage.INFER) mailbox.shutdown();
+        });
+    }
+}
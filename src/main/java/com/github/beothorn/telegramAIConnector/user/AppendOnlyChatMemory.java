@@ -0,0 +1,68 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * Chat memory backed by {@link MessagesRepository}.
+ * Unlike {@link org.springframework.ai.chat.memory.MessageWindowChatMemory}, adding messages does not read
+ * the conversation back and rewrite it, new messages are just appended.
+ * The window size is the one configured on the repository.
+ */
+public class AppendOnlyChatMemory implements ChatMemory {
+
+    private final MessagesRepository messagesRepository;
+
+    /**
+     * Creates a chat memory storing messages on the given repository.
+     *
+     * @param messagesRepository repository for messages
+     */
+    public AppendOnlyChatMemory(
+        final MessagesRepository messagesRepository
+    ) {
+        this.messagesRepository = messagesRepository;
+    }
+
+    /**
+     * Appends all messages to the conversation in one batch.
+     *
+     * @param conversationId conversation identifier
+     * @param messages       new messages
+     */
+    @Override
+    public void add(
+        @NotNull final String conversationId,
+        @NotNull final List<Message> messages
+    ) {
+        messagesRepository.insertMessages(conversationId, messages);
+    }
+
+    /**
+     * Returns the last messages of the conversation, oldest first.
+     *
+     * @param conversationId conversation identifier
+     * @return conversation window
+     */
+    @Override
+    public @NotNull List<Message> get(
+        @NotNull final String conversationId
+    ) {
+        return messagesRepository.findByConversationId(conversationId);
+    }
+
+    /**
+     * Deletes the conversation.
+     *
+     * @param conversationId conversation identifier
+     */
+    @Override
+    public void clear(
+        @NotNull final String conversationId
+    ) {
+        messagesRepository.deleteByConversationId(conversationId);
+    }
+}
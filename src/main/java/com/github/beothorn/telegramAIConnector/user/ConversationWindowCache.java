@@ -0,0 +1,134 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the last messages of recently active conversations in memory.
+ * Each conversation is a fixed size ring buffer, conversations idle for the longest time are evicted
+ * once there are more than the configured maximum.
+ * Entries are filled from the database on a miss and only appended to while present,
+ * so a missing entry always means "ask the database".
+ */
+public class ConversationWindowCache {
+
+    private final int windowSize;
+    private final int maxConversations;
+    private final Map<Long, MessageRing> windows;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param windowSize       number of messages kept per conversation
+     * @param maxConversations number of conversations kept before evicting the least recently used
+     */
+    public ConversationWindowCache(
+        final int windowSize,
+        final int maxConversations
+    ) {
+        this.windowSize = Math.max(1, windowSize);
+        this.maxConversations = Math.max(1, maxConversations);
+        this.windows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, MessageRing> eldest) {
+                return size() > ConversationWindowCache.this.maxConversations;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached window, oldest message first.
+     *
+     * @param chatId chat identifier
+     * @return cached messages or empty if the conversation is not cached
+     */
+    public synchronized Optional<List<Message>> get(final long chatId) {
+        final MessageRing ring = windows.get(chatId);
+        if (ring == null) return Optional.empty();
+        return Optional.of(ring.toList());
+    }
+
+    /**
+     * Replaces the cached window of a conversation.
+     * Only the last messages that fit the window are kept.
+     *
+     * @param chatId   chat identifier
+     * @param messages messages, oldest first
+     */
+    public synchronized void put(
+        final long chatId,
+        final List<Message> messages
+    ) {
+        final MessageRing ring = new MessageRing(windowSize);
+        messages.forEach(ring::add);
+        windows.put(chatId, ring);
+    }
+
+    /**
+     * Appends a message to the conversation window if it is cached.
+     * The oldest message is dropped when the window is full.
+     *
+     * @param chatId  chat identifier
+     * @param message new message
+     */
+    public synchronized void appendIfPresent(
+        final long chatId,
+        final Message message
+    ) {
+        final MessageRing ring = windows.get(chatId);
+        if (ring != null) {
+            ring.add(message);
+        }
+    }
+
+    /**
+     * Drops the cached window of a conversation, the next read goes to the database.
+     *
+     * @param chatId chat identifier
+     */
+    public synchronized void invalidate(final long chatId) {
+        windows.remove(chatId);
+    }
+
+    /**
+     * Returns the number of cached conversations.
+     *
+     * @return cached conversation count
+     */
+    public synchronized int size() {
+        return windows.size();
+    }
+
+    private static final class MessageRing {
+        private final Message[] slots;
+        private int start;
+        private int count;
+
+        MessageRing(final int capacity) {
+            this.slots = new Message[capacity];
+        }
+
+        void add(final Message message) {
+            if (count < slots.length) {
+                slots[(start + count) % slots.length] = message;
+                count++;
+            } else {
+                slots[start] = message;
+                start = (start + 1) % slots.length;
+            }
+        }
+
+        List<Message> toList() {
+            final List<Message> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(slots[(start + i) % slots.length]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+/**
+ * Position of a message in a conversation, used for keyset pagination.
+ * Messages are ordered by timestamp and then by id, so this pair points to exactly one message
+ * and a page can start right after it without skipping rows.
+ *
+ * @param timestamp message timestamp in epoch milliseconds
+ * @param id        message identifier
+ */
+public record MessageCursor(
+    long timestamp,
+    long id
+) {
+
+    /**
+     * Parses a cursor created by {@link #toString()}.
+     *
+     * @param cursor cursor text
+     * @return the cursor
+     * @throws IllegalArgumentException if the text is not a valid cursor
+     */
+    public static MessageCursor parse(final String cursor) {
+        final int separator = cursor.indexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'");
+        }
+        try {
+            return new MessageCursor(
+                Long.parseLong(cursor.substring(0, separator)),
+                Long.parseLong(cursor.substring(separator + 1))
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'", e);
+        }
+    }
+
+    /**
+     * Returns the cursor as text, to be used as a request parameter.
+     *
+     * @return cursor text
+     */
+    @Override
+    public String toString() {
+        return timestamp + "_" + id;
+    }
+}
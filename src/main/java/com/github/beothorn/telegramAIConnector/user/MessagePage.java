@@ -0,0 +1,14 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import java.util.List;
+
+/**
+ * A page of stored messages, newest first.
+ *
+ * @param messages messages on this page
+ * @param next     cursor for the following (older) page or null if this is the last one
+ */
+public record MessagePage(
+    List<StoredMessage> messages,
+    String next
+) {}
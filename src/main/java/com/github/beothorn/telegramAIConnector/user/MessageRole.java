@@ -0,0 +1,90 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.Arrays;
+
+/**
+ * Role of a stored message.
+ * The code is what goes into the database, the value is the role name used by Spring AI and the backoffice.
+ */
+public enum MessageRole {
+    USER(0, "user"),
+    ASSISTANT(1, "assistant"),
+    SYSTEM(2, "system"),
+    TOOL(3, "tool");
+
+    private static final MessageRole[] BY_CODE = values();
+
+    private final int code;
+    private final String value;
+
+    MessageRole(
+        final int code,
+        final String value
+    ) {
+        this.code = code;
+        this.value = value;
+    }
+
+    /**
+     * Returns the code stored in the database.
+     *
+     * @return role code
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Returns the role name.
+     *
+     * @return role name
+     */
+    public String value() {
+        return value;
+    }
+
+    /**
+     * Finds a role by its database code.
+     *
+     * @param code role code
+     * @return role
+     */
+    public static MessageRole fromCode(final int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown role code " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Finds a role by its name.
+     *
+     * @param value role name, ex: 'user'
+     * @return role
+     */
+    public static MessageRole fromValue(final String value) {
+        return Arrays.stream(BY_CODE)
+            .filter(r -> r.value.equals(value))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown role '" + value + "'"));
+    }
+
+    /**
+     * Creates the Spring AI message for this role.
+     *
+     * @param text message text
+     * @return message
+     */
+    public Message toMessage(final String text) {
+        return switch (this) {
+            case USER -> new UserMessage(text);
+            case ASSISTANT -> new AssistantMessage(text);
+            case SYSTEM, TOOL -> new SystemMessage(text); // Reuse SystemMessage for tool
+        };
+    }
+}
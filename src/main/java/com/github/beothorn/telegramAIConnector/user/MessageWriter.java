@@ -0,0 +1,229 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind queue for message inserts.
+ * A single user message can trigger several inserts (the user text, the answer, tool messages),
+ * so instead of one commit per insert, messages are queued and committed together in one transaction
+ * every few milliseconds or as soon as a batch is full.
+ * Readers call {@link #flush()} before querying so they always see their own writes.
+ * A batch that fails does not fail the flush, so readers of other chats are not affected: its messages
+ * are only retried by the background flush, one at a time, and the ones that still fail after
+ * {@value #MAX_WRITE_ATTEMPTS} attempts are logged and dropped. Retried messages keep the timestamp
+ * they were queued with, so they still read in order.
+ */
+public class MessageWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriter.class);
+
+    static final String INSERT_SQL = "INSERT INTO messages (chatId, role, content, timestamp) VALUES (?, ?, ?, ?)";
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+
+    private record PendingMessage(
+        long chatId,
+        MessageRole role,
+        String content,
+        long timestamp,
+        int failedAttempts
+    ) {
+        PendingMessage failed() {
+            return new PendingMessage(chatId, role, content, timestamp, failedAttempts + 1);
+        }
+    }
+
+    private final Database database;
+    private final int batchSize;
+    private final BlockingDeque<PendingMessage> pending = new LinkedBlockingDeque<>();
+    private final BlockingDeque<PendingMessage> retrying = new LinkedBlockingDeque<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates the writer and starts the background flush.
+     *
+     * @param database     database to write to
+     * @param lingerMillis maximum time a message waits in the queue
+     * @param batchSize    number of queued messages that triggers an immediate flush
+     */
+    public MessageWriter(
+        final Database database,
+        final long lingerMillis,
+        final int batchSize
+    ) {
+        this.database = database;
+        this.batchSize = Math.max(1, batchSize);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "MessageWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long linger = Math.max(1, lingerMillis);
+        flusher.scheduleWithFixedDelay(this::backgroundFlush, linger, linger, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a message to be inserted.
+     * The timestamp is taken now, so the insertion order is kept.
+     *
+     * @param chatId  chat identifier
+     * @param role    message role
+     * @param content message text
+     */
+    public void enqueue(
+        final long chatId,
+        final MessageRole role,
+        final String content
+    ) {
+        Objects.requireNonNull(content, "Message content can't be null");
+        pending.add(new PendingMessage(chatId, role, content, System.currentTimeMillis(), 0));
+        if (pending.size() >= batchSize) {
+            flusher.execute(this::backgroundFlush);
+        }
+    }
+
+    /**
+     * Commits every message queued before this call.
+     * Works as a read-your-writes barrier. A batch that can't be written is logged and left for the
+     * background flush to retry, it never fails the caller.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                final List<PendingMessage> batch = new ArrayList<>();
+                pending.drainTo(batch, batchSize);
+                try {
+                    write(batch);
+                } catch (SQLException e) {
+                    logger.warn("Failed to insert {} messages, retrying them in the background", batch.size(), e);
+                    batch.forEach(message -> retrying.add(message.failed()));
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the messages of failed batches again, one at a time so a message that can't be written
+     * does not hold the others back.
+     */
+    void retryFailed() {
+        flushLock.lock();
+        try {
+            for (int left = retrying.size(); left > 0; left--) {
+                final PendingMessage message = retrying.poll();
+                if (message == null) return;
+                try {
+                    write(List.of(message));
+                } catch (SQLException e) {
+                    final PendingMessage failed = message.failed();
+                    if (failed.failedAttempts() < MAX_WRITE_ATTEMPTS) {
+                        retrying.add(failed);
+                    } else {
+                        drop(failed, e);
+                    }
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void drop(
+        final PendingMessage message,
+        final SQLException error
+    ) {
+        dropped.incrementAndGet();
+        logger.error(
+            "Dropping {} message of chat {} from {} after {} failed writes",
+            message.role(),
+            message.chatId(),
+            message.timestamp(),
+            message.failedAttempts(),
+            error
+        );
+    }
+
+    /**
+     * Returns how many messages are waiting to be written, including the ones being retried.
+     *
+     * @return number of queued messages
+     */
+    public int pendingCount() {
+        return pending.size() + retrying.size();
+    }
+
+    /**
+     * Returns how many messages were dropped because they could not be written.
+     *
+     * @return number of dropped messages since startup
+     */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    private void backgroundFlush() {
+        try {
+            flush();
+            retryFailed();
+        } catch (RuntimeException e) {
+            logger.error("Background message flush failed, will retry", e);
+        }
+    }
+
+    private void write(final List<PendingMessage> batch) throws SQLException {
+        database.write(conn -> {
+            final PreparedStatement stmt = conn.prepare(INSERT_SQL);
+            stmt.clearBatch(); // A failed flush can leave rows behind on the cached statement
+            for (PendingMessage message : batch) {
+                stmt.setLong(1, message.chatId());
+                stmt.setInt(2, message.role().code());
+                stmt.setString(3, message.content());
+                stmt.setLong(4, message.timestamp());
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        });
+        logger.debug("Committed {} messages", batch.size());
+    }
+
+    /**
+     * Stops the background flush and writes whatever is still queued.
+     * Failed messages get one last attempt, the ones still failing are dropped.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Message writer did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        retryFailed();
+        PendingMessage message;
+        while ((message = retrying.poll()) != null) {
+            drop(message, null);
+        }
+    }
+}
@@ -1,62 +1,95 @@
 package com.github.beothorn.telegramAIConnector.user;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.user.archive.MessageArchive;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.memory.ChatMemoryRepository;
-import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.messages.SystemMessage;
-import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
 public class MessagesRepository implements ChatMemoryRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(MessagesRepository.class);
+    private static final int ARCHIVE_SEGMENT_SIZE = 1000;
+    private static final int EXPORT_PAGE_SIZE = 500;
+
     private final int messageWindowSize;
+    private final long writeLingerMillis;
+    private final int writeBatchSize;
+    private final ConversationWindowCache windowCache;
+    private final Path archiveFolder;
+    private final Object[] chatLocks = new Object[64];
 
-    private String dbUrl;
+    private Database database;
+    private MessageWriter writer;
+    private MessageArchive archive;
 
     /**
      * Creates a repository with the configured conversation window size.
      *
      * @param messagesOnConversation number of messages kept in memory
+     * @param writeLingerMillis      maximum time an inserted message waits before being committed
+     * @param writeBatchSize         number of pending inserts that triggers an immediate commit
+     * @param cachedConversations    number of conversation windows kept in memory
+     * @param archiveFolder          folder where archived messages are stored
      */
     public MessagesRepository(
-        @Value("${telegramIAConnector.messagesOnConversation}") final int messagesOnConversation
+        @Value("${telegramIAConnector.messagesOnConversation}") final int messagesOnConversation,
+        @Value("${telegramIAConnector.messageWriteLingerMillis:5}") final long writeLingerMillis,
+        @Value("${telegramIAConnector.messageWriteBatchSize:64}") final int writeBatchSize,
+        @Value("${telegramIAConnector.cachedConversations:256}") final int cachedConversations,
+        @Value("${telegramIAConnector.archiveFolder:${telegramIAConnector.dbFilesFolder}/archive}") final String archiveFolder
     ) {
         this.messageWindowSize = messagesOnConversation;
+        this.writeLingerMillis = writeLingerMillis;
+        this.writeBatchSize = writeBatchSize;
+        this.windowCache = new ConversationWindowCache(messagesOnConversation, cachedConversations);
+        this.archiveFolder = Path.of(archiveFolder);
+        for (int i = 0; i < chatLocks.length; i++) {
+            chatLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Inserts, cache fills and invalidations of the same chat are serialized,
+     * so a window loaded from the database can't miss an insert made while it was loading.
+     */
+    private Object lockFor(final long chatId) {
+        return chatLocks[Math.floorMod(Long.hashCode(chatId), chatLocks.length)];
     }
 
     /**
      * Initializes the repository using the provided database.
+     * The schema is created by {@link com.github.beothorn.telegramAIConnector.persistence.SchemaMigrations}.
      *
-     * @param dbUrl JDBC connection string
+     * @param database shared database
      */
     public void initDatabase(
-        final String dbUrl
+        final Database database
     ) {
-        this.dbUrl = dbUrl;
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement()) {
-
-            stmt.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS messages (
-                    chatId TEXT NOT NULL,
-                    role TEXT NOT NULL,
-                    content TEXT NOT NULL,
-                    timestamp INTEGER DEFAULT (strftime('%s','now') * 1000)
-                )
-            """);
+        this.database = database;
+        this.writer = new MessageWriter(database, writeLingerMillis, writeBatchSize);
+        this.archive = new MessageArchive(database, archiveFolder, ARCHIVE_SEGMENT_SIZE);
+    }
 
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to initialize messages database", e);
+    /**
+     * Commits all pending inserts and stops the background writer.
+     * Must be called before the database is closed.
+     */
+    public void close() {
+        if (writer != null) {
+            writer.close();
         }
     }
 
@@ -67,23 +100,26 @@ public class MessagesRepository implements ChatMemoryRepository {
      * @return list of conversation ids
      */
     public List<String> findConversationIds() {
-        List<String> conversationIds = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT DISTINCT chatId FROM messages")) {
-
-            while (rs.next()) {
-                conversationIds.add(rs.getString("chatId"));
-            }
+        writer.flush();
+        try {
+            return database.read(conn -> {
+                List<String> conversationIds = new ArrayList<>();
+                try (ResultSet rs = conn.prepare("SELECT DISTINCT chatId FROM messages").executeQuery()) {
+                    while (rs.next()) {
+                        conversationIds.add(Long.toString(rs.getLong("chatId")));
+                    }
+                }
+                return conversationIds;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to retrieve chatIds.", e);
         }
-        return conversationIds;
     }
 
     @Override
     /**
      * Retrieves the last messages for a conversation limited by the window size.
+     * Recently active conversations are served from memory.
      *
      * @param conversationId conversation identifier
      * @return list of messages
@@ -91,39 +127,44 @@ public class MessagesRepository implements ChatMemoryRepository {
     public List<Message> findByConversationId(
         @NotNull final String conversationId
     ) {
-        List<Message> messages = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(
-                     "SELECT role, content FROM messages WHERE chatId = ? ORDER BY timestamp DESC LIMIT ?")) {
-
-            stmt.setString(1, conversationId);
-            stmt.setInt(2, messageWindowSize);
-
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                String role = rs.getString("role");
-                String text = rs.getString("content");
-
-                Message message = switch (role) {
-                    case "user" -> new UserMessage(text);
-                    case "assistant" -> new AssistantMessage(text);
-                    case "system", "tool" -> new SystemMessage(text); // Reuse SystemMessage for tool
-                    default -> null;
-                };
+        final long chatId = Long.parseLong(conversationId);
+        final Optional<List<Message>> cached = windowCache.get(chatId);
+        if (cached.isPresent()) return cached.get();
+
+        synchronized (lockFor(chatId)) {
+            return windowCache.get(chatId).orElseGet(() -> {
+                final List<Message> window = loadWindow(chatId);
+                windowCache.put(chatId, window);
+                return new ArrayList<>(window);
+            });
+        }
+    }
 
-                if (message != null) {
-                    messages.add(0, message); // reverse order back to ascending
+    private List<Message> loadWindow(final long chatId) {
+        writer.flush();
+        try {
+            return database.read(conn -> {
+                List<Message> messages = new ArrayList<>();
+                PreparedStatement stmt = conn.prepare(
+                    "SELECT role, content FROM messages WHERE chatId = ? ORDER BY timestamp DESC, id DESC LIMIT ?");
+                stmt.setLong(1, chatId);
+                stmt.setInt(2, messageWindowSize);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        messages.add(0, toMessage(rs)); // reverse order back to ascending
+                    }
                 }
-            }
+                return messages;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to fetch messages", e);
         }
-        return messages;
     }
 
     /**
-     * Retrieves the full conversation in chronological order.
+     * Retrieves the full conversation in chronological order, archived messages included.
+     * Read again if messages were archived while reading, so none is missed or read twice.
      *
      * @param conversationId conversation identifier
      * @return list of messages in chronological order
@@ -131,65 +172,146 @@ public class MessagesRepository implements ChatMemoryRepository {
     public List<Message> getConversations(
         @NotNull final String conversationId
     ) {
-        List<Message> messages = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(
-                     "SELECT role, content FROM messages WHERE chatId = ? ORDER BY timestamp")) {
-
-            stmt.setString(1, conversationId);
-
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                String role = rs.getString("role");
-                String text = rs.getString("content");
+        final long chatId = Long.parseLong(conversationId);
+        writer.flush();
+        while (true) {
+            final long generation = archive.generation();
+            final List<Message> messages = new ArrayList<>();
+            archive.forEachMessage(chatId, null, m ->
+                messages.add(MessageRole.fromValue(m.role()).toMessage(m.content())));
+            try {
+                database.read(conn -> {
+                    PreparedStatement stmt = conn.prepare(
+                        "SELECT role, content FROM messages WHERE chatId = ? ORDER BY timestamp, id");
+                    stmt.setLong(1, chatId);
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            messages.add(toMessage(rs));
+                        }
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to fetch messages", e);
+            }
+            if (archive.generation() == generation) return messages;
+        }
+    }
 
-                Message message = switch (role) {
-                    case "user" -> new UserMessage(text);
-                    case "assistant" -> new AssistantMessage(text);
-                    case "system", "tool" -> new SystemMessage(text); // Reuse SystemMessage for tool
-                    default -> null;
-                };
+    /**
+     * Passes every message of a conversation to the consumer in chronological order,
+     * starting with the archived ones.
+     * Messages are read a page at a time, seeking from the last one passed with the (timestamp, id) cursor,
+     * and the reader connection is given back between pages, so a slow consumer never holds one
+     * and this works for conversations of any size.
+     * If messages were archived while reading, the ones after the last passed are read from the archive
+     * before going on with the table, so none is missed or passed twice.
+     *
+     * @param chatId   chat identifier
+     * @param consumer receives each message
+     */
+    public void forEachMessage(
+        final String chatId,
+        final Consumer<StoredMessage> consumer
+    ) {
+        final long id = Long.parseLong(chatId);
+        writer.flush();
+        MessageCursor after = null;
+        while (true) {
+            final long generation = archive.generation();
+            after = archive.forEachMessage(id, after, consumer);
+            while (true) {
+                final HotPage page = readPageAscending(id, after, EXPORT_PAGE_SIZE);
+                // Messages archived since the archive was read may be missing from the page
+                if (archive.generation() != generation) break;
+                page.messages().forEach(consumer);
+                if (!page.hasMore()) return;
+                after = page.last();
+            }
+        }
+    }
 
-                if (message != null) {
-                    messages.add(0, message); // reverse order back to ascending
+    /**
+     * Reads messages of a chat oldest first, after the given cursor.
+     */
+    private HotPage readPageAscending(
+        final long chatId,
+        final MessageCursor after,
+        final int limit
+    ) {
+        final MessageCursor from = after == null ? new MessageCursor(Long.MIN_VALUE, Long.MIN_VALUE) : after;
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare("SELECT id, role, content, timestamp FROM messages "
+                    + "WHERE chatId = ? AND (timestamp, id) > (?, ?) ORDER BY timestamp, id LIMIT ?");
+                stmt.setLong(1, chatId);
+                stmt.setLong(2, from.timestamp());
+                stmt.setLong(3, from.id());
+                stmt.setInt(4, limit);
+                List<StoredMessage> messages = new ArrayList<>();
+                MessageCursor last = null;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        long ts = rs.getLong("timestamp");
+                        last = new MessageCursor(ts, rs.getLong("id"));
+                        messages.add(toStoredMessage(rs, ts));
+                    }
                 }
-            }
+                return new HotPage(messages, last, messages.size() == limit);
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to fetch messages", e);
+            throw new RuntimeException("Failed to read conversation " + chatId, e);
         }
-        return messages;
+    }
+
+    private static Message toMessage(final ResultSet rs) throws SQLException {
+        return MessageRole.fromCode(rs.getInt("role")).toMessage(rs.getString("content"));
     }
 
     @Override
     /**
-     * Persists the latest message of a conversation.
+     * Replaces the messages of a conversation with the given ones, in a single write.
+     * Archived messages and the summary are removed too, as they no longer describe the conversation.
+     * Messages without text are skipped.
      *
      * @param conversationId conversation identifier
-     * @param messages       messages to store
+     * @param messages       messages in conversation order
      */
     public void saveAll(
         @NotNull final String conversationId,
         final List<Message> messages
     ) {
-        if (messages.isEmpty()) return;
-
-        final String sql = "INSERT INTO messages (chatId, role, content, timestamp) VALUES (?, ?, ?, ?)";
-
-        Message message = messages.getLast(); // Only last message matters
-
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, conversationId);
-            stmt.setString(2, message.getMessageType().getValue());
-            stmt.setString(3, message.getText());
-            stmt.setLong(4, System.currentTimeMillis());
-
-            stmt.executeUpdate();
-
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to save message", e);
+        final long chatId = Long.parseLong(conversationId);
+        synchronized (lockFor(chatId)) {
+            writer.flush();
+            final long timestamp = System.currentTimeMillis();
+            try {
+                database.write(conn -> {
+                    PreparedStatement delete = conn.prepare("DELETE FROM messages WHERE chatId = ?");
+                    delete.setLong(1, chatId);
+                    delete.executeUpdate();
+                    PreparedStatement summary = conn.prepare("DELETE FROM conversation_summaries WHERE chatId = ?");
+                    summary.setLong(1, chatId);
+                    summary.executeUpdate();
+                    PreparedStatement insert = conn.prepare(MessageWriter.INSERT_SQL);
+                    insert.clearBatch();
+                    for (Message message : messages) {
+                        if (message.getText() == null) continue;
+                        insert.setLong(1, chatId);
+                        insert.setInt(2, MessageRole.fromValue(message.getMessageType().getValue()).code());
+                        insert.setString(3, message.getText());
+                        insert.setLong(4, timestamp);
+                        insert.addBatch();
+                    }
+                    return insert.executeBatch();
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to save conversation", e);
+            } finally {
+                windowCache.invalidate(chatId);
+            }
+            archive.deleteChat(chatId);
         }
     }
 
@@ -200,103 +322,403 @@ public class MessagesRepository implements ChatMemoryRepository {
      * @param conversationId conversation identifier
      */
     public void deleteByConversationId(@NotNull final String conversationId) {
-        String sql = "DELETE FROM messages WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, conversationId);
-            stmt.executeUpdate();
+        final long chatId = Long.parseLong(conversationId);
+        synchronized (lockFor(chatId)) {
+            writer.flush();
+            try {
+                database.write(conn -> {
+                    PreparedStatement stmt = conn.prepare("DELETE FROM messages WHERE chatId = ?");
+                    stmt.setLong(1, chatId);
+                    int deleted = stmt.executeUpdate();
+                    // The summary only describes these messages
+                    PreparedStatement summary = conn.prepare("DELETE FROM conversation_summaries WHERE chatId = ?");
+                    summary.setLong(1, chatId);
+                    summary.executeUpdate();
+                    return deleted;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to delete conversation", e);
+            } finally {
+                windowCache.invalidate(chatId);
+            }
+            archive.deleteChat(chatId);
+        }
+    }
+
+    /**
+     * Moves old messages of a conversation to the archive.
+     * The conversation window is never archived.
+     *
+     * @param chatId     chat identifier
+     * @param olderThan  epoch millis, older messages are archived, {@link Long#MIN_VALUE} to archive only by count
+     * @param keepNewest number of newest messages kept on the table regardless of age, 0 to archive only by age
+     * @param upTo       newer messages are never archived, null for no limit
+     * @return number of archived messages
+     */
+    public int archive(String chatId, long olderThan, int keepNewest, MessageCursor upTo) {
+        writer.flush();
+        return archive.archiveChat(Long.parseLong(chatId), olderThan, keepNewest, messageWindowSize, upTo);
+    }
+
+    /**
+     * Returns messages that are no longer on the conversation window, oldest first.
+     * Without a cursor, returns the newest ones that left the window.
+     * Here the page {@code next} is the cursor of the last returned message, or null when nothing was returned,
+     * so it can be passed back to continue.
+     *
+     * @param chatId chat identifier
+     * @param after  only messages after this cursor, null to start from the newest ones
+     * @param limit  maximum number of messages
+     * @return messages and the cursor of the last one
+     */
+    public MessagePage getMessagesOutsideWindow(String chatId, MessageCursor after, int limit) {
+        final long id = Long.parseLong(chatId);
+        writer.flush();
+        try {
+            return database.read(conn -> {
+                PreparedStatement boundary = conn.prepare(
+                    "SELECT id, timestamp FROM messages WHERE chatId = ? ORDER BY timestamp DESC, id DESC LIMIT 1 OFFSET ?");
+                boundary.setLong(1, id);
+                boundary.setInt(2, Math.max(messageWindowSize - 1, 0));
+                final MessageCursor windowStart;
+                try (ResultSet rs = boundary.executeQuery()) {
+                    if (!rs.next()) return new MessagePage(List.of(), null);
+                    windowStart = new MessageCursor(rs.getLong("timestamp"), rs.getLong("id"));
+                }
+
+                PreparedStatement stmt;
+                if (after == null) {
+                    stmt = conn.prepare("SELECT id, role, content, timestamp FROM messages "
+                        + "WHERE chatId = ? AND (timestamp, id) < (?, ?) ORDER BY timestamp DESC, id DESC LIMIT ?");
+                    stmt.setLong(1, id);
+                    stmt.setLong(2, windowStart.timestamp());
+                    stmt.setLong(3, windowStart.id());
+                    stmt.setInt(4, limit);
+                } else {
+                    stmt = conn.prepare("SELECT id, role, content, timestamp FROM messages "
+                        + "WHERE chatId = ? AND (timestamp, id) > (?, ?) AND (timestamp, id) < (?, ?) "
+                        + "ORDER BY timestamp, id LIMIT ?");
+                    stmt.setLong(1, id);
+                    stmt.setLong(2, after.timestamp());
+                    stmt.setLong(3, after.id());
+                    stmt.setLong(4, windowStart.timestamp());
+                    stmt.setLong(5, windowStart.id());
+                    stmt.setInt(6, limit);
+                }
+                List<StoredMessage> messages = new ArrayList<>();
+                MessageCursor last = null;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        long ts = rs.getLong("timestamp");
+                        MessageCursor cursor = new MessageCursor(ts, rs.getLong("id"));
+                        if (after == null) {
+                            messages.add(0, toStoredMessage(rs, ts)); // newest first, reverse to ascending
+                            if (last == null) last = cursor;
+                        } else {
+                            messages.add(toStoredMessage(rs, ts));
+                            last = cursor;
+                        }
+                    }
+                }
+                return new MessagePage(messages, last == null ? null : last.toString());
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete conversation", e);
+            throw new RuntimeException("Failed to fetch messages outside the window", e);
         }
     }
 
+    private static StoredMessage toStoredMessage(final ResultSet rs, final long timestamp) throws SQLException {
+        return StoredMessage.of(
+            rs.getLong("id"),
+            MessageRole.fromCode(rs.getInt("role")),
+            rs.getString("content"),
+            timestamp
+        );
+    }
+
+    private record HotPage(
+        List<StoredMessage> messages,
+        MessageCursor last,
+        boolean hasMore
+    ) {}
+
     /**
-     * Returns paginated stored messages for UI consumption.
+     * Returns a page of stored messages, newest first, starting right after the given cursor.
+     * Uses the (chatId, timestamp) index to seek to the cursor, so every page costs the same.
+     * Once the messages table runs out, the page continues with archived messages.
+     * Read again if messages were archived while reading, so none is missed or read twice.
      *
      * @param chatId chat identifier
+     * @param after  cursor returned with the previous page or null for the first page
      * @param limit  maximum number of messages
-     * @param offset offset for pagination
-     * @return list of stored messages
+     * @return messages and the cursor for the next page
      */
-    public List<StoredMessage> getMessages(String chatId, int limit, int offset) {
-        List<StoredMessage> messages = new ArrayList<>();
-        String sql = "SELECT rowid, role, content, timestamp FROM messages WHERE chatId = ? ORDER BY timestamp DESC LIMIT ? OFFSET ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, chatId);
-            stmt.setInt(2, limit);
-            stmt.setInt(3, offset);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                long ts = rs.getLong("timestamp");
-                String formatted = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
-                        .withZone(java.time.ZoneId.systemDefault())
-                        .format(java.time.Instant.ofEpochMilli(ts));
-                messages.add(new StoredMessage(
-                        rs.getLong("rowid"),
-                        rs.getString("role"),
-                        rs.getString("content"),
-                        formatted
-                ));
+    public MessagePage getMessagePage(String chatId, MessageCursor after, int limit) {
+        final String sql = after == null
+            ? "SELECT id, role, content, timestamp FROM messages WHERE chatId = ? "
+                + "ORDER BY timestamp DESC, id DESC LIMIT ?"
+            : "SELECT id, role, content, timestamp FROM messages WHERE chatId = ? AND (timestamp, id) < (?, ?) "
+                + "ORDER BY timestamp DESC, id DESC LIMIT ?";
+        writer.flush();
+        try {
+            while (true) {
+                final long generation = archive.generation();
+                final HotPage hot = database.read(conn -> {
+                    List<StoredMessage> messages = new ArrayList<>();
+                    PreparedStatement stmt = conn.prepare(sql);
+                    int param = 1;
+                    stmt.setLong(param++, Long.parseLong(chatId));
+                    if (after != null) {
+                        stmt.setLong(param++, after.timestamp());
+                        stmt.setLong(param++, after.id());
+                    }
+                    // One extra row tells if there is a next page
+                    stmt.setInt(param, limit + 1);
+                    MessageCursor last = null;
+                    boolean hasMore = false;
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (messages.size() == limit) {
+                                hasMore = true;
+                                break;
+                            }
+                            long ts = rs.getLong("timestamp");
+                            last = new MessageCursor(ts, rs.getLong("id"));
+                            messages.add(toStoredMessage(rs, ts));
+                        }
+                    }
+                    return new HotPage(messages, last, hasMore);
+                });
+                if (hot.hasMore()) {
+                    return new MessagePage(hot.messages(), hot.last().toString());
+                }
+                // Archived messages are all older than the ones still on the table
+                final MessageCursor archiveBefore = hot.last() != null ? hot.last() : after;
+                final MessagePage archived = archive.getMessagePage(
+                    Long.parseLong(chatId),
+                    archiveBefore,
+                    limit - hot.messages().size()
+                );
+                if (archive.generation() != generation) continue;
+                final List<StoredMessage> messages = new ArrayList<>(hot.messages());
+                messages.addAll(archived.messages());
+                return new MessagePage(messages, archived.next());
             }
         } catch (SQLException e) {
             throw new RuntimeException("Failed to fetch paginated messages", e);
         }
-        return messages;
+    }
+
+    /**
+     * Searches message contents, best matches first.
+     * Every word of the query must appear in the message, punctuation and FTS operators are ignored.
+     * Archived messages are searched too, they have their own index.
+     *
+     * @param query    words to search for
+     * @param chatId   restricts the search to one chat, null searches all chats
+     * @param page     zero-based page number
+     * @param pageSize results per page
+     * @return matching messages and the next page number
+     */
+    public SearchPage search(String query, Long chatId, int page, int pageSize) {
+        final String match = toMatchQuery(query);
+        if (match.isEmpty()) return new SearchPage(List.of(), null);
+        final String sql = "SELECT id, chatId, role, timestamp, snippet FROM ("
+            + "SELECT m.id, m.chatId, m.role, m.timestamp, "
+            + "snippet(messages_fts, 0, '[', ']', '...', 16) AS snippet, bm25(messages_fts) AS rank "
+            + "FROM messages_fts JOIN messages m ON m.id = messages_fts.rowid "
+            + "WHERE messages_fts MATCH ? "
+            + (chatId == null ? "" : "AND m.chatId = ? ")
+            + "UNION ALL "
+            + "SELECT a.rowid, a.chatId, a.role, a.timestamp, "
+            + "snippet(archived_messages_fts, 0, '[', ']', '...', 16), bm25(archived_messages_fts) "
+            + "FROM archived_messages_fts a "
+            + "WHERE archived_messages_fts MATCH ? "
+            + (chatId == null ? "" : "AND a.chatId = ? ")
+            + ") ORDER BY rank, timestamp DESC LIMIT ? OFFSET ?";
+        writer.flush();
+        try {
+            return database.read(conn -> {
+                List<SearchResult> results = new ArrayList<>();
+                PreparedStatement stmt = conn.prepare(sql);
+                int param = 1;
+                // Once for the messages index and once for the archived messages index
+                for (int table = 0; table < 2; table++) {
+                    stmt.setString(param++, match);
+                    if (chatId != null) {
+                        stmt.setLong(param++, chatId);
+                    }
+                }
+                // One extra row tells if there is a next page
+                stmt.setInt(param++, pageSize + 1);
+                stmt.setInt(param, page * pageSize);
+                boolean hasMore = false;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (results.size() == pageSize) {
+                            hasMore = true;
+                            break;
+                        }
+                        results.add(new SearchResult(
+                            rs.getLong("id"),
+                            rs.getLong("chatId"),
+                            MessageRole.fromCode(rs.getInt("role")).value(),
+                            rs.getString("snippet"),
+                            StoredMessage.formatTimestamp(rs.getLong("timestamp"))
+                        ));
+                    }
+                }
+                return new SearchPage(results, hasMore ? page + 1 : null);
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to search messages", e);
+        }
+    }
+
+    /**
+     * Turns free text into an FTS5 query where every word is a quoted term, so user input
+     * can't produce a syntax error. The last word also matches as a prefix.
+     *
+     * @param query free text
+     * @return FTS5 match expression, empty if there are no words
+     */
+    static String toMatchQuery(final String query) {
+        if (query == null) return "";
+        final List<String> terms = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            // Words without letters or digits are not indexed, they would only make the query fail
+            if (word.codePoints().noneMatch(Character::isLetterOrDigit)) continue;
+            terms.add("\"" + word.replace("\"", "\"\"") + "\"");
+        }
+        if (terms.isEmpty()) return "";
+        terms.set(terms.size() - 1, terms.getLast() + "*");
+        return String.join(" ", terms);
     }
 
     /**
      * Inserts a new message.
+     * The insert is queued and committed in the background together with other pending inserts,
+     * reads from this repository always see it.
      *
      * @param chatId chat identifier
      * @param role   message role
      * @param content message text
      */
     public void insertMessage(String chatId, String role, String content) {
-        String sql = "INSERT INTO messages (chatId, role, content, timestamp) VALUES (?, ?, ?, ?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, chatId);
-            stmt.setString(2, role);
-            stmt.setString(3, content);
-            stmt.setLong(4, System.currentTimeMillis());
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to insert message", e);
+        final long id = Long.parseLong(chatId);
+        final MessageRole messageRole = MessageRole.fromValue(role);
+        synchronized (lockFor(id)) {
+            writer.enqueue(id, messageRole, content);
+            windowCache.appendIfPresent(id, messageRole.toMessage(content));
+        }
+    }
+
+    /**
+     * Appends several messages to a conversation, they are committed together.
+     * Messages without text, like assistant messages that only carry tool calls, are skipped.
+     *
+     * @param chatId   chat identifier
+     * @param messages messages in conversation order
+     */
+    public void insertMessages(String chatId, List<Message> messages) {
+        final long id = Long.parseLong(chatId);
+        synchronized (lockFor(id)) {
+            for (Message message : messages) {
+                if (message.getText() == null) continue;
+                final MessageRole messageRole = MessageRole.fromValue(message.getMessageType().getValue());
+                writer.enqueue(id, messageRole, message.getText());
+                windowCache.appendIfPresent(id, messageRole.toMessage(message.getText()));
+            }
         }
     }
 
+    /**
+     * Commits all pending inserts.
+     */
+    public void flush() {
+        writer.flush();
+    }
+
     /**
      * Updates an existing message.
+     * Archived messages can't be changed, see {@link #isArchived(long)}.
      *
      * @param id      message identifier
      * @param content new content
+     * @return true if the message was updated, false if it is not on the messages table
      */
-    public void updateMessage(long id, String content) {
-        String sql = "UPDATE messages SET content = ? WHERE rowid = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, content);
-            stmt.setLong(2, id);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to update message", e);
+    public boolean updateMessage(long id, String content) {
+        String sql = "UPDATE messages SET content = ? WHERE id = ?";
+        writer.flush();
+        final Optional<Long> chatId = findChatIdOf(id);
+        if (chatId.isEmpty()) return false;
+        synchronized (lockFor(chatId.get())) {
+            try {
+                return database.write(conn -> {
+                    PreparedStatement stmt = conn.prepare(sql);
+                    stmt.setString(1, content);
+                    stmt.setLong(2, id);
+                    return stmt.executeUpdate();
+                }) > 0;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to update message", e);
+            } finally {
+                windowCache.invalidate(chatId.get());
+            }
         }
     }
 
     /**
      * Deletes a stored message.
+     * Archived messages can't be deleted one by one, only with their conversation.
      *
      * @param id message identifier
+     * @return true if the message was deleted, false if it is not on the messages table
      */
-    public void deleteMessage(long id) {
-        String sql = "DELETE FROM messages WHERE rowid = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, id);
-            stmt.executeUpdate();
+    public boolean deleteMessage(long id) {
+        String sql = "DELETE FROM messages WHERE id = ?";
+        writer.flush();
+        final Optional<Long> chatId = findChatIdOf(id);
+        if (chatId.isEmpty()) return false;
+        synchronized (lockFor(chatId.get())) {
+            try {
+                return database.write(conn -> {
+                    PreparedStatement stmt = conn.prepare(sql);
+                    stmt.setLong(1, id);
+                    return stmt.executeUpdate();
+                }) > 0;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to delete message", e);
+            } finally {
+                windowCache.invalidate(chatId.get());
+            }
+        }
+    }
+
+    /**
+     * Tells if a message was moved to the archive, archived messages are read only.
+     *
+     * @param id message identifier
+     * @return true if the message is archived
+     */
+    public boolean isArchived(long id) {
+        return archive.contains(id);
+    }
+
+    private Optional<Long> findChatIdOf(final long id) {
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare("SELECT chatId FROM messages WHERE id = ?");
+                stmt.setLong(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return Optional.of(rs.getLong("chatId"));
+                    }
+                }
+                return Optional.<Long>empty();
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete message", e);
+            throw new RuntimeException("Failed to find message " + id, e);
         }
     }
-}
\ No newline at end of file
+}
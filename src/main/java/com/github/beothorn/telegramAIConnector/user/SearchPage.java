@@ -0,0 +1,14 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import java.util.List;
+
+/**
+ * A page of search results, best match first.
+ *
+ * @param results  results on this page
+ * @param nextPage number of the following page or null if this is the last one
+ */
+public record SearchPage(
+    List<SearchResult> results,
+    Integer nextPage
+) {}
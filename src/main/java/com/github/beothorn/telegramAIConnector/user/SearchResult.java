@@ -0,0 +1,18 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+/**
+ * A message matching a full text search.
+ *
+ * @param id        message identifier
+ * @param chatId    chat the message belongs to
+ * @param role      message role
+ * @param snippet   part of the content around the match, matched terms between square brackets
+ * @param timestamp formatted message time
+ */
+public record SearchResult(
+    long id,
+    long chatId,
+    String role,
+    String snippet,
+    String timestamp
+) {}
@@ -1,8 +1,88 @@
 package com.github.beothorn.telegramAIConnector.user;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A stored message as shown on the backoffice and exported.
+ * Archived messages are read only, {@code archived} is left out of the JSON when false.
+ */
 public record StoredMessage(
     long id,
     String role,
     String content,
-    String timestamp
-) {}
+    String timestamp,
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT) boolean archived
+) {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+        .withZone(ZoneId.systemDefault());
+
+    /**
+     * Creates a message that is on the messages table.
+     *
+     * @param id        message identifier
+     * @param role      message role
+     * @param content   message text
+     * @param timestamp formatted time
+     */
+    public StoredMessage(
+        final long id,
+        final String role,
+        final String content,
+        final String timestamp
+    ) {
+        this(id, role, content, timestamp, false);
+    }
+
+    /**
+     * Creates a stored message from raw database values.
+     *
+     * @param id        message identifier
+     * @param role      message role
+     * @param content   message text
+     * @param timestamp epoch milliseconds
+     * @return message with a formatted timestamp
+     */
+    public static StoredMessage of(
+        final long id,
+        final MessageRole role,
+        final String content,
+        final long timestamp
+    ) {
+        return of(id, role, content, timestamp, false);
+    }
+
+    /**
+     * Creates a stored message from raw database or archive values.
+     *
+     * @param id        message identifier
+     * @param role      message role
+     * @param content   message text
+     * @param timestamp epoch milliseconds
+     * @param archived  true if the message was read from the archive
+     * @return message with a formatted timestamp
+     */
+    public static StoredMessage of(
+        final long id,
+        final MessageRole role,
+        final String content,
+        final long timestamp,
+        final boolean archived
+    ) {
+        return new StoredMessage(id, role.value(), content, formatTimestamp(timestamp), archived);
+    }
+
+    /**
+     * Formats a message timestamp for display.
+     *
+     * @param timestamp epoch milliseconds
+     * @return formatted time in the system zone
+     */
+    public static String formatTimestamp(final long timestamp) {
+        return TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(timestamp));
+    }
+}
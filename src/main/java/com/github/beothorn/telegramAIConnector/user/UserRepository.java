@@ -1,5 +1,6 @@
 package com.github.beothorn.telegramAIConnector.user;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -11,30 +12,15 @@ public class UserRepository {
 
     private final Logger logger = LoggerFactory.getLogger(UserRepository.class);
 
-    private String dbUrl;
+    private Database database;
 
     /**
-     * Initializes the user table in the given database.
+     * Sets the database holding the users table.
      *
-     * @param dbUrl JDBC connection string
+     * @param database shared database
      */
-    public void initDatabase(final String dbUrl) {
-        this.dbUrl = dbUrl;
-        try (Connection conn = DriverManager.getConnection(dbUrl); Statement stmt = conn.createStatement()) {
-
-            stmt.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS users (
-                    chatId INTEGER PRIMARY KEY,
-                    username TEXT,
-                    first_name TEXT,
-                    last_name TEXT
-                )
-            """);
-            logger.info("Users table created or already exists.");
-        } catch (SQLException e) {
-            logger.error("Failed to initialize database", e);
-            throw new RuntimeException("Failed to initialize database", e);
-        }
+    public void initDatabase(final Database database) {
+        this.database = database;
     }
 
     /**
@@ -56,15 +42,15 @@ public class UserRepository {
             VALUES (?, ?, ?, ?)
         """;
 
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(insertSql)) {
-
-            stmt.setLong(1, chatId);
-            stmt.setString(2, username);
-            stmt.setString(3, firstName);
-            stmt.setString(4, lastName);
-
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(insertSql);
+                stmt.setLong(1, chatId);
+                stmt.setString(2, username);
+                stmt.setString(3, firstName);
+                stmt.setString(4, lastName);
+                return stmt.executeUpdate();
+            });
             logger.info("User with chatId {} added/updated.", chatId);
 
         } catch (SQLException e) {
@@ -80,19 +66,22 @@ public class UserRepository {
      */
     public UserInfo getUser(long chatId) {
         String sql = "SELECT chatId, username, first_name, last_name FROM users WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, chatId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return new UserInfo(
-                        rs.getLong("chatId"),
-                        rs.getString("username"),
-                        rs.getString("first_name"),
-                        rs.getString("last_name")
-                    );
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return new UserInfo(
+                            rs.getLong("chatId"),
+                            rs.getString("username"),
+                            rs.getString("first_name"),
+                            rs.getString("last_name")
+                        );
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             logger.error("Failed to fetch user with chatId {}", chatId, e);
         }
@@ -106,10 +95,12 @@ public class UserRepository {
      */
     public void deleteUser(long chatId) {
         String sql = "DELETE FROM users WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, chatId);
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                return stmt.executeUpdate();
+            });
         } catch (SQLException e) {
             logger.error("Failed to delete user with chatId {}", chatId, e);
         }
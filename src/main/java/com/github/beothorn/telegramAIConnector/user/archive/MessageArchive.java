@@ -0,0 +1,516 @@
+package com.github.beothorn.telegramAIConnector.user.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.DatabaseConnection;
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import com.github.beothorn.telegramAIConnector.user.MessagePage;
+import com.github.beothorn.telegramAIConnector.user.MessageRole;
+import com.github.beothorn.telegramAIConnector.user.StoredMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for old messages.
+ * Messages are moved out of the messages table into gzipped NDJSON segment files, one folder per chat.
+ * Segments are never changed after written, a new segment is added every time more messages are archived.
+ * The {@code archive_segments} table indexes the segments by chat and time range so readers
+ * only open the segments they need, and {@code archived_messages_fts} keeps archived messages searchable.
+ * A segment file is written and synced before the writer lock is taken, the lock is only held to index
+ * the segment and delete its rows, so archiving never stalls other writes on disk IO.
+ * Readers going through both the archive and the messages table check {@link #generation()} to tell if
+ * messages moved between the two while they were reading.
+ */
+public class MessageArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchive.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final MessageCursor NO_CURSOR = new MessageCursor(Long.MIN_VALUE, Long.MIN_VALUE);
+    private static final MessageCursor END_CURSOR = new MessageCursor(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /**
+     * One message as stored on a segment file.
+     */
+    record ArchivedMessage(
+        long id,
+        int role,
+        String content,
+        long timestamp
+    ) {
+        StoredMessage toStoredMessage() {
+            return StoredMessage.of(id, MessageRole.fromCode(role), content, timestamp, true);
+        }
+
+        MessageCursor cursor() {
+            return new MessageCursor(timestamp, id);
+        }
+    }
+
+    private record Segment(
+        long firstId,
+        long firstTimestamp,
+        long lastId,
+        long lastTimestamp,
+        String fileName
+    ) {
+        MessageCursor last() {
+            return new MessageCursor(lastTimestamp, lastId);
+        }
+    }
+
+    private final Database database;
+    private final Path folder;
+    private final int segmentSize;
+    private final Object moving = new Object();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates an archive storing segments under the given folder.
+     *
+     * @param database    database holding the messages and the segment index
+     * @param folder      folder for segment files
+     * @param segmentSize maximum number of messages per segment
+     */
+    public MessageArchive(
+        final Database database,
+        final Path folder,
+        final int segmentSize
+    ) {
+        this.database = database;
+        this.folder = folder;
+        this.segmentSize = Math.max(1, segmentSize);
+    }
+
+    /**
+     * Moves old messages of a chat to the archive.
+     * A message is archived when it is older than {@code olderThan} or when there are more than
+     * {@code keepNewest} messages newer than it, but the newest {@code keepAtLeast} messages are never archived.
+     *
+     * @param chatId      chat identifier
+     * @param olderThan   epoch millis, messages before it are archived, {@link Long#MIN_VALUE} disables it
+     * @param keepNewest  number of messages to keep regardless of age, 0 disables it
+     * @param keepAtLeast number of newest messages that always stay
+     * @param upTo        newer messages are never archived, null for no limit
+     * @return number of archived messages
+     */
+    public int archiveChat(
+        final long chatId,
+        final long olderThan,
+        final int keepNewest,
+        final int keepAtLeast,
+        final MessageCursor upTo
+    ) {
+        final MessageCursor limit = upTo == null ? END_CURSOR : upTo;
+        int total = 0;
+        int archived;
+        do {
+            archived = archiveSegment(chatId, olderThan, keepNewest, keepAtLeast, limit);
+            total += archived;
+        } while (archived == segmentSize);
+        if (total > 0) {
+            logger.info("Archived {} messages from chat {}", total, chatId);
+        }
+        return total;
+    }
+
+    private int archiveSegment(
+        final long chatId,
+        final long olderThan,
+        final int keepNewest,
+        final int keepAtLeast,
+        final MessageCursor upTo
+    ) {
+        final List<ArchivedMessage> rows;
+        final Path written;
+        try {
+            rows = database.read(conn -> {
+                final MessageCursor protectedFrom = keepAtLeast > 0 ? keyAtOffset(conn, chatId, keepAtLeast - 1) : END_CURSOR;
+                if (protectedFrom == null) return List.of();
+                final MessageCursor keptFrom = keepNewest > 0 ? keyAtOffset(conn, chatId, keepNewest - 1) : null;
+                final MessageCursor countLimit = keptFrom == null ? NO_CURSOR : keptFrom;
+
+                final PreparedStatement select = conn.prepare(
+                    "SELECT id, role, content, timestamp FROM messages "
+                        + "WHERE chatId = ? AND (timestamp, id) < (?, ?) AND (timestamp, id) <= (?, ?) "
+                        + "AND (timestamp < ? OR (timestamp, id) < (?, ?)) "
+                        + "ORDER BY timestamp, id LIMIT ?");
+                select.setLong(1, chatId);
+                select.setLong(2, protectedFrom.timestamp());
+                select.setLong(3, protectedFrom.id());
+                select.setLong(4, upTo.timestamp());
+                select.setLong(5, upTo.id());
+                select.setLong(6, olderThan);
+                select.setLong(7, countLimit.timestamp());
+                select.setLong(8, countLimit.id());
+                select.setInt(9, segmentSize);
+                return readRows(select);
+            });
+            if (rows.isEmpty()) return 0;
+            written = writeSegment(chatId, rows);
+        } catch (SQLException | IOException | RuntimeException e) {
+            throw new RuntimeException("Failed to archive messages of chat " + chatId, e);
+        }
+
+        final ArchivedMessage first = rows.getFirst();
+        final ArchivedMessage last = rows.getLast();
+        final boolean moved;
+        try {
+            synchronized (moving) {
+                generation.incrementAndGet();
+                try {
+                    moved = database.write(conn -> {
+                        // Archived rows are a contiguous range, ordered by (timestamp, id)
+                        final PreparedStatement range = conn.prepare(
+                            "SELECT id, role, content, timestamp FROM messages "
+                                + "WHERE chatId = ? AND (timestamp, id) >= (?, ?) AND (timestamp, id) <= (?, ?) "
+                                + "ORDER BY timestamp, id");
+                        range.setLong(1, chatId);
+                        range.setLong(2, first.timestamp());
+                        range.setLong(3, first.id());
+                        range.setLong(4, last.timestamp());
+                        range.setLong(5, last.id());
+                        // Rows edited or deleted since they were read are left for the next run
+                        if (!rows.equals(readRows(range))) return false;
+
+                        final PreparedStatement index = conn.prepare(
+                            "INSERT INTO archive_segments (chatId, firstId, firstTimestamp, lastId, lastTimestamp, messageCount, fileName) "
+                                + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+                        index.setLong(1, chatId);
+                        index.setLong(2, first.id());
+                        index.setLong(3, first.timestamp());
+                        index.setLong(4, last.id());
+                        index.setLong(5, last.timestamp());
+                        index.setInt(6, rows.size());
+                        index.setString(7, written.getFileName().toString());
+                        index.executeUpdate();
+
+                        final PreparedStatement search = conn.prepare(
+                            "INSERT INTO archived_messages_fts (rowid, content, chatId, role, timestamp) VALUES (?, ?, ?, ?, ?)");
+                        for (ArchivedMessage row : rows) {
+                            search.setLong(1, row.id());
+                            search.setString(2, row.content());
+                            search.setLong(3, chatId);
+                            search.setInt(4, row.role());
+                            search.setLong(5, row.timestamp());
+                            search.addBatch();
+                        }
+                        search.executeBatch();
+
+                        final PreparedStatement delete = conn.prepare(
+                            "DELETE FROM messages WHERE chatId = ? AND (timestamp, id) >= (?, ?) AND (timestamp, id) <= (?, ?)");
+                        delete.setLong(1, chatId);
+                        delete.setLong(2, first.timestamp());
+                        delete.setLong(3, first.id());
+                        delete.setLong(4, last.timestamp());
+                        delete.setLong(5, last.id());
+                        delete.executeUpdate();
+                        return true;
+                    });
+                } finally {
+                    generation.incrementAndGet();
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Not indexed, so nobody will read it
+            deleteQuietly(written);
+            throw new RuntimeException("Failed to archive messages of chat " + chatId, e);
+        }
+        if (!moved) {
+            deleteQuietly(written);
+            logger.info("Messages of chat {} changed while being archived, leaving them for the next run", chatId);
+            return 0;
+        }
+        return rows.size();
+    }
+
+    private static List<ArchivedMessage> readRows(final PreparedStatement select) throws SQLException {
+        final List<ArchivedMessage> rows = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new ArchivedMessage(
+                    rs.getLong("id"),
+                    rs.getInt("role"),
+                    rs.getString("content"),
+                    rs.getLong("timestamp")
+                ));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes rows to a new segment file, synced to disk before it gets its final name.
+     *
+     * @return path of the segment file
+     */
+    private Path writeSegment(
+        final long chatId,
+        final List<ArchivedMessage> rows
+    ) throws IOException {
+        final Path chatFolder = folder.resolve(Long.toString(chatId));
+        Files.createDirectories(chatFolder);
+        final Path temp = Files.createTempFile(chatFolder, "segment-", ".tmp");
+        try {
+            try (
+                FileOutputStream file = new FileOutputStream(temp.toFile());
+                GZIPOutputStream gzip = new GZIPOutputStream(file);
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8))
+            ) {
+                for (ArchivedMessage row : rows) {
+                    out.write(MAPPER.writeValueAsString(row));
+                    out.write('\n');
+                }
+                out.flush();
+                gzip.finish();
+                file.getFD().sync();
+            }
+            final ArchivedMessage first = rows.getFirst();
+            final String fileName = first.timestamp() + "-" + first.id() + ".ndjson.gz";
+            return Files.move(temp, chatFolder.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a number that changes every time messages move from the messages table to the archive.
+     * Waits for a move in progress to finish, so reading the same number before and after reading
+     * both places means no message moved in between.
+     *
+     * @return current archive generation
+     */
+    public long generation() {
+        final long current = generation.get();
+        if (current % 2 == 0) return current;
+        synchronized (moving) {
+            return generation.get();
+        }
+    }
+
+    private static MessageCursor keyAtOffset(
+        final DatabaseConnection conn,
+        final long chatId,
+        final int offset
+    ) throws SQLException {
+        final PreparedStatement stmt = conn.prepare(
+            "SELECT id, timestamp FROM messages WHERE chatId = ? ORDER BY timestamp DESC, id DESC LIMIT 1 OFFSET ?");
+        stmt.setLong(1, chatId);
+        stmt.setInt(2, offset);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) return null;
+            return new MessageCursor(rs.getLong("timestamp"), rs.getLong("id"));
+        }
+    }
+
+    /**
+     * Returns a page of archived messages, newest first, older than the given cursor.
+     * With a limit of zero, the page is empty and only tells if there is anything before the cursor.
+     *
+     * @param chatId chat identifier
+     * @param before only messages before this cursor are returned, null for the newest archived messages
+     * @param limit  maximum number of messages
+     * @return messages and the cursor for the next page
+     */
+    public MessagePage getMessagePage(
+        final long chatId,
+        final MessageCursor before,
+        final int limit
+    ) {
+        final List<StoredMessage> messages = new ArrayList<>();
+        MessageCursor last = null;
+        for (Segment segment : segmentsNewestFirst(chatId, before)) {
+            final List<ArchivedMessage> rows = readSegment(chatId, segment);
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                final ArchivedMessage row = rows.get(i);
+                if (before != null && compare(row.cursor(), before) >= 0) continue;
+                if (messages.size() == limit) {
+                    final MessageCursor next = last != null ? last : before != null ? before : END_CURSOR;
+                    return new MessagePage(messages, next.toString());
+                }
+                messages.add(row.toStoredMessage());
+                last = row.cursor();
+            }
+        }
+        return new MessagePage(messages, null);
+    }
+
+    /**
+     * Passes the archived messages of a chat after a cursor to the consumer, oldest first.
+     * Segments are decompressed as they are read, one line at a time.
+     *
+     * @param chatId   chat identifier
+     * @param after    only messages after this cursor, null for all of them
+     * @param consumer receives each message
+     * @return cursor of the last message passed, {@code after} if none was
+     */
+    public MessageCursor forEachMessage(
+        final long chatId,
+        final MessageCursor after,
+        final Consumer<StoredMessage> consumer
+    ) {
+        final List<Segment> segments = segmentsNewestFirst(chatId, null);
+        MessageCursor last = after;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            final Segment segment = segments.get(i);
+            if (after != null && compare(segment.last(), after) <= 0) continue;
+            try (BufferedReader in = open(chatId, segment)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final ArchivedMessage message = MAPPER.readValue(line, ArchivedMessage.class);
+                    if (after != null && compare(message.cursor(), after) <= 0) continue;
+                    consumer.accept(message.toStoredMessage());
+                    last = message.cursor();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read archive of chat " + chatId, e);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Tells if a message was moved to the archive.
+     *
+     * @param id message identifier
+     * @return true if the message is archived
+     */
+    public boolean contains(final long id) {
+        try {
+            return database.read(conn -> {
+                final PreparedStatement stmt = conn.prepare("SELECT 1 FROM archived_messages_fts WHERE rowid = ?");
+                stmt.setLong(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next();
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to look up archived message " + id, e);
+        }
+    }
+
+    /**
+     * Deletes all archived messages of a chat.
+     *
+     * @param chatId chat identifier
+     */
+    public void deleteChat(final long chatId) {
+        final List<Segment> segments = segmentsNewestFirst(chatId, null);
+        try {
+            database.write(conn -> {
+                final PreparedStatement search = conn.prepare("DELETE FROM archived_messages_fts WHERE chatId = ?");
+                search.setLong(1, chatId);
+                search.executeUpdate();
+                final PreparedStatement stmt = conn.prepare("DELETE FROM archive_segments WHERE chatId = ?");
+                stmt.setLong(1, chatId);
+                return stmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete archive of chat " + chatId, e);
+        }
+        segments.forEach(segment -> deleteQuietly(segmentPath(chatId, segment)));
+    }
+
+    private List<Segment> segmentsNewestFirst(
+        final long chatId,
+        final MessageCursor before
+    ) {
+        final MessageCursor limit = before == null ? END_CURSOR : before;
+        try {
+            return database.read(conn -> {
+                final PreparedStatement stmt = conn.prepare(
+                    "SELECT firstId, firstTimestamp, lastId, lastTimestamp, fileName FROM archive_segments "
+                        + "WHERE chatId = ? AND (firstTimestamp, firstId) < (?, ?) "
+                        + "ORDER BY lastTimestamp DESC, lastId DESC");
+                stmt.setLong(1, chatId);
+                stmt.setLong(2, limit.timestamp());
+                stmt.setLong(3, limit.id());
+                final List<Segment> segments = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        segments.add(new Segment(
+                            rs.getLong("firstId"),
+                            rs.getLong("firstTimestamp"),
+                            rs.getLong("lastId"),
+                            rs.getLong("lastTimestamp"),
+                            rs.getString("fileName")
+                        ));
+                    }
+                }
+                return segments;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to read archive index of chat " + chatId, e);
+        }
+    }
+
+    private List<ArchivedMessage> readSegment(
+        final long chatId,
+        final Segment segment
+    ) {
+        final List<ArchivedMessage> rows = new ArrayList<>();
+        try (BufferedReader in = open(chatId, segment)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                rows.add(MAPPER.readValue(line, ArchivedMessage.class));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive of chat " + chatId, e);
+        }
+        return rows;
+    }
+
+    private BufferedReader open(
+        final long chatId,
+        final Segment segment
+    ) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(segmentPath(chatId, segment))), StandardCharsets.UTF_8));
+    }
+
+    private Path segmentPath(
+        final long chatId,
+        final Segment segment
+    ) {
+        return folder.resolve(Long.toString(chatId)).resolve(segment.fileName());
+    }
+
+    private static int compare(
+        final MessageCursor a,
+        final MessageCursor b
+    ) {
+        final int byTime = Long.compare(a.timestamp(), b.timestamp());
+        return byTime != 0 ? byTime : Long.compare(a.id(), b.id());
+    }
+
+    private static void deleteQuietly(final Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete archive file '{}'", file, e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.beothorn.telegramAIConnector.user.archive;
+
+import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummarizer;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummary;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically moves old messages of every conversation to the archive,
+ * keeping the messages table small.
+ * When conversation summaries are enabled, only messages already folded into the summary are archived.
+ */
+@Component
+@DependsOn("SQLite")
+public class MessageArchiver implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiver.class);
+
+    private final MessagesRepository messagesRepository;
+    private final ConversationSummarizer summarizer;
+    private final long archiveAfterMillis;
+    private final int keepPerChat;
+    private final long intervalMinutes;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "MessageArchiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the archiver.
+     *
+     * @param messagesRepository repository for messages
+     * @param summarizer         summarizer, messages not summarized yet are not archived
+     * @param archiveAfterDays   messages older than this are archived, 0 disables archiving by age
+     * @param keepPerChat        messages beyond this count per chat are archived, 0 disables archiving by count
+     * @param intervalMinutes    time between archiving runs, 0 disables the archiver
+     */
+    public MessageArchiver(
+        final MessagesRepository messagesRepository,
+        final ConversationSummarizer summarizer,
+        @Value("${telegramIAConnector.archiveAfterDays:30}") final int archiveAfterDays,
+        @Value("${telegramIAConnector.archiveKeepPerChat:1000}") final int keepPerChat,
+        @Value("${telegramIAConnector.archiveIntervalMinutes:60}") final long intervalMinutes
+    ) {
+        this.messagesRepository = messagesRepository;
+        this.summarizer = summarizer;
+        this.archiveAfterMillis = Duration.ofDays(archiveAfterDays).toMillis();
+        this.keepPerChat = keepPerChat;
+        this.intervalMinutes = intervalMinutes;
+    }
+
+    /**
+     * Starts archiving once the application is ready.
+     *
+     * @param event event signaling the application is ready
+     */
+    @Override
+    public void onApplicationEvent(@NotNull ApplicationReadyEvent event) {
+        if (intervalMinutes <= 0 || (archiveAfterMillis <= 0 && keepPerChat <= 0)) {
+            logger.info("Message archiving is disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::archiveQuietly, 1, intervalMinutes * 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Archives old messages of all conversations.
+     *
+     * @return number of archived messages
+     */
+    public int archiveAll() {
+        final long olderThan = archiveAfterMillis > 0
+            ? System.currentTimeMillis() - archiveAfterMillis
+            : Long.MIN_VALUE;
+        int total = 0;
+        for (String chatId : messagesRepository.findConversationIds()) {
+            if (summarizer.isEnabled()) {
+                final Optional<ConversationSummary> summary = summarizer.summaryOf(Long.parseLong(chatId));
+                if (summary.isEmpty()) continue;
+                total += messagesRepository.archive(chatId, olderThan, Math.max(keepPerChat, 0), summary.get().upTo());
+            } else {
+                total += messagesRepository.archive(chatId, olderThan, Math.max(keepPerChat, 0), null);
+            }
+        }
+        return total;
+    }
+
+    private void archiveQuietly() {
+        try {
+            archiveAll();
+        } catch (RuntimeException e) {
+            logger.error("Archiving messages failed", e);
+        }
+    }
+
+    /**
+     * Stops the archiver.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Cold storage for old messages.
+ */
+package com.github.beothorn.telegramAIConnector.user.archive;
@@ -1,5 +1,6 @@
 package com.github.beothorn.telegramAIConnector.user.profile;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -12,34 +13,20 @@ public class UserProfileRepository {
 
     private final Logger logger = LoggerFactory.getLogger(UserProfileRepository.class);
 
-    private String dbUrl;
+    private Database database;
 
     /**
-     * Initializes the user profile table.
+     * Sets the database holding the user profile table.
      */
-    public void initDatabase(final String dbUrl) {
-        this.dbUrl = dbUrl;
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             Statement stmt = conn.createStatement()) {
-
-            stmt.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS users_profile (
-                    chatId INTEGER PRIMARY KEY,
-                    profile TEXT NOT NULL
-                )
-            """);
-            logger.info("Users table created or already exists.");
-        } catch (SQLException e) {
-            logger.error("Failed to initialize database", e);
-            throw new RuntimeException("Failed to initialize database", e);
-        }
+    public void initDatabase(final Database database) {
+        this.database = database;
     }
 
     /**
      * Stores or updates a profile for the given chat.
      */
     public void setProfile(long chatId, String profile) {
-        if (dbUrl == null) {
+        if (database == null) {
             logger.error("Database not initialized. Call initDatabase() first.");
             throw new IllegalStateException("Database not initialized.");
         }
@@ -48,12 +35,13 @@ public class UserProfileRepository {
         String sql = "INSERT INTO users_profile (chatId, profile) VALUES (?, ?) " +
                 "ON CONFLICT(chatId) DO UPDATE SET profile = excluded.profile";
 
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, chatId);
-            stmt.setString(2, profile);
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                stmt.setString(2, profile);
+                return stmt.executeUpdate();
+            });
             logger.info("Profile set/updated for chatId: {}", chatId);
 
         } catch (SQLException e) {
@@ -66,26 +54,27 @@ public class UserProfileRepository {
      * Retrieves a stored profile for a chat.
      */
     public Optional<String> getProfile(long chatId) {
-        if (dbUrl == null) {
+        if (database == null) {
             logger.error("Database not initialized. Call initDatabase() first.");
             throw new IllegalStateException("Database not initialized.");
         }
         String sql = "SELECT profile FROM users_profile WHERE chatId = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setLong(1, chatId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    String profile = rs.getString("profile");
-                    logger.debug("Profile retrieved for chatId: {}", chatId);
-                    return Optional.of(profile);
-                } else {
-                    logger.debug("No profile found for chatId: {}", chatId);
-                    return Optional.empty();
+        try {
+            return database.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setLong(1, chatId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        String profile = rs.getString("profile");
+                        logger.debug("Profile retrieved for chatId: {}", chatId);
+                        return Optional.of(profile);
+                    } else {
+                        logger.debug("No profile found for chatId: {}", chatId);
+                        return Optional.<String>empty();
+                    }
                 }
-            }
+            });
         } catch (SQLException e) {
             logger.error("Failed to get profile for chatId: {}", chatId, e);
             throw new RuntimeException("Failed to get profile", e);
@@ -99,10 +88,12 @@ public class UserProfileRepository {
      */
     public void deleteProfile(long chatId) {
         String sql = "DELETE FROM users_profile WHERE chatId = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, chatId);
-            stmt.executeUpdate();
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                return stmt.executeUpdate();
+            });
         } catch (SQLException e) {
             logger.error("Failed to delete profile for chatId: {}", chatId, e);
         }
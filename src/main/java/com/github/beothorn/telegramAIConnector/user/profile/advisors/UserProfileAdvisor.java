@@ -7,12 +7,17 @@ import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 
@@ -21,7 +26,7 @@ import java.io.IOException;
  * This way, in theory, answers are better tailored to the user.
  */
 @Service
-public class UserProfileAdvisor implements CallAdvisor {
+public class UserProfileAdvisor implements CallAdvisor, StreamAdvisor {
 
     private final ChatModel chatModel;
     private final UserProfileRepository userProfileRepository;
@@ -53,7 +58,24 @@ public class UserProfileAdvisor implements CallAdvisor {
         final ChatClientRequest chatClientRequest,
         final CallAdvisorChain callAdvisorChain
     ) {
+        return callAdvisorChain.nextCall(withProfile(chatClientRequest));
+    }
 
+    /**
+     * Updates the user profile using the last message before streaming the answer.
+     * Updating the profile waits for the model, so it runs off the stream threads.
+     */
+    @Override
+    public Flux<ChatClientResponse> adviseStream(
+        final ChatClientRequest chatClientRequest,
+        final StreamAdvisorChain streamAdvisorChain
+    ) {
+        return Mono.fromCallable(() -> withProfile(chatClientRequest))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMapMany(streamAdvisorChain::nextStream);
+    }
+
+    private ChatClientRequest withProfile(final ChatClientRequest chatClientRequest) {
         UserMessage currentUserMessage = chatClientRequest.prompt().getUserMessage();
 
         logger.debug("Chat id is {}", chatClientRequest.context().get("chat_memory_conversation_id"));
@@ -74,13 +96,11 @@ public class UserProfileAdvisor implements CallAdvisor {
         logger.debug("Profile updated to '{}'", newProfile);
 
         final SystemMessage systemMessage = chatClientRequest.prompt().getSystemMessage();
-        ChatClientRequest processedChatClientRequest = chatClientRequest.mutate()
+        return chatClientRequest.mutate()
                 .prompt(chatClientRequest.prompt().augmentSystemMessage(systemMessage + "\nThis is the profile of the user you are talking to." +
                         "\nUse it to give the best, most personalized answer possible:\n" +
                         newProfile))
                 .build();
-
-        return callAdvisorChain.nextCall(processedChatClientRequest);
     }
 
     /**
@@ -0,0 +1,164 @@
+package com.github.beothorn.telegramAIConnector.user.summary;
+
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import com.github.beothorn.telegramAIConnector.user.MessagePage;
+import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a rolling summary of the messages that left the conversation window.
+ * Summaries are refreshed in the background, folding only the messages newer than
+ * the last summarized one into the current summary, so each refresh costs one small model call.
+ */
+@Service
+@DependsOn("SQLite")
+public class ConversationSummarizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    private final ChatModel chatModel;
+    private final MessagesRepository messagesRepository;
+    private final ConversationSummaryRepository summaryRepository;
+    private final String prompt;
+    private final int batchSize;
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "ConversationSummarizer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the summarizer.
+     *
+     * @param chatModel          model used to write the summaries
+     * @param messagesRepository repository for messages
+     * @param summaryRepository  repository for summaries
+     * @param promptResource     prompt receiving the current summary and the new messages
+     * @param batchSize          messages that must leave the window before the summary is refreshed, 0 disables summaries
+     */
+    public ConversationSummarizer(
+        final ChatModel chatModel,
+        final MessagesRepository messagesRepository,
+        final ConversationSummaryRepository summaryRepository,
+        @Value("classpath:summaryPrompt.txt") final Resource promptResource,
+        @Value("${telegramIAConnector.summaryBatchSize:10}") final int batchSize
+    ) {
+        this.chatModel = chatModel;
+        this.messagesRepository = messagesRepository;
+        this.summaryRepository = summaryRepository;
+        this.batchSize = batchSize;
+        try {
+            prompt = new String(promptResource.getInputStream().readAllBytes());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tells if summaries are enabled.
+     *
+     * @return true if summaries are kept
+     */
+    public boolean isEnabled() {
+        return batchSize > 0;
+    }
+
+    /**
+     * Schedules a summary refresh for a chat.
+     * Requests for a chat that is already waiting are dropped.
+     *
+     * @param chatId chat identifier
+     */
+    public void requestSummary(final long chatId) {
+        if (!isEnabled() || !pending.add(chatId)) return;
+        executor.execute(() -> {
+            pending.remove(chatId);
+            try {
+                summarize(chatId);
+            } catch (RuntimeException e) {
+                logger.error("Summarizing chat {} failed", chatId, e);
+            }
+        });
+    }
+
+    /**
+     * Folds the messages that left the window since the last refresh into the summary.
+     * Nothing is done until at least a full batch of messages is waiting.
+     * A chat without a summary starts from the newest messages outside the window,
+     * older history is left to the archive.
+     *
+     * @param chatId chat identifier
+     * @return true if the summary was updated
+     */
+    public boolean summarize(final long chatId) {
+        if (!isEnabled()) return false;
+        boolean updated = false;
+        Optional<ConversationSummary> current = summaryRepository.getSummary(chatId);
+        while (true) {
+            final MessageCursor after = current.map(ConversationSummary::upTo).orElse(null);
+            final MessagePage page = messagesRepository.getMessagesOutsideWindow(
+                String.valueOf(chatId),
+                after,
+                batchSize
+            );
+            if (page.messages().size() < batchSize) return updated;
+
+            final String newMessages = page.messages().stream()
+                .map(m -> m.role() + ": " + m.content())
+                .collect(Collectors.joining("\n"));
+            final String currentSummary = current.map(ConversationSummary::summary).orElse("");
+            final String summary = chatModel.call(String.format(prompt, currentSummary, newMessages));
+
+            final ConversationSummary next = new ConversationSummary(chatId, summary, MessageCursor.parse(page.next()));
+            summaryRepository.setSummary(next);
+            logger.debug("Summary of chat {} updated up to {}", chatId, page.next());
+            current = Optional.of(next);
+            updated = true;
+        }
+    }
+
+    /**
+     * Returns the current summary of a chat.
+     *
+     * @param chatId chat identifier
+     * @return the summary or empty if there is none
+     */
+    public Optional<ConversationSummary> summaryOf(final long chatId) {
+        if (!isEnabled()) return Optional.empty();
+        return summaryRepository.getSummary(chatId);
+    }
+
+    /**
+     * Stops the summarizer, pending refreshes are dropped.
+     * A refresh already running is given a few seconds to end, so it is done with the database
+     * before it is closed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Conversation summarizer did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
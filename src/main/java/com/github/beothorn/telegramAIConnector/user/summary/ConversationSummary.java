@@ -0,0 +1,16 @@
+package com.github.beothorn.telegramAIConnector.user.summary;
+
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+
+/**
+ * Summary of the messages of a chat that are no longer on the conversation window.
+ *
+ * @param chatId  chat identifier
+ * @param summary summary text
+ * @param upTo    last message covered by the summary
+ */
+public record ConversationSummary(
+    long chatId,
+    String summary,
+    MessageCursor upTo
+) {}
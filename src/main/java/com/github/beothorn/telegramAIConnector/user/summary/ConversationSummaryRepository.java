@@ -0,0 +1,76 @@
+package com.github.beothorn.telegramAIConnector.user.summary;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+
+@Service
+public class ConversationSummaryRepository {
+
+    private Database database;
+
+    /**
+     * Sets the database holding the summaries table.
+     *
+     * @param database shared database
+     */
+    public void initDatabase(final Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Retrieves the summary of a chat.
+     *
+     * @param chatId chat identifier
+     * @return the summary or empty if the chat was never summarized
+     */
+    public Optional<ConversationSummary> getSummary(long chatId) {
+        String sql = "SELECT summary, lastMessageId, lastTimestamp FROM conversation_summaries WHERE chatId = ?";
+        try {
+            return database.read(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, chatId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) return Optional.<ConversationSummary>empty();
+                    return Optional.of(new ConversationSummary(
+                        chatId,
+                        rs.getString("summary"),
+                        new MessageCursor(rs.getLong("lastTimestamp"), rs.getLong("lastMessageId"))
+                    ));
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to get summary", e);
+        }
+    }
+
+    /**
+     * Stores or replaces the summary of a chat.
+     *
+     * @param summary summary to store
+     */
+    public void setSummary(ConversationSummary summary) {
+        String sql = "INSERT INTO conversation_summaries (chatId, summary, lastMessageId, lastTimestamp, updatedAt) "
+            + "VALUES (?, ?, ?, ?, ?) "
+            + "ON CONFLICT(chatId) DO UPDATE SET summary = excluded.summary, lastMessageId = excluded.lastMessageId, "
+            + "lastTimestamp = excluded.lastTimestamp, updatedAt = excluded.updatedAt";
+        try {
+            database.write(conn -> {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, summary.chatId());
+                stmt.setString(2, summary.summary());
+                stmt.setLong(3, summary.upTo().id());
+                stmt.setLong(4, summary.upTo().timestamp());
+                stmt.setLong(5, System.currentTimeMillis());
+                return stmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to set summary", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.beothorn.telegramAIConnector.user.summary.advisors;
+
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummarizer;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummary;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.Optional;
+
+/**
+ * Appends the summary of the earlier conversation to the prompt.
+ * The conversation window only has the last messages, the summary keeps what came before.
+ * After answering, a summary refresh is requested so it runs off the reply path.
+ */
+@Service
+public class ConversationSummaryAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private final ConversationSummarizer summarizer;
+
+    /**
+     * Creates the advisor using the given summarizer.
+     */
+    public ConversationSummaryAdvisor(
+        final ConversationSummarizer summarizer
+    ) {
+        this.summarizer = summarizer;
+    }
+
+    /**
+     * Adds the current summary to the system message and schedules a refresh after the call.
+     */
+    @Override
+    public ChatClientResponse adviseCall(
+        final ChatClientRequest chatClientRequest,
+        final CallAdvisorChain callAdvisorChain
+    ) {
+        final ChatClientResponse response = callAdvisorChain.nextCall(withSummary(chatClientRequest));
+        summarizer.requestSummary(chatId(chatClientRequest));
+        return response;
+    }
+
+    /**
+     * Adds the current summary to the system message and schedules a refresh once the stream ends.
+     */
+    @Override
+    public Flux<ChatClientResponse> adviseStream(
+        final ChatClientRequest chatClientRequest,
+        final StreamAdvisorChain streamAdvisorChain
+    ) {
+        return Flux.defer(() -> streamAdvisorChain.nextStream(withSummary(chatClientRequest)))
+            .doOnComplete(() -> summarizer.requestSummary(chatId(chatClientRequest)));
+    }
+
+    private static long chatId(final ChatClientRequest chatClientRequest) {
+        return Long.parseLong((String) chatClientRequest.context().get("chat_memory_conversation_id"));
+    }
+
+    private ChatClientRequest withSummary(final ChatClientRequest chatClientRequest) {
+        final Optional<ConversationSummary> summary = summarizer.summaryOf(chatId(chatClientRequest));
+        if (summary.isEmpty()) return chatClientRequest;
+        final SystemMessage systemMessage = chatClientRequest.prompt().getSystemMessage();
+        return chatClientRequest.mutate()
+            .prompt(chatClientRequest.prompt().augmentSystemMessage(systemMessage.getText() +
+                "\nThis is a summary of the earlier conversation, older than the messages you can see:\n" +
+                summary.get().summary()))
+            .build();
+    }
+
+    /**
+     * Returns the advisor name.
+     */
+    @Override
+    public String getName() {
+        return "ConversationSummaryAdvisor";
+    }
+
+    /**
+     * Advisors are executed in default order 0.
+     */
+    @Override
+    public int getOrder() {
+        return 0;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Rolling summaries of the conversation history that no longer fits the conversation window.
+ */
+package com.github.beothorn.telegramAIConnector.user.summary;
@@ -0,0 +1,272 @@
+package com.github.beothorn.telegramAIConnector.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits messages longer than Telegram accepts into parts that can be sent in order.
+ * Cuts prefer, in order: a blank line between paragraphs, a line break, a space, and only then
+ * any character. For markdown, cuts never fall inside bold, italic, strikethrough, inline code, a link
+ * or an escape, and a code block that has to be cut is closed at the end of the part and opened
+ * again, with the same language, at the start of the next one.
+ */
+public class MessageSplitter {
+
+    /**
+     * Longest text Telegram accepts on a message.
+     */
+    public static final int TELEGRAM_LIMIT = 4096;
+
+    private static final String FENCE = "```";
+    private static final String CLOSE_FENCE = "\n" + FENCE;
+
+    /**
+     * Splits a message in parts of at most {@link #TELEGRAM_LIMIT} characters.
+     *
+     * @param text     message text
+     * @param markdown true if the text is Telegram markdown
+     * @return message parts in order, a single part if the message fits
+     */
+    public static List<String> split(
+        final String text,
+        final boolean markdown
+    ) {
+        return split(text, TELEGRAM_LIMIT, markdown);
+    }
+
+    /**
+     * Splits a message in parts of at most {@code limit} characters.
+     *
+     * @param text     message text
+     * @param limit    longest part, must leave room to reopen a code block
+     * @param markdown true if the text is Telegram markdown
+     * @return message parts in order, a single part if the message fits
+     */
+    public static List<String> split(
+        final String text,
+        final int limit,
+        final boolean markdown
+    ) {
+        final List<String> parts = new ArrayList<>();
+        if (text.length() <= limit) {
+            parts.add(text);
+            return parts;
+        }
+        final Scan scan = markdown ? Scan.markdown(text) : Scan.plain(text);
+        final int n = text.length();
+        int start = 0;
+        String prefix = "";
+        while (start < n) {
+            final int budget = limit - prefix.length();
+            if (n - start <= budget) {
+                addPart(parts, prefix + text.substring(start));
+                break;
+            }
+            final int cut = findCut(text, scan, start, budget);
+            final boolean insideFence = scan.fenced[cut];
+            String part = prefix + text.substring(start, cut);
+            if (insideFence) {
+                part = stripTrailingNewline(part) + CLOSE_FENCE;
+                prefix = FENCE + scan.fenceLanguage(cut) + "\n";
+            } else {
+                prefix = "";
+            }
+            addPart(parts, part);
+            start = cut;
+            if (insideFence) {
+                // Keep the code indentation, only the line break is dropped
+                if (start < n && text.charAt(start) == '\n') start++;
+            } else {
+                while (start < n && Character.isWhitespace(text.charAt(start))) start++;
+            }
+        }
+        return parts;
+    }
+
+    private static int findCut(
+        final String text,
+        final Scan scan,
+        final int start,
+        final int budget
+    ) {
+        final int end = start + budget;
+        // Cutting inside a code block needs room to close it
+        final int fencedEnd = end - CLOSE_FENCE.length();
+        int line = -1;
+        int space = -1;
+        int fencedLine = -1;
+        int anySafe = -1;
+        for (int c = end; c > start; c--) {
+            final char ch = text.charAt(c);
+            if (scan.fenced[c]) {
+                if (c <= fencedEnd && ch == '\n' && fencedLine < 0) fencedLine = c;
+                continue;
+            }
+            if (!scan.safe[c]) continue;
+            if (ch == '\n') {
+                if (c - 1 > start && text.charAt(c - 1) == '\n') return c - 1;
+                if (line < 0) line = c;
+            } else if (Character.isWhitespace(ch)) {
+                if (space < 0) space = c;
+            } else if (anySafe < 0 && !Character.isLowSurrogate(ch)) {
+                anySafe = c;
+            }
+        }
+        if (line > 0) return line;
+        if (fencedLine > 0) return fencedLine;
+        if (space > 0) return space;
+        if (anySafe > 0) return anySafe;
+        int hard = scan.fenced[end] ? fencedEnd : end;
+        if (Character.isLowSurrogate(text.charAt(hard))) hard--;
+        return Math.max(start + 1, hard);
+    }
+
+    private static void addPart(
+        final List<String> parts,
+        final String part
+    ) {
+        final String trimmed = part.stripTrailing();
+        if (!trimmed.isBlank()) parts.add(trimmed);
+    }
+
+    private static String stripTrailingNewline(final String part) {
+        return part.endsWith("\n") ? part.substring(0, part.length() - 1) : part;
+    }
+
+    /**
+     * Where the text can be cut: {@code safe[i]} tells if no inline entity is open right before
+     * character {@code i} and {@code fenced[i]} if character {@code i} is inside a code block.
+     */
+    private static final class Scan {
+        final String text;
+        final boolean[] safe;
+        final boolean[] fenced;
+        final int[] fenceOpenedAt;
+
+        private Scan(final String text) {
+            this.text = text;
+            this.safe = new boolean[text.length() + 1];
+            this.fenced = new boolean[text.length() + 1];
+            this.fenceOpenedAt = new int[text.length() + 1];
+        }
+
+        static Scan plain(final String text) {
+            final Scan scan = new Scan(text);
+            Arrays.fill(scan.safe, true);
+            return scan;
+        }
+
+        /**
+         * Scans markdown, a marker that is never closed is taken as plain text, like Telegram does.
+         */
+        static Scan markdown(final String text) {
+            final Set<Integer> plainMarkers = new HashSet<>();
+            while (true) {
+                final Scan scan = new Scan(text);
+                final int unclosed = scan.scanMarkdown(plainMarkers);
+                if (unclosed < 0 || !plainMarkers.add(unclosed)) return scan;
+            }
+        }
+
+        /**
+         * Fills the cut positions.
+         *
+         * @return position of an inline marker left open at the end, -1 if none
+         */
+        private int scanMarkdown(final Set<Integer> plainMarkers) {
+            final int n = text.length();
+            boolean fence = false;
+            int fenceStart = -1;
+            int code = -1;
+            int bold = -1;
+            int italic = -1;
+            int strike = -1;
+            int link = -1;
+            boolean linkUrl = false;
+            int i = 0;
+            while (i <= n) {
+                safe[i] = !fence && code < 0 && bold < 0 && italic < 0 && strike < 0 && link < 0;
+                fenced[i] = fence;
+                fenceOpenedAt[i] = fenceStart;
+                if (i == n) break;
+                final char c = text.charAt(i);
+                if ((fence || code >= 0) && c == '\\' && i + 1 < n) {
+                    i += 2;
+                    continue;
+                }
+                if (fence) {
+                    if (text.startsWith(FENCE, i)) {
+                        fence = false;
+                        i += FENCE.length();
+                    } else {
+                        i++;
+                    }
+                    continue;
+                }
+                if (code >= 0) {
+                    if (c == '`') code = -1;
+                    i++;
+                    continue;
+                }
+                if (c == '\\' && i + 1 < n) {
+                    i += 2;
+                    continue;
+                }
+                if (plainMarkers.contains(i)) {
+                    i++;
+                    continue;
+                }
+                if (text.startsWith(FENCE, i)) {
+                    fence = true;
+                    fenceStart = i;
+                    i += FENCE.length();
+                    continue;
+                }
+                switch (c) {
+                    case '`' -> code = i;
+                    case '*' -> bold = bold < 0 ? i : -1;
+                    case '_' -> italic = italic < 0 ? i : -1;
+                    case '~' -> strike = strike < 0 ? i : -1;
+                    case '[' -> {
+                        if (link < 0) link = i;
+                    }
+                    case ']' -> {
+                        if (link >= 0 && !linkUrl) {
+                            if (i + 1 < n && text.charAt(i + 1) == '(') {
+                                linkUrl = true;
+                                i++;
+                            } else {
+                                link = -1;
+                            }
+                        }
+                    }
+                    case ')' -> {
+                        if (linkUrl) {
+                            link = -1;
+                            linkUrl = false;
+                        }
+                    }
+                    default -> { }
+                }
+                i++;
+            }
+            return Math.max(Math.max(code, bold), Math.max(Math.max(italic, strike), link));
+        }
+
+        /**
+         * Returns the language of the code block a position is in, empty if it has none.
+         */
+        String fenceLanguage(final int position) {
+            final int open = fenceOpenedAt[position];
+            if (open < 0) return "";
+            final int from = open + FENCE.length();
+            final int lineEnd = text.indexOf('\n', from);
+            if (lineEnd < 0) return "";
+            final String language = text.substring(from, lineEnd).trim();
+            return language.contains(" ") || language.contains("`") ? "" : language;
+        }
+    }
+}
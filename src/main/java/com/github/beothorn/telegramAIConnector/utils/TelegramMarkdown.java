@@ -0,0 +1,514 @@
+package com.github.beothorn.telegramAIConnector.utils;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Converts the markdown written by models to Telegram MarkdownV2, so Telegram never refuses a message.
+ * Bold, italic, strikethrough, inline code, code blocks and links are kept, headings become bold lines
+ * and list bullets become dots. Everything else, including markers that are never closed, is escaped
+ * and shows up as typed.
+ */
+public class TelegramMarkdown {
+
+    private static final String RESERVED = "_*[]()~`>#+-=|{}.!\\";
+    private static final String FENCE = "```";
+    private static final Pattern LANGUAGE = Pattern.compile("[A-Za-z0-9_+#.-]*");
+
+    private enum Entity { BOLD, ITALIC, STRIKE, LINK }
+
+    /**
+     * Converts markdown to MarkdownV2.
+     *
+     * @param markdown markdown text, ex: an answer from the model
+     * @return the same text as MarkdownV2
+     */
+    public static String toMarkdownV2(final String markdown) {
+        final String text = markdown.replace("\r\n", "\n");
+        final StringBuilder out = new StringBuilder(text.length() + text.length() / 8);
+        int i = 0;
+        while (i < text.length()) {
+            final int fence = nextFence(text, i);
+            if (fence < 0) {
+                out.append(inline(text, i, text.length(), EnumSet.noneOf(Entity.class), true));
+                break;
+            }
+            out.append(inline(text, i, fence, EnumSet.noneOf(Entity.class), true));
+            i = codeBlock(text, fence, out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Tells if Telegram accepts a text as MarkdownV2: every reserved character outside entities is
+     * escaped and every entity is closed, in the order it was opened.
+     *
+     * @param text MarkdownV2 text
+     * @return true if Telegram can parse it
+     */
+    public static boolean isValidMarkdownV2(final String text) {
+        final StringBuilder open = new StringBuilder();
+        final int n = text.length();
+        int i = 0;
+        while (i < n) {
+            final char c = text.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= n || text.charAt(i + 1) > 126) return false;
+                i += 2;
+                continue;
+            }
+            if (text.startsWith(FENCE, i)) {
+                i = skipCode(text, i + FENCE.length(), FENCE);
+                if (i < 0) return false;
+                continue;
+            }
+            switch (c) {
+                case '`' -> {
+                    i = skipCode(text, i + 1, "`");
+                    if (i < 0) return false;
+                    continue;
+                }
+                case '*', '~' -> toggle(open, c);
+                case '_' -> {
+                    if (i + 1 < n && text.charAt(i + 1) == '_') {
+                        toggle(open, 'u');
+                        i++;
+                    } else {
+                        toggle(open, '_');
+                    }
+                }
+                case '|' -> {
+                    if (i + 1 >= n || text.charAt(i + 1) != '|') return false;
+                    toggle(open, '|');
+                    i++;
+                }
+                case '[' -> open.append('[');
+                case ']' -> {
+                    if (open.isEmpty() || open.charAt(open.length() - 1) != '[') return false;
+                    open.setLength(open.length() - 1);
+                    if (i + 1 >= n || text.charAt(i + 1) != '(') return false;
+                    i = skipCode(text, i + 2, ")");
+                    if (i < 0) return false;
+                    continue;
+                }
+                case '>' -> {
+                    if (i > 0 && text.charAt(i - 1) != '\n') return false;
+                }
+                default -> {
+                    if (RESERVED.indexOf(c) >= 0) return false;
+                }
+            }
+            if (open.indexOf("!") >= 0) return false;
+            i++;
+        }
+        return open.isEmpty();
+    }
+
+    /**
+     * Removes the MarkdownV2 escapes, leaving the text as it was before escaping.
+     *
+     * @param markdownV2 MarkdownV2 text
+     * @return text without escapes
+     */
+    public static String unescape(final String markdownV2) {
+        final StringBuilder out = new StringBuilder(markdownV2.length());
+        for (int i = 0; i < markdownV2.length(); i++) {
+            final char c = markdownV2.charAt(i);
+            if (c == '\\' && i + 1 < markdownV2.length()) {
+                out.append(markdownV2.charAt(++i));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Closes the innermost entity if it is the same, opens it otherwise. Closing an entity that is not
+     * the innermost one is marked with a '!', Telegram refuses entities that overlap.
+     */
+    private static void toggle(
+        final StringBuilder open,
+        final char entity
+    ) {
+        final int last = open.length() - 1;
+        if (last >= 0 && open.charAt(last) == entity) {
+            open.setLength(last);
+        } else if (open.indexOf(String.valueOf(entity)) >= 0) {
+            open.append('!');
+        } else {
+            open.append(entity);
+        }
+    }
+
+    /**
+     * Returns the position after the end of a code entity, -1 if it is never closed or has an
+     * unescaped backtick.
+     */
+    private static int skipCode(
+        final String text,
+        final int from,
+        final String end
+    ) {
+        int i = from;
+        while (i < text.length()) {
+            if (text.charAt(i) == '\\') {
+                i += 2;
+                continue;
+            }
+            if (text.startsWith(end, i)) return i + end.length();
+            if (text.charAt(i) == '`') return -1;
+            i++;
+        }
+        return -1;
+    }
+
+    private static int nextFence(
+        final String text,
+        final int from
+    ) {
+        int i = text.indexOf(FENCE, from);
+        while (i >= 0) {
+            if (i == 0 || text.charAt(i - 1) == '\n' || text.substring(text.lastIndexOf('\n', i - 1) + 1, i).isBlank()) {
+                return i;
+            }
+            i = text.indexOf(FENCE, i + FENCE.length());
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the code block starting at {@code fence} and returns the position after it.
+     * A block that is never closed runs to the end of the text.
+     */
+    private static int codeBlock(
+        final String text,
+        final int fence,
+        final StringBuilder out
+    ) {
+        final int infoStart = fence + FENCE.length();
+        int lineEnd = text.indexOf('\n', infoStart);
+        if (lineEnd < 0) lineEnd = text.length();
+        final String info = text.substring(infoStart, lineEnd).trim();
+        final String language = LANGUAGE.matcher(info).matches() ? info : "";
+        final int contentStart = Math.min(text.length(), lineEnd + 1);
+        int close = text.indexOf("\n" + FENCE, contentStart - 1);
+        final int end;
+        final String content;
+        if (close < 0) {
+            content = text.substring(contentStart).stripTrailing();
+            end = text.length();
+        } else {
+            content = close < contentStart ? "" : text.substring(contentStart, close);
+            final int afterFence = text.indexOf('\n', close + 1 + FENCE.length());
+            end = afterFence < 0 ? text.length() : afterFence;
+        }
+        out.append(FENCE).append(language).append('\n');
+        // Text after the fence that is not a language is code
+        if (language.isEmpty() && !info.isEmpty()) out.append(escapeCode(info)).append('\n');
+        out.append(escapeCode(content)).append('\n').append(FENCE);
+        return end;
+    }
+
+    /**
+     * Converts the text between {@code from} and {@code to}, which has no code blocks.
+     */
+    private static String inline(
+        final String text,
+        final int from,
+        final int to,
+        final Set<Entity> open,
+        final boolean blocks
+    ) {
+        final StringBuilder out = new StringBuilder();
+        int i = from;
+        while (i < to) {
+            if (blocks && (i == from || text.charAt(i - 1) == '\n')) {
+                final int lineStart = i;
+                i = lineStart(text, i, to, out);
+                if (i != lineStart) continue;
+            }
+            final char c = text.charAt(i);
+            if (c == '\\' && i + 1 < to && isPunctuation(text.charAt(i + 1))) {
+                escape(text.charAt(i + 1), out);
+                i += 2;
+                continue;
+            }
+            if (c == '`') {
+                final int end = codeSpan(text, i, to, out);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+            }
+            if (c == '[' && !open.contains(Entity.LINK)) {
+                final int end = link(text, i, to, open, out);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+            }
+            final String delimiter = delimiter(text, i, to);
+            if (delimiter != null) {
+                final int end = emphasis(text, i, to, delimiter, open, out);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+                for (int k = 0; k < delimiter.length(); k++) escape(delimiter.charAt(k), out);
+                i += delimiter.length();
+                continue;
+            }
+            escape(c, out);
+            i++;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Handles headings and list bullets at the start of a line, returns the position after what was
+     * written or {@code i} if the line has neither.
+     */
+    private static int lineStart(
+        final String text,
+        final int i,
+        final int to,
+        final StringBuilder out
+    ) {
+        int lineEnd = text.indexOf('\n', i);
+        if (lineEnd < 0 || lineEnd > to) lineEnd = to;
+        int indent = i;
+        while (indent < lineEnd && text.charAt(indent) == ' ') indent++;
+        int hashes = indent;
+        while (hashes < lineEnd && text.charAt(hashes) == '#') hashes++;
+        final int level = hashes - indent;
+        if (level >= 1 && level <= 6 && hashes < lineEnd && text.charAt(hashes) == ' ') {
+            String title = text.substring(hashes + 1, lineEnd).strip();
+            while (title.endsWith("#")) title = title.substring(0, title.length() - 1).strip();
+            final int titleStart = text.indexOf(title, hashes);
+            final String rendered = inline(text, titleStart, titleStart + title.length(), EnumSet.of(Entity.BOLD), false);
+            if (!rendered.isEmpty()) out.append('*').append(rendered).append('*');
+            return lineEnd;
+        }
+        if (indent + 1 < lineEnd
+            && "*-+".indexOf(text.charAt(indent)) >= 0
+            && text.charAt(indent + 1) == ' '
+            && !isRule(text, indent, lineEnd)) {
+            out.append(text, i, indent).append("\u2022 ");
+            return indent + 2;
+        }
+        if (isRule(text, indent, lineEnd)) {
+            out.append("\u2014".repeat(6));
+            return lineEnd;
+        }
+        return i;
+    }
+
+    private static boolean isRule(
+        final String text,
+        final int from,
+        final int to
+    ) {
+        final String line = text.substring(from, to).replace(" ", "");
+        return line.length() >= 3 && (line.chars().allMatch(c -> c == '-')
+            || line.chars().allMatch(c -> c == '*')
+            || line.chars().allMatch(c -> c == '_'));
+    }
+
+    /**
+     * Writes an inline code span and returns the position after it, or {@code i} if it is not one.
+     */
+    private static int codeSpan(
+        final String text,
+        final int i,
+        final int to,
+        final StringBuilder out
+    ) {
+        int run = i;
+        while (run < to && text.charAt(run) == '`') run++;
+        final String ticks = text.substring(i, run);
+        int close = text.indexOf(ticks, run);
+        while (close >= 0 && close + ticks.length() < to && text.charAt(close + ticks.length()) == '`') {
+            int skip = close;
+            while (skip < to && text.charAt(skip) == '`') skip++;
+            close = text.indexOf(ticks, skip);
+        }
+        if (close < 0 || close + ticks.length() > to) return i;
+        String content = text.substring(run, close);
+        if (ticks.length() > 1 && content.length() > 2 && content.startsWith(" ") && content.endsWith(" ")) {
+            content = content.substring(1, content.length() - 1);
+        }
+        if (content.isEmpty()) return i;
+        out.append('`').append(escapeCode(content)).append('`');
+        return close + ticks.length();
+    }
+
+    /**
+     * Writes a link and returns the position after it, or {@code i} if it is not one.
+     */
+    private static int link(
+        final String text,
+        final int i,
+        final int to,
+        final Set<Entity> open,
+        final StringBuilder out
+    ) {
+        int close = -1;
+        for (int k = i + 1; k < to; k++) {
+            final char c = text.charAt(k);
+            if (c == '\\') {
+                k++;
+            } else if (c == '\n' || c == '[') {
+                return i;
+            } else if (c == ']') {
+                close = k;
+                break;
+            }
+        }
+        if (close <= i + 1 || close + 1 >= to || text.charAt(close + 1) != '(') return i;
+        int depth = 0;
+        int urlEnd = -1;
+        for (int k = close + 2; k < to; k++) {
+            final char c = text.charAt(k);
+            if (Character.isWhitespace(c)) return i;
+            if (c == '(') depth++;
+            if (c == ')') {
+                if (depth == 0) {
+                    urlEnd = k;
+                    break;
+                }
+                depth--;
+            }
+        }
+        if (urlEnd <= close + 2) return i;
+        final Set<Entity> inLink = EnumSet.of(Entity.LINK);
+        inLink.addAll(open);
+        final String label = inline(text, i + 1, close, inLink, false);
+        if (label.isEmpty()) return i;
+        final String url = text.substring(close + 2, urlEnd);
+        out.append('[').append(label).append("](");
+        for (int k = 0; k < url.length(); k++) {
+            final char c = url.charAt(k);
+            if (c == ')' || c == '\\') out.append('\\');
+            out.append(c);
+        }
+        out.append(')');
+        return urlEnd + 1;
+    }
+
+    /**
+     * Returns the emphasis delimiter at {@code i}, null if there is none.
+     */
+    private static String delimiter(
+        final String text,
+        final int i,
+        final int to
+    ) {
+        final char c = text.charAt(i);
+        if (c != '*' && c != '_' && c != '~') return null;
+        final boolean doubled = i + 1 < to && text.charAt(i + 1) == c;
+        if (c == '~') return doubled ? "~~" : null;
+        return doubled ? "" + c + c : String.valueOf(c);
+    }
+
+    private static Entity entity(final String delimiter) {
+        return switch (delimiter) {
+            case "**", "__" -> Entity.BOLD;
+            case "~~" -> Entity.STRIKE;
+            default -> Entity.ITALIC;
+        };
+    }
+
+    /**
+     * Writes an emphasis and returns the position after it, or {@code i} if the delimiter does not
+     * open one.
+     */
+    private static int emphasis(
+        final String text,
+        final int i,
+        final int to,
+        final String delimiter,
+        final Set<Entity> open,
+        final StringBuilder out
+    ) {
+        final Entity entity = entity(delimiter);
+        if (open.contains(entity)) return i;
+        final int contentStart = i + delimiter.length();
+        if (contentStart >= to || Character.isWhitespace(text.charAt(contentStart))) return i;
+        final boolean underscore = delimiter.charAt(0) == '_';
+        // snake_case words are not emphasis
+        if (underscore && i > 0 && Character.isLetterOrDigit(text.charAt(i - 1))) return i;
+        final int close = closer(text, contentStart, to, delimiter);
+        if (close < 0) return i;
+        final Set<Entity> inside = EnumSet.of(entity);
+        inside.addAll(open);
+        final String content = inline(text, contentStart, close, inside, false);
+        if (content.isEmpty()) return i;
+        final String marker = switch (entity) {
+            case BOLD -> "*";
+            case STRIKE -> "~";
+            default -> "_";
+        };
+        // Italic next to italic would read as underline
+        if (entity == Entity.ITALIC && !out.isEmpty() && out.charAt(out.length() - 1) == '_') return i;
+        out.append(marker).append(content).append(marker);
+        return close + delimiter.length();
+    }
+
+    /**
+     * Finds where an emphasis closes, skipping code spans and escapes, before the end of the paragraph.
+     */
+    private static int closer(
+        final String text,
+        final int from,
+        final int to,
+        final String delimiter
+    ) {
+        final char c = delimiter.charAt(0);
+        int k = from;
+        while (k < to) {
+            final char current = text.charAt(k);
+            if (current == '\\') {
+                k += 2;
+                continue;
+            }
+            if (current == '`') {
+                final int end = text.indexOf('`', k + 1);
+                if (end > 0 && end < to) {
+                    k = end + 1;
+                    continue;
+                }
+            }
+            if (text.startsWith("\n\n", k)) return -1;
+            if (current == c) {
+                int run = k;
+                while (run < to && text.charAt(run) == c) run++;
+                final int length = run - k;
+                final boolean afterText = !Character.isWhitespace(text.charAt(k - 1));
+                final boolean wordAfter = run < to && Character.isLetterOrDigit(text.charAt(run));
+                if (length == delimiter.length() && k > from && afterText && !(c == '_' && wordAfter)) return k;
+                k = run;
+                continue;
+            }
+            k++;
+        }
+        return -1;
+    }
+
+    private static boolean isPunctuation(final char c) {
+        return c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && !Character.isISOControl(c);
+    }
+
+    private static void escape(
+        final char c,
+        final StringBuilder out
+    ) {
+        if (RESERVED.indexOf(c) >= 0) out.append('\\');
+        out.append(c);
+    }
+
+    private static String escapeCode(final String code) {
+        return code.replace("\\", "\\\\").replace("`", "\\`");
+    }
+}
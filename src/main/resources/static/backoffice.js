@@ -9,15 +9,21 @@ document.addEventListener('DOMContentLoaded', () => {
     const table = document.getElementById('messagesTable');
     if (!table) return;
     const chatId = table.dataset.chatid;
-    const page = table.dataset.page;
-    const resp = await fetch(`/api/conversations/${chatId}/messages?page=${page}`);
+    const cursor = table.dataset.cursor;
+    const query = cursor ? `?cursor=${encodeURIComponent(cursor)}` : '';
+    const resp = await fetch(`/api/conversations/${chatId}/messages${query}`);
     if (!resp.ok) return;
-    const messages = await resp.json();
+    const { messages } = await resp.json();
     const tbody = table.querySelector('tbody');
     tbody.innerHTML = '';
     messages.forEach(m => {
       const tr = document.createElement('tr');
-      tr.innerHTML = `
+      // Archived messages are read only
+      tr.innerHTML = m.archived ? `
+        <td>${m.role}</td>
+        <td><textarea rows="2" name="content" readonly>${m.content}</textarea></td>
+        <td>${m.timestamp}</td>
+        <td colspan="2">Archived</td>` : `
         <td>${m.role}</td>
         <td><textarea rows="2" name="content">${m.content}</textarea></td>
         <td>${m.timestamp}</td>
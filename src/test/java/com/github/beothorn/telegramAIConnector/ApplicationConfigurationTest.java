@@ -1,8 +1,10 @@
 package com.github.beothorn.telegramAIConnector;
 
+import okhttp3.OkHttpClient;
 import org.junit.jupiter.api.Test;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 public class ApplicationConfigurationTest {
@@ -16,4 +18,15 @@ public class ApplicationConfigurationTest {
         TelegramBotsLongPollingApplication app = config.botsApplication();
         assertNotNull(app, "Bots application bean should not be null");
     }
+
+    /**
+     * All calls go to the same Telegram host, the OkHttp default of 5 per host would queue them.
+     */
+    @Test
+    void telegramHttpClientAllowsConcurrentCallsToTelegram() {
+        ApplicationConfiguration config = new ApplicationConfiguration();
+        OkHttpClient client = config.telegramHttpClient(32, 8, 60);
+        assertEquals(32, client.dispatcher().getMaxRequests());
+        assertEquals(32, client.dispatcher().getMaxRequestsPerHost());
+    }
 }
@@ -5,7 +5,10 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.CommandLineRunner;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class MainOnExecuteTest {
@@ -21,10 +24,44 @@ public class MainOnExecuteTest {
         TelegramAiBot bot = mock(TelegramAiBot.class);
 
         Main main = new Main();
-        CommandLineRunner runner = main.onExecute(botsApp, bot, "123");
+        CommandLineRunner runner = main.onExecute(botsApp, bot, "123", "polling", "", "");
 
         runner.run();
 
+        verify(bot).deleteWebhook();
         verify(botsApp).registerBot("123", bot);
     }
+
+    /**
+     * On webhook mode Telegram pushes the updates, polling at the same time is refused by Telegram.
+     * @throws Exception
+     */
+    @Test
+    void webhookModeSetsWebhookInsteadOfPolling() throws Exception {
+        TelegramBotsLongPollingApplication botsApp = mock(TelegramBotsLongPollingApplication.class);
+        TelegramAiBot bot = mock(TelegramAiBot.class);
+
+        Main main = new Main();
+        CommandLineRunner runner = main.onExecute(botsApp, bot, "123", "webhook", "https://example.com/telegram/webhook", "secret");
+
+        runner.run();
+
+        verify(bot).setWebhook("https://example.com/telegram/webhook", "secret");
+        verify(botsApp, never()).registerBot(any(), any(TelegramAiBot.class));
+    }
+
+    @Test
+    void unknownModeFails() {
+        Main main = new Main();
+        CommandLineRunner runner = main.onExecute(
+            mock(TelegramBotsLongPollingApplication.class),
+            mock(TelegramAiBot.class),
+            "123",
+            "carrierPigeon",
+            "",
+            ""
+        );
+
+        assertThrows(IllegalArgumentException.class, runner::run);
+    }
 }
@@ -0,0 +1,77 @@
+package com.github.beothorn.telegramAIConnector.ai;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * Fast successes while the limit is in use raise it, overloads cut it.
+     */
+    @Test
+    void additiveIncreaseMultiplicativeDecrease() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 4, 60_000, 0.5);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+        AdaptiveConcurrencyLimiter.Permit second = limiter.acquire();
+
+        first.success();
+        assertEquals(3, limiter.stats().limit());
+        second.overloaded("rate limited");
+        assertEquals(new LimiterStats(1, 0, 0, 1, 1), limiter.stats());
+
+        second.success();
+        assertEquals(0, limiter.stats().inFlight(), "A permit is completed only once");
+    }
+
+    /**
+     * The limit stays between the bounds.
+     */
+    @Test
+    void limitIsBounded() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 2, 60_000, 0.5);
+        limiter.acquire().overloaded("rate limited");
+        assertEquals(2, limiter.stats().limit());
+        limiter.acquire().success();
+        assertEquals(2, limiter.stats().limit());
+    }
+
+    /**
+     * Slow calls count as overload.
+     */
+    @Test
+    void slowCallDecreases() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 0, 0.5);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+        Thread.sleep(5);
+        permit.success();
+        assertEquals(2, limiter.stats().limit());
+    }
+
+    /**
+     * Calls over the limit wait until a running call finishes.
+     */
+    @Test
+    void waitsForFreeSlot() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 60_000, 0.5);
+        AdaptiveConcurrencyLimiter.Permit running = limiter.acquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> next = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> limiter.stats().waiting() == 1);
+        assertFalse(next.isDone());
+
+        running.ignore();
+        next.get().ignore();
+        assertEquals(new LimiterStats(1, 0, 0, 0, 0), limiter.stats());
+    }
+}
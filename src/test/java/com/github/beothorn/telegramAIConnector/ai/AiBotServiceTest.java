@@ -3,12 +3,16 @@ package com.github.beothorn.telegramAIConnector.ai;
 import com.github.beothorn.telegramAIConnector.telegram.TelegramTools;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.advisors.UserProfileAdvisor;
+import com.github.beothorn.telegramAIConnector.user.summary.advisors.ConversationSummaryAdvisor;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.core.io.ByteArrayResource;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.*;
@@ -43,21 +47,79 @@ public class AiBotServiceTest {
         when(provider.getToolCallbacks()).thenReturn(new org.springframework.ai.tool.ToolCallback[]{});
         MessagesRepository messagesRepository = mock(MessagesRepository.class);
         UserProfileAdvisor advisor = mock(UserProfileAdvisor.class);
+        ConversationSummaryAdvisor summaryAdvisor = mock(ConversationSummaryAdvisor.class);
 
         AiBotService service = new AiBotService(
             builder,
             provider,
             messagesRepository,
             advisor,
+            summaryAdvisor,
             null,
             null,
             "",
             new ByteArrayResource("def".getBytes()),
-            1,
             "upload"
         );
 
         String result = service.prompt(1L, "hi", mock(TelegramTools.class));
         assertEquals("answer", result);
     }
+
+    private static AiBotService streamingService(final Flux<String> answer) {
+        ChatClient.Builder builder = mock(ChatClient.Builder.class);
+        ChatClient chatClient = mock(ChatClient.class, Mockito.RETURNS_DEEP_STUBS);
+        when(builder.defaultAdvisors(any(Advisor.class), any())).thenReturn(builder);
+        when(builder.defaultSystem(anyString())).thenReturn(builder);
+        when(builder.build()).thenReturn(chatClient);
+
+        ChatClient.ChatClientRequestSpec spec = mock(ChatClient.ChatClientRequestSpec.class, Mockito.RETURNS_DEEP_STUBS);
+        when(chatClient.prompt(anyString())).thenReturn(spec);
+        when(spec.toolCallbacks(anyList())).thenReturn(spec);
+        when(spec.advisors(any(java.util.function.Consumer.class))).thenReturn(spec);
+        when(spec.advisors(any(Advisor.class))).thenReturn(spec);
+        ChatClient.StreamResponseSpec stream = mock(ChatClient.StreamResponseSpec.class);
+        when(spec.stream()).thenReturn(stream);
+        when(stream.content()).thenReturn(answer);
+
+        ToolCallbackProvider provider = mock(ToolCallbackProvider.class);
+        when(provider.getToolCallbacks()).thenReturn(new org.springframework.ai.tool.ToolCallback[]{});
+
+        return new AiBotService(
+            builder,
+            provider,
+            mock(MessagesRepository.class),
+            mock(UserProfileAdvisor.class),
+            mock(ConversationSummaryAdvisor.class),
+            null,
+            null,
+            "",
+            new ByteArrayResource("def".getBytes()),
+            "upload"
+        );
+    }
+
+    /**
+     * Asserts that streamed prompts hand over the pieces of the answer in order.
+     */
+    @Test
+    void promptStreamDelegatesToChatClient() {
+        AiBotService service = streamingService(Flux.just("ans", "wer"));
+
+        List<String> result = service.promptStream(1L, "hi", mock(TelegramTools.class)).collectList().block();
+        assertEquals(List.of("ans", "wer"), result);
+    }
+
+    /**
+     * A failing stream ends with the error message, like a failing prompt answers it.
+     */
+    @Test
+    void promptStreamAnswersTheError() {
+        AiBotService service = streamingService(
+            Flux.concat(Flux.just("ans"), Flux.error(new IllegalStateException("model is down")))
+        );
+
+        List<String> result = service.promptStream(1L, "hi", mock(TelegramTools.class)).collectList().block();
+        assertEquals(List.of("ans", "model is down"), result);
+    }
 }
@@ -0,0 +1,135 @@
+package com.github.beothorn.telegramAIConnector.ai;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class LimitedChatModelTest {
+
+    /**
+     * Successful calls go through the limiter and return the model response.
+     */
+    @Test
+    void callDelegates() {
+        ChatModel delegate = mock(ChatModel.class);
+        ChatResponse response = new ChatResponse(List.of());
+        when(delegate.call(any(Prompt.class))).thenReturn(response);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 4, 60_000, 0.5);
+
+        assertSame(response, new LimitedChatModel(delegate, limiter, mock(ToolCallingManager.class)).call(new Prompt("hi")));
+        assertEquals(2, limiter.stats().limit());
+        assertEquals(0, limiter.stats().inFlight());
+    }
+
+    /**
+     * Tools run between two model calls, without holding a permit, and the real model is asked not
+     * to run them itself.
+     */
+    @Test
+    void toolsRunWithoutPermit() {
+        ChatModel delegate = mock(ChatModel.class);
+        ChatResponse toolCall = mock(ChatResponse.class);
+        when(toolCall.hasToolCalls()).thenReturn(true);
+        ChatResponse answer = new ChatResponse(List.of());
+        List<Prompt> prompts = new ArrayList<>();
+        when(delegate.call(any(Prompt.class))).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return prompts.size() == 1 ? toolCall : answer;
+        });
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 4, 60_000, 0.5);
+        List<Message> history = List.of(new UserMessage("hi"), new UserMessage("tool result"));
+        ToolExecutionResult result = mock(ToolExecutionResult.class);
+        when(result.conversationHistory()).thenReturn(history);
+        ToolCallingManager tools = mock(ToolCallingManager.class);
+        List<Integer> inFlightOnTool = new ArrayList<>();
+        when(tools.executeToolCalls(any(Prompt.class), eq(toolCall))).thenAnswer(invocation -> {
+            inFlightOnTool.add(limiter.stats().inFlight());
+            return result;
+        });
+        Prompt prompt = new Prompt("hi", ToolCallingChatOptions.builder().build());
+
+        assertSame(answer, new LimitedChatModel(delegate, limiter, tools).call(prompt));
+        assertEquals(List.of(0), inFlightOnTool);
+        assertEquals(2, prompts.size());
+        assertEquals(history, prompts.getLast().getInstructions());
+        for (Prompt sent : prompts) {
+            assertFalse(ToolCallingChatOptions.isInternalToolExecutionEnabled(sent.getOptions()));
+        }
+        assertEquals(0, limiter.stats().inFlight());
+    }
+
+    /**
+     * A stream that starts quickly is not slow however long the answer takes, one that takes long
+     * to start is.
+     */
+    @Test
+    void streamLatencyIsTimeToFirstResponse() {
+        ChatModel delegate = mock(ChatModel.class);
+        ChatResponse response = new ChatResponse(List.of());
+        Flux<ChatResponse> longAnswer = Flux.concat(
+            Flux.just(response),
+            Mono.delay(Duration.ofMillis(300)).thenReturn(response)
+        );
+        Flux<ChatResponse> slowStart = Mono.delay(Duration.ofMillis(300)).thenReturn(response).flux();
+        when(delegate.stream(any(Prompt.class))).thenReturn(longAnswer, slowStart);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 100, 0.5);
+        LimitedChatModel model = new LimitedChatModel(delegate, limiter, mock(ToolCallingManager.class));
+
+        assertEquals(2, model.stream(new Prompt("hi")).collectList().block().size());
+        assertEquals(4, limiter.stats().limit());
+        assertEquals(0, limiter.stats().decreases());
+
+        assertEquals(1, model.stream(new Prompt("hi")).collectList().block().size());
+        assertEquals(2, limiter.stats().limit());
+        assertEquals(0, limiter.stats().inFlight());
+    }
+
+    /**
+     * Rate limits lower the limit, other errors do not.
+     */
+    @Test
+    void rateLimitLowersLimit() {
+        ChatModel delegate = mock(ChatModel.class);
+        when(delegate.call(any(Prompt.class)))
+            .thenThrow(new NonTransientAiException("400 - bad request"))
+            .thenThrow(new NonTransientAiException("429 - too many requests"));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 60_000, 0.5);
+        LimitedChatModel model = new LimitedChatModel(delegate, limiter, mock(ToolCallingManager.class));
+
+        assertThrows(NonTransientAiException.class, () -> model.call(new Prompt("hi")));
+        assertEquals(4, limiter.stats().limit());
+        assertThrows(NonTransientAiException.class, () -> model.call(new Prompt("hi")));
+        assertEquals(2, limiter.stats().limit());
+        assertEquals(0, limiter.stats().inFlight());
+    }
+
+    /**
+     * Only errors about load are classified as overload.
+     */
+    @Test
+    void overloadClassification() {
+        assertNotNull(LimitedChatModel.overloadReason(new TransientAiException("500 - oops")));
+        assertNotNull(LimitedChatModel.overloadReason(new RuntimeException(new NonTransientAiException("429 - slow down"))));
+        assertNull(LimitedChatModel.overloadReason(new NonTransientAiException("401 - unauthorized")));
+        assertNull(LimitedChatModel.overloadReason(new IllegalStateException("bug")));
+    }
+}
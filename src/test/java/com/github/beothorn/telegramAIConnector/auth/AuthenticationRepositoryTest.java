@@ -1,5 +1,7 @@
 package com.github.beothorn.telegramAIConnector.auth;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -20,15 +22,17 @@ public class AuthenticationRepositoryTest {
     void addAndRetrieve() {
         AuthenticationRepository repo = new AuthenticationRepository();
         String url = "jdbc:sqlite:" + folder.resolve("a.db");
-        repo.initDatabase(url);
+        try (Database database = SQLite.open(url, 1)) {
+            repo.initDatabase(database);
 
-        repo.addAuthEntry(1L,"hash",false,"d");
-        Optional<AuthData> data = repo.getAuthData(1L);
-        assertTrue(data.isPresent());
-        assertEquals("hash", data.get().password_hash());
+            repo.addAuthEntry(1L,"hash",false,"d");
+            Optional<AuthData> data = repo.getAuthData(1L);
+            assertTrue(data.isPresent());
+            assertEquals("hash", data.get().password_hash());
 
-        repo.setLoggedState(1L,true,"t");
-        data = repo.getAuthData(1L);
-        assertTrue(data.orElseThrow().logged());
+            repo.setLoggedState(1L,true,"t");
+            data = repo.getAuthData(1L);
+            assertTrue(data.orElseThrow().logged());
+        }
     }
 }
@@ -1,17 +1,32 @@
 package com.github.beothorn.telegramAIConnector.backoffice;
 
+import com.github.beothorn.telegramAIConnector.ai.AdaptiveConcurrencyLimiter;
 import com.github.beothorn.telegramAIConnector.auth.Authentication;
 import com.github.beothorn.telegramAIConnector.tasks.TaskRepository;
 import com.github.beothorn.telegramAIConnector.telegram.TelegramAiBot;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.StoredMessage;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.UserProfileRepository;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class ApiTest {
@@ -31,7 +46,7 @@ public class ApiTest {
         FileService files = mock(FileService.class);
 
         when(messages.findConversationIds()).thenReturn(List.of("1"));
-        Api api = new Api(bot,tasks,messages,auth,profiles,files, users);
+        Api api = new Api(bot,tasks,messages,auth,profiles,files, users, mock(AdaptiveConcurrencyLimiter.class));
         assertEquals(List.of("1"), api.getConversationIds());
     }
 
@@ -49,11 +64,10 @@ public class ApiTest {
         FileService files = mock(FileService.class);
 
         when(messages.findConversationIds()).thenReturn(List.of("1","2"));
-        Api api = new Api(bot,tasks,messages,auth,profiles,files, users);
+        Api api = new Api(bot,tasks,messages,auth,profiles,files, users, mock(AdaptiveConcurrencyLimiter.class));
         api.broadcast("hi");
 
-        org.mockito.Mockito.verify(bot).sendMessage(1L, "hi");
-        org.mockito.Mockito.verify(bot).sendMessage(2L, "hi");
+        org.mockito.Mockito.verify(bot).broadcast(List.of(1L, 2L), "hi");
     }
 
     /**
@@ -70,8 +84,98 @@ public class ApiTest {
         FileService files = mock(FileService.class);
 
         when(bot.consumeSystemMessage(1L, "hi")).thenReturn("ok");
-        Api api = new Api(bot,tasks,messages,auth,profiles,files, users);
+        Api api = new Api(bot,tasks,messages,auth,profiles,files, users, mock(AdaptiveConcurrencyLimiter.class));
         String resp = api.systemMessage(1L, "hi");
         assertEquals("ok", resp);
     }
+
+    /**
+     * Exports a conversation as one JSON object per line.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void exportWritesOneLinePerMessage() throws Exception {
+        TelegramAiBot bot = mock(TelegramAiBot.class);
+        TaskRepository tasks = mock(TaskRepository.class);
+        MessagesRepository messages = mock(MessagesRepository.class);
+        Authentication auth = mock(Authentication.class);
+        UserProfileRepository profiles = mock(UserProfileRepository.class);
+        UserRepository users = mock(UserRepository.class);
+        FileService files = mock(FileService.class);
+
+        doAnswer(invocation -> {
+            Consumer<StoredMessage> consumer = invocation.getArgument(1);
+            consumer.accept(new StoredMessage(1, "user", "hi", "2025-01-01 10:00:00"));
+            consumer.accept(new StoredMessage(2, "assistant", "hello\nthere", "2025-01-01 10:00:01"));
+            return null;
+        }).when(messages).forEachMessage(eq("1"), any(Consumer.class));
+        Api api = new Api(bot,tasks,messages,auth,profiles,files, users, mock(AdaptiveConcurrencyLimiter.class));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseEntity<StreamingResponseBody> response = api.exportConversation("1");
+        assertEquals("attachment; filename=1.ndjson", response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+        response.getBody().writeTo(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("{\"id\":1,\"role\":\"user\",\"content\":\"hi\",\"timestamp\":\"2025-01-01 10:00:00\"}", lines[0]);
+        assertEquals("{\"id\":2,\"role\":\"assistant\",\"content\":\"hello\\nthere\",\"timestamp\":\"2025-01-01 10:00:01\"}", lines[1]);
+    }
+
+    /**
+     * A bad chat id is refused before the export starts.
+     */
+    @Test
+    void exportRefusesBadChatId() {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        Api api = new Api(
+            mock(TelegramAiBot.class),
+            mock(TaskRepository.class),
+            messages,
+            mock(Authentication.class),
+            mock(UserProfileRepository.class),
+            mock(FileService.class),
+            mock(UserRepository.class),
+            mock(AdaptiveConcurrencyLimiter.class)
+        );
+
+        ResponseStatusException e = assertThrows(
+            ResponseStatusException.class,
+            () -> api.exportConversation("1\r\nX-Injected: yes")
+        );
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        verifyNoInteractions(messages);
+    }
+
+    /**
+     * Changing an archived message is refused with a conflict, an unknown one is not found.
+     */
+    @Test
+    void archivedMessagesCantBeChanged() {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        when(messages.isArchived(1L)).thenReturn(true);
+        Api api = new Api(
+            mock(TelegramAiBot.class),
+            mock(TaskRepository.class),
+            messages,
+            mock(Authentication.class),
+            mock(UserProfileRepository.class),
+            mock(FileService.class),
+            mock(UserRepository.class),
+            mock(AdaptiveConcurrencyLimiter.class)
+        );
+
+        assertEquals(
+            HttpStatus.CONFLICT,
+            assertThrows(ResponseStatusException.class, () -> api.updateMessage(1L, "edited")).getStatusCode()
+        );
+        assertEquals(
+            HttpStatus.CONFLICT,
+            assertThrows(ResponseStatusException.class, () -> api.deleteMessage(1L)).getStatusCode()
+        );
+        assertEquals(
+            HttpStatus.NOT_FOUND,
+            assertThrows(ResponseStatusException.class, () -> api.deleteMessage(2L)).getStatusCode()
+        );
+    }
 }
@@ -0,0 +1,81 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatabaseTest {
+
+    @TempDir
+    Path folder;
+
+    /**
+     * Writes are visible to the reader connections once committed and the database is in WAL mode.
+     */
+    @Test
+    void readersSeeCommittedWrites() throws SQLException {
+        try (Database database = new Database("jdbc:sqlite:" + folder.resolve("d.db"), 2)) {
+            database.write(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("CREATE TABLE t (v INTEGER)");
+                }
+                PreparedStatement insert = conn.prepare("INSERT INTO t (v) VALUES (?)");
+                insert.setInt(1, 42);
+                return insert.executeUpdate();
+            });
+
+            int value = database.read(conn -> {
+                try (ResultSet rs = conn.prepare("SELECT v FROM t").executeQuery()) {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+            });
+            assertEquals(42, value);
+
+            String journalMode = database.read(conn -> {
+                try (ResultSet rs = conn.prepare("PRAGMA journal_mode").executeQuery()) {
+                    rs.next();
+                    return rs.getString(1);
+                }
+            });
+            assertEquals("wal", journalMode.toLowerCase());
+        }
+    }
+
+    /**
+     * A failing write is rolled back and readers can't write.
+     */
+    @Test
+    void failedWriteRollsBack() throws SQLException {
+        try (Database database = new Database("jdbc:sqlite:" + folder.resolve("d.db"), 1)) {
+            database.write(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("CREATE TABLE t (v INTEGER)");
+                }
+                return null;
+            });
+
+            assertThrows(IllegalStateException.class, () -> database.write(conn -> {
+                conn.prepare("INSERT INTO t (v) VALUES (1)").executeUpdate();
+                throw new IllegalStateException("boom");
+            }));
+            assertThrows(SQLException.class, () -> database.read(conn ->
+                conn.prepare("INSERT INTO t (v) VALUES (2)").executeUpdate()));
+
+            int count = database.read(conn -> {
+                try (ResultSet rs = conn.prepare("SELECT count(*) FROM t").executeQuery()) {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+            });
+            assertEquals(0, count);
+        }
+    }
+}
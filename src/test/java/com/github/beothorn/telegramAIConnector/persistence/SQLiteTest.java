@@ -2,18 +2,26 @@ package com.github.beothorn.telegramAIConnector.persistence;
 
 import com.github.beothorn.telegramAIConnector.auth.AuthenticationRepository;
 import com.github.beothorn.telegramAIConnector.tasks.TaskRepository;
+import com.github.beothorn.telegramAIConnector.telegram.UpdateOffsetRepository;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.user.profile.UserProfileRepository;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummaryRepository;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
-import static org.mockito.ArgumentMatchers.startsWith;
+import java.nio.file.Path;
+
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 public class SQLiteTest {
 
+    @TempDir
+    Path folder;
+
     /**
-     * Check all bases are initialized.
+     * Check all bases are initialized with the same shared database.
      * Maybe in the future some migration library could be used.
      */
     @Test
@@ -23,11 +31,17 @@ public class SQLiteTest {
         UserRepository u = mock(UserRepository.class);
         AuthenticationRepository a = mock(AuthenticationRepository.class);
         UserProfileRepository p = mock(UserProfileRepository.class);
-        new SQLite("folder", m, t, u, a, p);
-        verify(m).initDatabase(startsWith("jdbc:sqlite:"));
-        verify(t).initDatabase(anyString());
-        verify(u).initDatabase(anyString());
-        verify(a).initDatabase(anyString());
-        verify(p).initDatabase(anyString());
+        ConversationSummaryRepository s = mock(ConversationSummaryRepository.class);
+        UpdateOffsetRepository o = mock(UpdateOffsetRepository.class);
+        SQLite sqLite = new SQLite(folder.toString(), 2, m, t, u, a, p, s, o);
+        verify(m).initDatabase(any(Database.class));
+        verify(t).initDatabase(any(Database.class));
+        verify(u).initDatabase(any(Database.class));
+        verify(a).initDatabase(any(Database.class));
+        verify(p).initDatabase(any(Database.class));
+        verify(s).initDatabase(any(Database.class));
+        verify(o).initDatabase(any(Database.class));
+        sqLite.close();
+        verify(m).close();
     }
 }
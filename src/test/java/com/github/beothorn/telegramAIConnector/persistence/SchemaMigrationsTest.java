@@ -0,0 +1,82 @@
+package com.github.beothorn.telegramAIConnector.persistence;
+
+import com.github.beothorn.telegramAIConnector.persistence.migrations.V1InitialSchema;
+import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaMigrationsTest {
+
+    @TempDir
+    Path folder;
+
+    /**
+     * A database created before migrations existed is upgraded in place, keeping its data.
+     * Messages with a role that can't be read back are left out.
+     */
+    @Test
+    void upgradesLegacyDatabase() throws SQLException {
+        try (Database database = new Database("jdbc:sqlite:" + folder.resolve("legacy.db"), 1)) {
+            // Legacy databases have the initial schema but no version
+            database.write(conn -> {
+                new V1InitialSchema().apply(conn);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("INSERT INTO messages (chatId, role, content, timestamp) VALUES ('42', 'user', 'hi', 1)");
+                    stmt.executeUpdate("INSERT INTO messages (chatId, role, content, timestamp) VALUES ('42', 'assistant', 'hello', 2)");
+                    stmt.executeUpdate("INSERT INTO messages (chatId, role, content, timestamp) VALUES ('42', 'bogus', 'lost', 3)");
+                    stmt.executeUpdate("INSERT INTO tasks (key, chatId, dateTime, command) VALUES ('k', 42, '2030.01.01 10:00', 'cmd')");
+                }
+                return null;
+            });
+            assertEquals(0, SchemaMigrations.currentVersion(database));
+
+            int version = SchemaMigrations.migrate(database);
+            assertEquals(SchemaMigrations.MIGRATIONS.getLast().version(), version);
+            assertEquals(version, SchemaMigrations.currentVersion(database));
+
+            List<String> rows = database.read(conn -> {
+                try (ResultSet rs = conn.prepare(
+                    "SELECT id, typeof(chatId) AS t, role, content FROM messages ORDER BY timestamp").executeQuery()) {
+                    List<String> result = new ArrayList<>();
+                    while (rs.next()) {
+                        result.add(rs.getLong("id") + ":" + rs.getString("t") + ":" + rs.getInt("role") + ":" + rs.getString("content"));
+                    }
+                    return result;
+                }
+            });
+            assertEquals(List.of("1:integer:0:hi", "2:integer:1:hello"), rows);
+
+            long dueAt = database.read(conn -> {
+                try (ResultSet rs = conn.prepare("SELECT dueAt FROM tasks WHERE key = 'k'").executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            });
+            assertEquals(InstantUtils.parseToInstant("2030.01.01 10:00").toEpochMilli(), dueAt);
+
+            String plan = database.read(conn -> {
+                try (ResultSet rs = conn.prepare(
+                    "EXPLAIN QUERY PLAN SELECT role, content FROM messages WHERE chatId = 42 ORDER BY timestamp DESC LIMIT 10").executeQuery()) {
+                    StringBuilder result = new StringBuilder();
+                    while (rs.next()) {
+                        result.append(rs.getString("detail"));
+                    }
+                    return result.toString();
+                }
+            });
+            assertTrue(plan.contains("idx_messages_chat_timestamp"), plan);
+
+            // Migrating again is a no op
+            assertEquals(version, SchemaMigrations.migrate(database));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.beothorn.telegramAIConnector.tasks;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -20,12 +22,14 @@ public class TaskRepositoryTest {
     void addAndDeleteTask() {
         TaskRepository repo = new TaskRepository();
         String url = "jdbc:sqlite:" + folder.resolve("t.db");
-        repo.initDatabase(url);
+        try (Database database = SQLite.open(url, 1)) {
+            repo.initDatabase(database);
 
-        TaskCommand cmd = new TaskCommand("k",1L,"2000.01.01 00:00","cmd");
-        repo.addTask(cmd);
-        List<TaskCommand> all = repo.getAll();
-        assertEquals(1, all.size());
-        assertTrue(repo.deleteTask("k"));
+            TaskCommand cmd = new TaskCommand("k",1L,"2000.01.01 00:00","cmd");
+            repo.addTask(cmd);
+            List<TaskCommand> all = repo.getAll();
+            assertEquals(1, all.size());
+            assertTrue(repo.deleteTask("k"));
+        }
     }
 }
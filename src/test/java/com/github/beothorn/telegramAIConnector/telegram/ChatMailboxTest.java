@@ -0,0 +1,163 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChatMailboxTest {
+
+    private final ChatMailbox mailbox = new ChatMailbox(0, 0);
+
+    @AfterEach
+    void tearDown() {
+        mailbox.shutdown();
+    }
+
+    /**
+     * Work for the same chat runs one at a time in submission order.
+     */
+    @Test
+    void sameChatRunsInOrder() {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final List<CompletableFuture<Integer>> futures = IntStream.range(0, 50)
+            .mapToObj(i -> mailbox.submit(1L, () -> {
+                maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                order.add(i);
+                concurrent.decrementAndGet();
+                return i;
+            }))
+            .toList();
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        assertEquals(IntStream.range(0, 50).boxed().toList(), order);
+        assertEquals(1, maxConcurrent.get());
+        assertEquals(0, mailbox.queueDepth(1L));
+    }
+
+    /**
+     * A chat waiting on slow work does not block other chats.
+     */
+    @Test
+    void chatsRunInParallel() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<String> slow = mailbox.submit(1L, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+            }
+            return "slow";
+        });
+        final CompletableFuture<String> queued = mailbox.submit(1L, () -> "queued");
+
+        assertEquals("other", mailbox.submit(2L, () -> "other").get(1, TimeUnit.SECONDS));
+        assertFalse(queued.isDone());
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> mailbox.queueDepth(1L) == 1);
+
+        release.countDown();
+        assertEquals("queued", queued.get(1, TimeUnit.SECONDS));
+        assertEquals("slow", slow.get());
+    }
+
+    /**
+     * Work for an idle chat is not behind anything, the next one is behind it.
+     */
+    @Test
+    void idleChatIsNotQueued() {
+        final ChatMailbox limited = new ChatMailbox(1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueuedWork<String> first = limited.enqueue(1L, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+            }
+            return "";
+        });
+        final QueuedWork<String> second = limited.enqueue(1L, () -> "second");
+
+        assertEquals(0, first.position());
+        assertEquals(1, second.position());
+        release.countDown();
+        assertEquals("second", second.result().join());
+        limited.shutdown();
+    }
+
+    /**
+     * A failure completes its future exceptionally and the next work still runs.
+     */
+    @Test
+    void failureDoesNotStopQueue() {
+        final CompletableFuture<String> failed = mailbox.submit(1L, () -> {
+            throw new IllegalStateException("boom");
+        });
+        final CompletableFuture<String> next = mailbox.submit(1L, () -> "next");
+
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(next::isDone);
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals("next", next.join());
+    }
+
+    /**
+     * Work beyond the per chat cap is rejected and counted.
+     */
+    @Test
+    void rejectsWhenChatQueueIsFull() {
+        final ChatMailbox capped = new ChatMailbox(0, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        capped.submit(1L, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+            }
+            return "";
+        });
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> capped.stats().running() == 1);
+        assertEquals(1, capped.enqueue(1L, () -> "waiting").position());
+
+        assertThrows(RejectedExecutionException.class, () -> capped.submit(1L, () -> "rejected"));
+        assertEquals(new MailboxStats(1, 0, 1, 1), capped.stats());
+
+        release.countDown();
+        capped.shutdown();
+    }
+
+    /**
+     * Only the configured number of tasks run at once, the others wait for a slot.
+     */
+    @Test
+    void limitsConcurrentWork() {
+        final ChatMailbox limited = new ChatMailbox(1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        limited.submit(1L, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+            }
+            return "";
+        });
+        final CompletableFuture<String> other = limited.submit(2L, () -> "other");
+
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> limited.stats().waitingForSlot() == 1);
+        assertFalse(other.isDone());
+        assertEquals(1, limited.enqueue(3L, () -> "third").position());
+
+        release.countDown();
+        assertEquals("other", other.join());
+        limited.shutdown();
+    }
+}
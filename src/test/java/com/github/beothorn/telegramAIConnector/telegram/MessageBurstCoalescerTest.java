@@ -0,0 +1,101 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageBurstCoalescerTest {
+
+    /**
+     * Counts a batch handed over, answering it right away.
+     */
+    private static CompletableFuture<?> ready(final AtomicInteger ready) {
+        ready.incrementAndGet();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Messages sent within the window become one batch handed over once.
+     */
+    @Test
+    void burstBecomesOneBatch() {
+        final MessageBurstCoalescer coalescer = new MessageBurstCoalescer(200);
+        final AtomicInteger ready = new AtomicInteger();
+
+        coalescer.add(1L, "one", () -> ready(ready));
+        coalescer.add(1L, "two", () -> ready(ready));
+        coalescer.add(1L, "three", () -> ready(ready));
+        assertEquals(0, ready.get());
+
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> ready.get() == 1);
+        assertEquals("one\ntwo\nthree", coalescer.take(1L));
+        assertNull(coalescer.take(1L));
+        coalescer.shutdown();
+    }
+
+    /**
+     * Messages arriving before the batch is taken join it, later ones open a new batch.
+     */
+    @Test
+    void batchStaysOpenUntilTaken() {
+        final MessageBurstCoalescer coalescer = new MessageBurstCoalescer(0);
+        final AtomicInteger ready = new AtomicInteger();
+
+        coalescer.add(1L, "one", () -> ready(ready));
+        coalescer.add(1L, "two", () -> ready(ready));
+        coalescer.add(2L, "other", () -> ready(ready));
+        assertEquals(2, ready.get());
+
+        assertEquals("one\ntwo", coalescer.take(1L));
+        coalescer.add(1L, "three", () -> ready(ready));
+        assertEquals(3, ready.get());
+        assertEquals("three", coalescer.take(1L));
+        assertEquals("other", coalescer.take(2L));
+        coalescer.shutdown();
+    }
+
+    /**
+     * Every message of a batch is answered once the batch is.
+     */
+    @Test
+    void messagesAreAnsweredWithTheirBatch() {
+        final MessageBurstCoalescer coalescer = new MessageBurstCoalescer(0);
+        final CompletableFuture<Void> answer = new CompletableFuture<>();
+
+        final CompletableFuture<Void> first = coalescer.add(1L, "one", () -> answer);
+        final CompletableFuture<Void> second = coalescer.add(1L, "two", () -> {
+            throw new AssertionError("Batch was already handed over");
+        });
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        answer.complete(null);
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        coalescer.shutdown();
+    }
+
+    /**
+     * Flushing hands the open batch over right away and only once.
+     */
+    @Test
+    void flushHandsOverBeforeTheWindow() {
+        final MessageBurstCoalescer coalescer = new MessageBurstCoalescer(60_000);
+        final AtomicInteger ready = new AtomicInteger();
+
+        coalescer.flush(1L);
+        coalescer.add(1L, "one", () -> ready(ready));
+        coalescer.flush(1L);
+        assertEquals(1, ready.get());
+        coalescer.add(1L, "two", () -> ready(ready));
+        coalescer.flush(1L);
+        assertEquals(1, ready.get());
+        assertEquals("one\ntwo", coalescer.take(1L));
+        coalescer.shutdown();
+    }
+}
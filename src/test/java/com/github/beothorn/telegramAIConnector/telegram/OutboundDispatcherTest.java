@@ -0,0 +1,233 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OutboundDispatcherTest {
+
+    private static <T> CompletableFuture<T> done(T value) {
+        return CompletableFuture.completedFuture(value);
+    }
+
+    /**
+     * Calls to a chat are sent one at a time, in the order they were queued.
+     */
+    @Test
+    void keepsOrderPerChat() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int n = i;
+            futures.add(dispatcher.submit(1L, OutboundPriority.REPLY, () -> {
+                sent.add(n);
+                return done(n);
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, sent.get(i));
+        }
+        assertEquals(20, dispatcher.stats().sent());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Calls beyond the global rate wait, instead of reaching Telegram and failing.
+     */
+    @Test
+    void pacesToTheGlobalRate() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(10, 0, 0);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (long chat = 0; chat < 15; chat++) {
+            futures.add(dispatcher.submit(chat, OutboundPriority.BULK, () -> done(null)));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // A burst of 10, the other 5 at 10 per second
+        assertTrue(elapsedMillis >= 400, "took " + elapsedMillis);
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Calls to the same chat keep their order whatever their priority.
+     */
+    @Test
+    void priorityDoesNotReorderAChat() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        CountDownLatch onTheWire = new CountDownLatch(1);
+        CompletableFuture<Void> telegramAnswer = new CompletableFuture<>();
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> first = dispatcher.submit(1L, OutboundPriority.REPLY, () -> {
+            onTheWire.countDown();
+            return telegramAnswer;
+        });
+        onTheWire.await();
+        CompletableFuture<Void> typing = dispatcher.submit(1L, OutboundPriority.TYPING, () -> {
+            sent.add("typing");
+            return done(null);
+        });
+        CompletableFuture<Void> bulk = dispatcher.submit(1L, OutboundPriority.BULK, () -> {
+            sent.add("bulk");
+            return done(null);
+        });
+        CompletableFuture<Void> reply = dispatcher.submit(1L, OutboundPriority.REPLY, () -> {
+            sent.add("reply");
+            return done(null);
+        });
+        telegramAnswer.complete(null);
+        CompletableFuture.allOf(first, typing, bulk, reply).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("typing", "bulk", "reply"), sent);
+        dispatcher.shutdown();
+    }
+
+    /**
+     * When chats wait for the global rate, the chat waiting for a reply goes before bulk messages.
+     */
+    @Test
+    void repliesGoBeforeBulkOfOtherChats() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(2, 0, 0);
+        // Use up the burst
+        dispatcher.submit(10L, OutboundPriority.BULK, () -> done(null)).get(1, TimeUnit.SECONDS);
+        dispatcher.submit(11L, OutboundPriority.BULK, () -> done(null)).get(1, TimeUnit.SECONDS);
+        List<Long> sent = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> bulk = dispatcher.submit(1L, OutboundPriority.BULK, () -> {
+            sent.add(1L);
+            return done(null);
+        });
+        CompletableFuture<Void> reply = dispatcher.submit(2L, OutboundPriority.REPLY, () -> {
+            sent.add(2L);
+            return done(null);
+        });
+        CompletableFuture.allOf(bulk, reply).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(2L, 1L), sent);
+        dispatcher.shutdown();
+    }
+
+    /**
+     * A typing indicator already waiting makes new ones useless.
+     */
+    @Test
+    void typingIsCoalesced() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        CountDownLatch onTheWire = new CountDownLatch(1);
+        CompletableFuture<Void> telegramAnswer = new CompletableFuture<>();
+        AtomicInteger typings = new AtomicInteger();
+        CompletableFuture<Void> first = dispatcher.submit(1L, OutboundPriority.REPLY, () -> {
+            onTheWire.countDown();
+            return telegramAnswer;
+        });
+        onTheWire.await();
+        CompletableFuture<Void> typing = dispatcher.submit(1L, OutboundPriority.TYPING, () -> {
+            typings.incrementAndGet();
+            return done(null);
+        });
+        dispatcher.submit(1L, OutboundPriority.TYPING, () -> {
+            typings.incrementAndGet();
+            return done(null);
+        });
+        telegramAnswer.complete(null);
+        CompletableFuture.allOf(first, typing).get(5, TimeUnit.SECONDS);
+        assertEquals(1, typings.get());
+        assertEquals(1, dispatcher.stats().coalesced());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Too many requests pauses the chat for the time Telegram asks, then the call is sent again.
+     */
+    @Test
+    void retriesAfterTheTimeTelegramAsks() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        TelegramApiRequestException tooMany = mock(TelegramApiRequestException.class);
+        when(tooMany.getErrorCode()).thenReturn(429);
+        ResponseParameters parameters = mock(ResponseParameters.class);
+        when(parameters.getRetryAfter()).thenReturn(1);
+        when(tooMany.getParameters()).thenReturn(parameters);
+        AtomicInteger attempts = new AtomicInteger();
+
+        final long start = System.nanoTime();
+        String result = dispatcher.execute(1L, OutboundPriority.REPLY, () -> {
+            if (attempts.incrementAndGet() == 1) return CompletableFuture.failedFuture(tooMany);
+            return done("ok");
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 900);
+        assertEquals(1, dispatcher.stats().rateLimited());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Other errors reach the caller as they are.
+     */
+    @Test
+    void errorsReachTheCaller() {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        TelegramApiException error = new TelegramApiException("bad request");
+        TelegramApiException thrown = assertThrows(
+            TelegramApiException.class,
+            () -> dispatcher.execute(1L, OutboundPriority.REPLY, () -> CompletableFuture.failedFuture(error))
+        );
+        assertSame(error, thrown);
+        assertEquals(1, dispatcher.stats().failed());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Calls still waiting fail on shutdown instead of hanging.
+     */
+    @Test
+    void shutdownFailsQueuedCalls() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        CountDownLatch onTheWire = new CountDownLatch(1);
+        dispatcher.submit(1L, OutboundPriority.REPLY, () -> {
+            onTheWire.countDown();
+            return new CompletableFuture<Void>();
+        });
+        onTheWire.await();
+        CompletableFuture<Void> waiting = dispatcher.submit(1L, OutboundPriority.REPLY, () -> done(null));
+        dispatcher.shutdown();
+        assertThrows(ExecutionException.class, () -> waiting.get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Calls to different chats are on the wire at the same time, no thread waits for Telegram.
+     */
+    @Test
+    void differentChatsAreInFlightTogether() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(0, 0, 0);
+        List<CompletableFuture<Void>> answers = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (long chat = 0; chat < 10; chat++) {
+            CompletableFuture<Void> answer = new CompletableFuture<>();
+            answers.add(answer);
+            futures.add(dispatcher.submit(chat, OutboundPriority.REPLY, () -> answer));
+        }
+        Awaitility.await().atMost(Duration.ofSeconds(5))
+            .until(() -> dispatcher.stats().inFlight() == 10);
+        answers.forEach(answer -> answer.complete(null));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertEquals(10, dispatcher.stats().sent());
+        dispatcher.shutdown();
+    }
+}
@@ -4,6 +4,7 @@ import org.awaitility.Awaitility;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -17,7 +18,7 @@ public class ProcessingStatusTest {
      */
     @Test
     void registerShowsStatusUntilThreadEnds() {
-        final ProcessingStatus status = new ProcessingStatus();
+        final ProcessingStatus status = new ProcessingStatus(new ChatMailbox(0, 0));
         final ExecutorService executor = Executors.newSingleThreadExecutor();
         final Future<?> future = executor.submit(() -> {
             try {
@@ -42,7 +43,7 @@ public class ProcessingStatusTest {
      */
     @Test
     void multipleThreadsKeepIndependentStatuses() {
-        final ProcessingStatus status = new ProcessingStatus();
+        final ProcessingStatus status = new ProcessingStatus(new ChatMailbox(0, 0));
         final ExecutorService executor = Executors.newFixedThreadPool(2);
         final Future<?> f1 = executor.submit(() -> {
             try {
@@ -75,4 +76,30 @@ public class ProcessingStatusTest {
         assertEquals("I'm not doing anything.", status.status(1L));
         executor.shutdown();
     }
+
+    /**
+     * Messages waiting for the previous one of the same chat are shown on the status.
+     */
+    @Test
+    void statusShowsWaitingMessages() {
+        final ChatMailbox mailbox = new ChatMailbox(0, 0);
+        final ProcessingStatus status = new ProcessingStatus(mailbox);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<?> first = mailbox.submit(1L, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+            }
+            return "";
+        });
+        mailbox.submit(1L, () -> "");
+        status.register(1L, first, "first");
+
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> status.queueDepth(1L) == 1);
+        assertTrue(status.status(1L).contains("Waiting in line: 1"));
+
+        release.countDown();
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> status.queueDepth(1L) == 0);
+        mailbox.shutdown();
+    }
 }
@@ -0,0 +1,161 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.ParseMode;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class StreamingReplyTest {
+
+    private final OutboundDispatcher outbound = new OutboundDispatcher(0, 0, 0);
+
+    @AfterEach
+    void tearDown() {
+        outbound.shutdown();
+    }
+
+    /**
+     * Client answering every call right away, sent messages get id 7.
+     */
+    private static TelegramClient client() {
+        final Message message = new Message();
+        message.setMessageId(7);
+        return mock(TelegramClient.class, invocation -> {
+            if (invocation.getMethod().getReturnType() != CompletableFuture.class) {
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+            return CompletableFuture.completedFuture(
+                invocation.getArgument(0) instanceof SendMessage ? message : null
+            );
+        });
+    }
+
+    /**
+     * Returns the calls of a type made to the client, in order.
+     */
+    private static <T> List<T> calls(
+        final TelegramClient client,
+        final Class<T> type
+    ) {
+        return mockingDetails(client).getInvocations().stream()
+            .filter(invocation -> invocation.getArguments().length == 1)
+            .map(invocation -> invocation.getArgument(0))
+            .filter(type::isInstance)
+            .map(type::cast)
+            .toList();
+    }
+
+    /**
+     * The first piece goes as a new message, the next ones edit it and the whole answer is
+     * formatted at the end, without sending more messages. The answer is visible once the first
+     * message is sent.
+     */
+    @Test
+    void sendsFirstPieceThenEdits() throws Exception {
+        TelegramClient client = client();
+        StreamingReply reply = new StreamingReply(1L, outbound, client, 0, answer -> {
+            throw new AssertionError("Answer was already shown");
+        });
+
+        assertFalse(reply.visible().isDone());
+        reply.append("Hello ");
+        verify(client, timeout(1000)).executeAsync(any(SendMessage.class));
+        reply.visible().get(1, TimeUnit.SECONDS);
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> {
+            reply.append(".");
+            return !calls(client, EditMessageText.class).isEmpty();
+        });
+        reply.finish("Hello **world**.").get(1, TimeUnit.SECONDS);
+
+        List<SendMessage> sent = calls(client, SendMessage.class);
+        assertEquals(1, sent.size());
+        assertEquals("Hello", sent.getFirst().getText());
+        List<EditMessageText> edits = calls(client, EditMessageText.class);
+        assertTrue(edits.size() >= 2);
+        EditMessageText first = edits.getFirst();
+        assertEquals(7, first.getMessageId());
+        assertNull(first.getParseMode());
+        EditMessageText last = edits.getLast();
+        assertEquals("Hello *world*\\.", last.getText());
+        assertEquals(ParseMode.MARKDOWNV2, last.getParseMode());
+    }
+
+    /**
+     * Pieces arriving before the edit interval only show up with the final answer.
+     */
+    @Test
+    void editsAreThrottled() throws Exception {
+        TelegramClient client = client();
+        StreamingReply reply = new StreamingReply(1L, outbound, client, 60_000, answer -> {
+            throw new AssertionError("Answer was already shown");
+        });
+
+        reply.append("one");
+        verify(client, timeout(1000)).executeAsync(any(SendMessage.class));
+        Thread.sleep(100);
+        for (String piece : List.of(" two", " three", " four")) reply.append(piece);
+        Thread.sleep(100);
+        verify(client, never()).executeAsync(any(EditMessageText.class));
+
+        reply.finish("one two three four").get(1, TimeUnit.SECONDS);
+        verify(client, times(1)).executeAsync(any(EditMessageText.class));
+    }
+
+    /**
+     * Answers longer than a message continue on new messages once done.
+     */
+    @Test
+    void longAnswerContinuesOnNewMessages() throws Exception {
+        TelegramClient client = client();
+        StreamingReply reply = new StreamingReply(1L, outbound, client, 60_000, answer -> {
+            throw new AssertionError("Answer was already shown");
+        });
+        String answer = "a".repeat(3000) + "\n\n" + "b".repeat(3000);
+
+        reply.append(answer);
+        reply.finish(answer).get(1, TimeUnit.SECONDS);
+
+        List<EditMessageText> edits = calls(client, EditMessageText.class);
+        assertEquals(1, edits.size());
+        assertEquals("a".repeat(3000), edits.getFirst().getText());
+        List<SendMessage> sent = calls(client, SendMessage.class);
+        assertEquals(2, sent.size());
+        assertEquals("b".repeat(3000), sent.getLast().getText());
+    }
+
+    /**
+     * Without any piece shown, the whole answer is sent as a regular message.
+     */
+    @Test
+    void nothingShownSendsWholeAnswer() throws Exception {
+        TelegramClient client = client();
+        AtomicReference<String> whole = new AtomicReference<>();
+        StreamingReply reply = new StreamingReply(1L, outbound, client, 0, answer -> {
+            whole.set(answer);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        reply.append("   ");
+        reply.finish("done").get(1, TimeUnit.SECONDS);
+
+        assertEquals("done", whole.get());
+        verifyNoInteractions(client);
+    }
+}
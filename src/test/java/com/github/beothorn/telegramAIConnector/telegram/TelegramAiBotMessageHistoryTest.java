@@ -7,9 +7,14 @@ import com.github.beothorn.telegramAIConnector.tasks.TaskScheduler;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
 import com.github.beothorn.telegramAIConnector.user.UserRepository;
 import com.github.beothorn.telegramAIConnector.telegram.Commands;
+import okhttp3.OkHttpClient;
+import org.awaitility.Awaitility;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.springframework.ai.chat.model.ChatModel;
+import org.telegram.telegrambots.meta.api.methods.ParseMode;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
@@ -21,8 +26,20 @@ import org.telegram.telegrambots.meta.api.objects.User;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class TelegramAiBotMessageHistoryTest {
@@ -30,19 +47,68 @@ public class TelegramAiBotMessageHistoryTest {
     @TempDir
     Path tempDir;
 
+    /**
+     * Client answering every call right away, as Telegram would.
+     */
+    private static TelegramClient asyncClient() {
+        return mock(TelegramClient.class, invocation ->
+            invocation.getMethod().getReturnType() == CompletableFuture.class
+                ? CompletableFuture.completedFuture(null)
+                : RETURNS_DEFAULTS.answer(invocation)
+        );
+    }
+
     private TelegramAiBot createBot(MessagesRepository messages, TelegramClient client) throws Exception {
-        TelegramAiBot bot = new TelegramAiBot(
+        return createBot(messages, client, 16384);
+    }
+
+    private TelegramAiBot createBot(
+            MessagesRepository messages,
+            TelegramClient client,
+            int messageAsFileAbove
+    ) throws Exception {
+        return createBot(
+                messages,
+                client,
                 mock(AiBotService.class),
-                mock(TaskScheduler.class),
                 mock(Authentication.class),
                 mock(UserRepository.class),
                 mock(Commands.class),
+                0,
+                messageAsFileAbove
+        );
+    }
+
+    private TelegramAiBot createBot(
+            MessagesRepository messages,
+            TelegramClient client,
+            AiBotService aiBotService,
+            Authentication authentication,
+            UserRepository users,
+            Commands commands,
+            int dedupWindow,
+            int messageAsFileAbove
+    ) throws Exception {
+        TelegramAiBot bot = new TelegramAiBot(
+                aiBotService,
+                mock(TaskScheduler.class),
+                authentication,
+                users,
+                commands,
                 messages,
                 mock(ChatModel.class),
                 mock(FalClient.class),
-                new ProcessingStatus(),
+                new ProcessingStatus(new ChatMailbox(0, 0)),
+                new UpdatePipeline(new ChatMailbox(0, 0), 0, 0, 0, 0, 0),
+                new MessageBurstCoalescer(0),
+                new UpdateDeduplicator(mock(UpdateOffsetRepository.class), dedupWindow, 100_000, 0),
+                new OutboundDispatcher(0, 0, 0),
+                new OkHttpClient(),
                 "token",
-                tempDir.toString()
+                tempDir.toString(),
+                messageAsFileAbove,
+                false,
+                0
         );
         Field f = TelegramAiBot.class.getDeclaredField("telegramClient");
         f.setAccessible(true);
@@ -56,12 +122,12 @@ public class TelegramAiBotMessageHistoryTest {
     @Test
     void sendMessageStoresHistory() throws Exception {
         MessagesRepository messages = mock(MessagesRepository.class);
-        TelegramClient client = mock(TelegramClient.class);
+        TelegramClient client = asyncClient();
         TelegramAiBot bot = createBot(messages, client);
 
-        bot.sendMessage(1L, "hi");
+        bot.sendMessage(1L, "hi").get(1, TimeUnit.SECONDS);
 
-        verify(client).execute(any(SendMessage.class));
+        verify(client).executeAsync(any(SendMessage.class));
         verify(messages).insertMessage("1", "assistant", "hi");
     }
 
@@ -71,13 +137,13 @@ public class TelegramAiBotMessageHistoryTest {
     @Test
     void sendFileStoresCaption() throws Exception {
         MessagesRepository messages = mock(MessagesRepository.class);
-        TelegramClient client = mock(TelegramClient.class);
+        TelegramClient client = asyncClient();
         TelegramAiBot bot = createBot(messages, client);
 
         File file = File.createTempFile("tmp", ".txt", tempDir.toFile());
         bot.sendFileWithCaption(2L, file.getAbsolutePath(), "cap");
 
-        verify(client).execute(any(SendDocument.class));
+        verify(client).executeAsync(any(SendDocument.class));
         verify(messages).insertMessage("2", "assistant", "cap");
     }
 
@@ -87,27 +153,22 @@ public class TelegramAiBotMessageHistoryTest {
     @Test
     void consumeCommandStoresBothMessages() throws Exception {
         MessagesRepository messages = mock(MessagesRepository.class);
-        TelegramClient client = mock(TelegramClient.class);
+        TelegramClient client = asyncClient();
         Commands commands = mock(Commands.class);
         when(commands.listUploadedFiles(1L)).thenReturn("files");
-        TelegramAiBot bot = new TelegramAiBot(
+        TelegramAiBot bot = createBot(
+                messages,
+                client,
                 mock(AiBotService.class),
-                mock(TaskScheduler.class),
                 mock(Authentication.class),
                 mock(UserRepository.class),
                 commands,
-                messages,
-                mock(ChatModel.class),
-                mock(FalClient.class),
-                new ProcessingStatus(),
-                "token",
-                tempDir.toString()
+                0,
+                16384
         );
-        Field f = TelegramAiBot.class.getDeclaredField("telegramClient");
-        f.setAccessible(true);
-        f.set(bot, client);
 
         Update u = new Update();
+        u.setUpdateId(1);
         Message m = new Message();
         Chat chat = new Chat(1L, "private");
         m.setChat(chat);
@@ -118,8 +179,301 @@ public class TelegramAiBotMessageHistoryTest {
 
         bot.consume(u);
 
-        verify(client).execute(any(SendMessage.class));
-        verify(messages).insertMessage("1", "user", "/list");
-        verify(messages).insertMessage("1", "assistant", "files");
+        verify(client, timeout(1000)).executeAsync(any(SendMessage.class));
+        verify(messages, timeout(1000)).insertMessage("1", "user", "/list");
+        verify(messages, timeout(1000)).insertMessage("1", "assistant", "files");
+        bot.shutdown();
+    }
+
+    /**
+     * An update only counts as processed once its answer was sent, so a restart while the model is
+     * still answering receives it again.
+     */
+    @Test
+    void updateIsProcessedOnceAnswered() throws Exception {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        TelegramClient client = asyncClient();
+        AiBotService aiBotService = mock(AiBotService.class);
+        CountDownLatch release = new CountDownLatch(1);
+        when(aiBotService.prompt(eq(1L), anyString(), any())).thenAnswer(invocation -> {
+            release.await();
+            return "answer";
+        });
+        TelegramAiBot bot = createBot(
+                messages,
+                client,
+                aiBotService,
+                mock(Authentication.class),
+                mock(UserRepository.class),
+                mock(Commands.class),
+                16,
+                16384
+        );
+        Field f = TelegramAiBot.class.getDeclaredField("deduplicator");
+        f.setAccessible(true);
+        UpdateDeduplicator deduplicator = (UpdateDeduplicator) f.get(bot);
+
+        Update u = new Update();
+        u.setUpdateId(5);
+        Message m = new Message();
+        m.setChat(new Chat(1L, "private"));
+        m.setFrom(new User(99L, "u", false));
+        m.setText("hello");
+        u.setMessage(m);
+        bot.consume(u);
+
+        verify(aiBotService, timeout(1000)).prompt(eq(1L), anyString(), any());
+        Thread.sleep(100);
+        assertEquals(0, deduplicator.lastProcessed());
+        release.countDown();
+        verify(client, timeout(1000)).executeAsync(any(SendMessage.class));
+        Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> deduplicator.lastProcessed() == 5);
+        bot.shutdown();
+    }
+
+    /**
+     * A message to an idle bot gets its answer and no queue notice.
+     */
+    @Test
+    void idleChatIsNotToldItIsQueued() throws Exception {
+        TelegramClient client = asyncClient();
+        AiBotService aiBotService = mock(AiBotService.class);
+        when(aiBotService.prompt(eq(1L), anyString(), any())).thenReturn("answer");
+        TelegramAiBot bot = createBot(
+                mock(MessagesRepository.class),
+                client,
+                aiBotService,
+                mock(Authentication.class),
+                mock(UserRepository.class),
+                mock(Commands.class),
+                0,
+                16384
+        );
+
+        bot.consume(update(1L, "u"));
+
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(client, timeout(1000)).executeAsync(sent.capture());
+        Thread.sleep(100);
+        verify(client, times(1)).executeAsync(any(SendMessage.class));
+        assertEquals("answer", sent.getValue().getText());
+        bot.shutdown();
+    }
+
+    /**
+     * Consuming an update does not wait for it to be handled.
+     */
+    @Test
+    void consumeDoesNotBlockPollingThread() throws Exception {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        TelegramClient client = asyncClient();
+        UserRepository users = mock(UserRepository.class);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(users).createOrUpdateUser(anyLong(), any(), any(), any());
+        TelegramAiBot bot = createBot(
+                messages,
+                client,
+                mock(AiBotService.class),
+                mock(Authentication.class),
+                users,
+                mock(Commands.class),
+                0,
+                16384
+        );
+
+        Update u = new Update();
+        u.setUpdateId(1);
+        Message m = new Message();
+        m.setChat(new Chat(1L, "private"));
+        m.setFrom(new User(99L, "u", false));
+        m.setText("/list");
+        u.setMessage(m);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> bot.consume(u));
+        verify(messages, never()).insertMessage(anyString(), anyString(), anyString());
+
+        release.countDown();
+        verify(messages, timeout(1000)).insertMessage("1", "user", "/list");
+        bot.shutdown();
+    }
+
+    private static final AtomicInteger updateIds = new AtomicInteger();
+
+    private static Update update(long chatId, String username) {
+        Update u = new Update();
+        u.setUpdateId(updateIds.incrementAndGet());
+        Message m = new Message();
+        m.setChat(new Chat(chatId, "private"));
+        User user = new User(chatId, "u", false);
+        user.setUserName(username);
+        m.setFrom(user);
+        m.setText("hi");
+        u.setMessage(m);
+        return u;
+    }
+
+    /**
+     * A batch is split by chat, a slow chat does not hold the others and each chat keeps its order.
+     */
+    @Test
+    void batchRunsChatsInParallelKeepingOrderPerChat() throws Exception {
+        UserRepository users = mock(UserRepository.class);
+        Authentication authentication = mock(Authentication.class);
+        when(authentication.isNotLogged(anyLong())).thenReturn(true);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(users).createOrUpdateUser(eq(1L), eq("first"), any(), any());
+        TelegramAiBot bot = createBot(
+                mock(MessagesRepository.class),
+                asyncClient(),
+                mock(AiBotService.class),
+                authentication,
+                users,
+                mock(Commands.class),
+                0,
+                16384
+        );
+
+        bot.consume(List.of(update(1L, "first"), update(2L, "other"), update(1L, "second")));
+
+        verify(users, timeout(1000)).createOrUpdateUser(eq(2L), eq("other"), any(), any());
+        verify(users, never()).createOrUpdateUser(eq(1L), eq("second"), any(), any());
+
+        release.countDown();
+        verify(users, timeout(1000)).createOrUpdateUser(eq(1L), eq("second"), any(), any());
+        InOrder chatOne = inOrder(users);
+        chatOne.verify(users).createOrUpdateUser(eq(1L), eq("first"), any(), any());
+        chatOne.verify(users).createOrUpdateUser(eq(1L), eq("second"), any(), any());
+        bot.shutdown();
+    }
+
+    /**
+     * An update delivered twice, as after a restart or a webhook retry, is answered once.
+     */
+    @Test
+    void duplicateUpdateIsProcessedOnce() throws Exception {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        TelegramClient client = asyncClient();
+        Commands commands = mock(Commands.class);
+        when(commands.listUploadedFiles(1L)).thenReturn("files");
+        TelegramAiBot bot = createBot(
+                messages,
+                client,
+                mock(AiBotService.class),
+                mock(Authentication.class),
+                mock(UserRepository.class),
+                commands,
+                16,
+                16384
+        );
+
+        Update u = update(1L, "u");
+        u.setUpdateId(7);
+        u.getMessage().setText("/list");
+
+        bot.consume(List.of(u, u));
+        bot.consume(u);
+
+        verify(messages, timeout(1000)).insertMessage("1", "assistant", "files");
+        Thread.sleep(100);
+        verify(commands, times(1)).listUploadedFiles(1L);
+        bot.shutdown();
+    }
+
+    /**
+     * Messages longer than Telegram accepts are sent in parts, in order, without a failed request
+     * first, and stored on the history once.
+     */
+    @Test
+    void longMessageIsSentInParts() throws Exception {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        TelegramClient client = asyncClient();
+        TelegramAiBot bot = createBot(messages, client);
+
+        String first = "a".repeat(3000);
+        String second = "b".repeat(3000);
+        String response = first + "\n\n" + second;
+        bot.sendMessage(1L, response).get(1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(client, times(2)).executeAsync(sent.capture());
+        assertEquals(List.of(first, second), sent.getAllValues().stream().map(SendMessage::getText).toList());
+        verify(messages, times(1)).insertMessage("1", "assistant", response);
+    }
+
+    /**
+     * Markdown parts are sent with markdown, a code block cut in two is closed and opened again.
+     */
+    @Test
+    void longMarkdownKeepsCodeBlocksValid() throws Exception {
+        TelegramClient client = asyncClient();
+        TelegramAiBot bot = createBot(mock(MessagesRepository.class), client);
+
+        String code = "line of code\n".repeat(600);
+        bot.sendMarkdownMessageAsync(1L, "```java\n" + code + "```").get(1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(client, times(2)).executeAsync(sent.capture());
+        for (SendMessage part : sent.getAllValues()) {
+            assertEquals(ParseMode.MARKDOWNV2, part.getParseMode());
+            assertTrue(part.getText().startsWith("```java\n"));
+            assertTrue(part.getText().endsWith("```"));
+        }
+    }
+
+    /**
+     * Markdown Telegram would refuse is escaped, so it is sent once with its formatting.
+     */
+    @Test
+    void badMarkdownIsSentInOneRequest() throws Exception {
+        TelegramClient client = asyncClient();
+        TelegramAiBot bot = createBot(mock(MessagesRepository.class), client);
+
+        bot.sendMarkdownMessageAsync(1L, "**Total:** 2 * 3 = 6 for my_var.").get(1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(client, times(1)).executeAsync(sent.capture());
+        assertEquals(ParseMode.MARKDOWNV2, sent.getValue().getParseMode());
+        assertEquals("*Total:* 2 \\* 3 \\= 6 for my\\_var\\.", sent.getValue().getText());
+    }
+
+    /**
+     * Messages above the configured size go as a file, which is deleted once sent.
+     */
+    @Test
+    void veryLongMessageIsSentAsFile() throws Exception {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        TelegramClient client = asyncClient();
+        TelegramAiBot bot = createBot(messages, client, 100);
+
+        String response = "x".repeat(101);
+        bot.sendMessage(1L, response).get(1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<SendDocument> sent = ArgumentCaptor.forClass(SendDocument.class);
+        verify(client).executeAsync(sent.capture());
+        verify(client, never()).executeAsync(any(SendMessage.class));
+        assertFalse(sent.getValue().getDocument().getNewMediaFile().exists());
+        verify(messages).insertMessage("1", "assistant", response);
+    }
+
+    /**
+     * Model answers sent as a file are not stored again, the chat memory already stored them.
+     */
+    @Test
+    void longModelAnswerIsNotStoredAgain() throws Exception {
+        MessagesRepository messages = mock(MessagesRepository.class);
+        TelegramClient client = asyncClient();
+        TelegramAiBot bot = createBot(messages, client, 100);
+
+        bot.sendMarkdownMessageAsync(1L, "**x**".repeat(30)).get(1, TimeUnit.SECONDS);
+
+        verify(client).executeAsync(any(SendDocument.class));
+        verify(client, never()).executeAsync(any(SendMessage.class));
+        verify(messages, never()).insertMessage(anyString(), anyString(), anyString());
     }
 }
@@ -3,6 +3,8 @@ package com.github.beothorn.telegramAIConnector.telegram;
 import com.github.beothorn.telegramAIConnector.tasks.TaskScheduler;
 import com.github.beothorn.telegramAIConnector.utils.InstantUtils;
 import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.SearchPage;
+import com.github.beothorn.telegramAIConnector.user.SearchResult;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
@@ -10,6 +12,7 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -149,4 +152,24 @@ public class TelegramToolsTest {
         String msg = tools.deleteFile("../bad.txt");
         assertEquals("'../bad.txt' is not a valid file name.", msg);
     }
+
+    /**
+     * Searches only the history of the bound chat and formats the results.
+     */
+    @Test
+    void searchHistoryIsLimitedToChat() {
+        TaskScheduler scheduler = mock(TaskScheduler.class);
+        TelegramAiBot bot = mock(TelegramAiBot.class);
+        MessagesRepository messages = mock(MessagesRepository.class);
+        when(messages.search("garden", 1L, 0, 10)).thenReturn(new SearchPage(
+            List.of(new SearchResult(3, 1, "user", "my [garden]", "2025-01-01 10:00:00")),
+            null
+        ));
+        TelegramTools tools = new TelegramTools(bot, scheduler, 1L, tempDir.toString(), messages);
+
+        String result = tools.searchHistory("garden");
+
+        assertTrue(result.contains("[2025-01-01 10:00:00] user: my [garden]"), result);
+        verify(messages).search("garden", 1L, 0, 10);
+    }
 }
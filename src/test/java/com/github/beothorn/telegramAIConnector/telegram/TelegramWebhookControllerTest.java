@@ -0,0 +1,114 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Plays Telegram, posting recorded updates to the webhook.
+ */
+public class TelegramWebhookControllerTest {
+
+    private static final String PATH = "/telegram/webhook";
+    private static final String SECRET = "s3cret_token-1";
+
+    private TelegramAiBot bot;
+    private MockMvc telegram;
+
+    @BeforeEach
+    void setUp() {
+        bot = mock(TelegramAiBot.class);
+        telegram = MockMvcBuilders.standaloneSetup(new TelegramWebhookController(bot, SECRET))
+            .addPlaceholderValue("telegram.webhook.path", PATH)
+            .build();
+    }
+
+    private static byte[] recorded(final String name) throws IOException {
+        try (InputStream in = TelegramWebhookControllerTest.class.getResourceAsStream("/updates/" + name)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void recordedUpdateIsHandedToTheBot() throws Exception {
+        telegram.perform(post(PATH)
+                .header(TelegramWebhookController.SECRET_HEADER, SECRET)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(recorded("textMessage.json")))
+            .andExpect(status().isOk());
+
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bot).consume(update.capture());
+        assertEquals(100000001, update.getValue().getUpdateId());
+        assertEquals(123L, update.getValue().getMessage().getChatId());
+        assertEquals("Hello bot", update.getValue().getMessage().getText());
+    }
+
+    @Test
+    void updatesWithoutMessageAreAlsoAccepted() throws Exception {
+        telegram.perform(post(PATH)
+                .header(TelegramWebhookController.SECRET_HEADER, SECRET)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(recorded("editedMessage.json")))
+            .andExpect(status().isOk());
+
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bot).consume(update.capture());
+        assertTrue(update.getValue().hasEditedMessage());
+    }
+
+    @Test
+    void wrongSecretIsRefused() throws Exception {
+        telegram.perform(post(PATH)
+                .header(TelegramWebhookController.SECRET_HEADER, "guess")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(recorded("textMessage.json")))
+            .andExpect(status().isUnauthorized());
+
+        verify(bot, never()).consume(any(Update.class));
+    }
+
+    @Test
+    void missingSecretIsRefused() throws Exception {
+        telegram.perform(post(PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(recorded("textMessage.json")))
+            .andExpect(status().isUnauthorized());
+
+        verify(bot, never()).consume(any(Update.class));
+    }
+
+    @Test
+    void malformedBodyIsBadRequest() throws Exception {
+        telegram.perform(post(PATH)
+                .header(TelegramWebhookController.SECRET_HEADER, SECRET)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{not json"))
+            .andExpect(status().isBadRequest());
+
+        verify(bot, never()).consume(any(Update.class));
+    }
+
+    @Test
+    void secretIsRequired() {
+        assertThrows(IllegalArgumentException.class, () -> new TelegramWebhookController(bot, ""));
+        assertThrows(IllegalArgumentException.class, () -> new TelegramWebhookController(bot, "has spaces"));
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    /**
+     * A full bucket allows a burst, then one call per refill.
+     */
+    @Test
+    void burstThenPaced() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertTrue(bucket.tryTake(0));
+        assertTrue(bucket.tryTake(0));
+        assertTrue(bucket.tryTake(0));
+        assertFalse(bucket.tryTake(0));
+        assertEquals(SECOND / 2, bucket.nanosUntilAvailable(0));
+
+        assertTrue(bucket.tryTake(SECOND / 2));
+        assertFalse(bucket.tryTake(SECOND / 2));
+    }
+
+    /**
+     * Idle time does not save more than the burst.
+     */
+    @Test
+    void neverHoldsMoreThanBurst() {
+        TokenBucket bucket = new TokenBucket(1, 2, 0);
+        bucket.tryTake(0);
+        assertFalse(bucket.isFull(0));
+        assertTrue(bucket.isFull(100 * SECOND));
+        assertTrue(bucket.tryTake(100 * SECOND));
+        assertTrue(bucket.tryTake(100 * SECOND));
+        assertFalse(bucket.tryTake(100 * SECOND));
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class UpdateDeduplicatorTest {
+
+    private static UpdateDeduplicator deduplicator(long lastUpdateId, int window) {
+        UpdateOffsetRepository repository = mock(UpdateOffsetRepository.class);
+        when(repository.getLastUpdateId()).thenReturn(lastUpdateId);
+        return new UpdateDeduplicator(repository, window, 1000, 0);
+    }
+
+    /**
+     * A retried update is only processed the first time.
+     */
+    @Test
+    void sameUpdateIsOnlyProcessedOnce() {
+        UpdateDeduplicator deduplicator = deduplicator(0, 16);
+        assertTrue(deduplicator.begin(10));
+        assertFalse(deduplicator.begin(10));
+        deduplicator.complete(10);
+        assertFalse(deduplicator.begin(10));
+    }
+
+    /**
+     * Updates processed before a restart are skipped when Telegram sends them again.
+     */
+    @Test
+    void updatesProcessedBeforeRestartAreSkipped() {
+        UpdateDeduplicator deduplicator = deduplicator(20, 16);
+        assertFalse(deduplicator.begin(19));
+        assertFalse(deduplicator.begin(20));
+        assertTrue(deduplicator.begin(21));
+    }
+
+    /**
+     * When Telegram starts the ids over, far below the saved one, updates are processed again
+     * and the offset follows the new ids.
+     */
+    @Test
+    void idsStartingOverResetTheOffset() {
+        UpdateDeduplicator deduplicator = deduplicator(500_000, 16);
+        assertFalse(deduplicator.begin(499_500));
+        assertTrue(deduplicator.begin(10));
+        assertTrue(deduplicator.begin(11));
+        deduplicator.complete(10);
+        assertEquals(10, deduplicator.lastProcessed());
+    }
+
+    /**
+     * Only the most recent ids are remembered.
+     */
+    @Test
+    void oldIdsLeaveTheWindow() {
+        UpdateDeduplicator deduplicator = deduplicator(0, 2);
+        assertTrue(deduplicator.begin(1));
+        assertTrue(deduplicator.begin(2));
+        assertTrue(deduplicator.begin(3));
+        assertFalse(deduplicator.begin(2));
+        assertFalse(deduplicator.begin(3));
+        assertTrue(deduplicator.begin(1));
+    }
+
+    /**
+     * An update finishing before an older one does not move the offset past the older one,
+     * or the older would be skipped after a restart.
+     */
+    @Test
+    void offsetOnlyCoversUpdatesProcessedWithAllBefore() {
+        UpdateDeduplicator deduplicator = deduplicator(0, 16);
+        deduplicator.begin(1);
+        deduplicator.begin(2);
+        deduplicator.begin(3);
+
+        deduplicator.complete(2);
+        assertEquals(0, deduplicator.lastProcessed());
+        deduplicator.complete(1);
+        assertEquals(2, deduplicator.lastProcessed());
+        deduplicator.complete(3);
+        assertEquals(3, deduplicator.lastProcessed());
+        deduplicator.complete(3);
+        assertEquals(3, deduplicator.lastProcessed());
+    }
+
+    /**
+     * The offset is only written when it moved.
+     */
+    @Test
+    void flushSavesOffsetWhenItChanged() {
+        UpdateOffsetRepository repository = mock(UpdateOffsetRepository.class);
+        when(repository.getLastUpdateId()).thenReturn(5L);
+        UpdateDeduplicator deduplicator = new UpdateDeduplicator(repository, 16, 1000, 0);
+
+        deduplicator.flush();
+        deduplicator.begin(6);
+        deduplicator.flush();
+        verify(repository, never()).setLastUpdateId(anyLong());
+
+        deduplicator.complete(6);
+        deduplicator.flush();
+        deduplicator.flush();
+        verify(repository, times(1)).setLastUpdateId(6L);
+
+        deduplicator.begin(7);
+        deduplicator.complete(7);
+        deduplicator.shutdown();
+        verify(repository).setLastUpdateId(7L);
+    }
+}
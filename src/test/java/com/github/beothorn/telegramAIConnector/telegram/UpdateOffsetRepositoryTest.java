@@ -0,0 +1,38 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UpdateOffsetRepositoryTest {
+
+    @TempDir
+    Path folder;
+
+    /**
+     * The last processed update survives reopening the database.
+     */
+    @Test
+    void storesLastUpdateId() {
+        String url = "jdbc:sqlite:" + folder.resolve("o.db");
+        try (Database database = SQLite.open(url, 1)) {
+            UpdateOffsetRepository repo = new UpdateOffsetRepository();
+            repo.initDatabase(database);
+            assertEquals(0L, repo.getLastUpdateId());
+
+            repo.setLastUpdateId(41L);
+            repo.setLastUpdateId(42L);
+        }
+
+        try (Database database = SQLite.open(url, 1)) {
+            UpdateOffsetRepository reopened = new UpdateOffsetRepository();
+            reopened.initDatabase(database);
+            assertEquals(42L, reopened.getLastUpdateId());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.beothorn.telegramAIConnector.telegram;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdatePipelineTest {
+
+    private final ChatMailbox infer = new ChatMailbox(0, 0);
+    private final UpdatePipeline pipeline = new UpdatePipeline(infer, 2, 2, 2, 2, 0);
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+        infer.shutdown();
+    }
+
+    /**
+     * Work handed from stage to stage keeps the order of each chat.
+     */
+    @Test
+    void chainedStagesKeepOrder() {
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        IntStream.range(0, 30).forEach(i -> pipeline.submit(PipelineStage.AUTHENTICATE, 1L, () ->
+            pipeline.submit(PipelineStage.DISPATCH, 1L, () ->
+                pipeline.submit(PipelineStage.DELIVER, 1L, () -> delivered.add(i)))));
+
+        Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> delivered.size() == 30);
+        assertEquals(IntStream.range(0, 30).boxed().toList(), delivered);
+    }
+
+    /**
+     * Each stage reports its own counts, in pipeline order.
+     */
+    @Test
+    void statsPerStage() {
+        pipeline.recordDecode(2_000_000);
+        pipeline.submit(PipelineStage.PERSIST, 1L, () -> "").join();
+        assertSame(infer, pipeline.stage(PipelineStage.INFER));
+        assertThrows(IllegalArgumentException.class, () -> pipeline.stage(PipelineStage.DECODE));
+
+        List<StageStats> stats = pipeline.stats();
+        assertEquals(List.of(PipelineStage.values()), stats.stream().map(StageStats::stage).toList());
+        assertEquals(new StageTimings(1, 0, 2.0), stats.get(0).timings());
+        Awaitility.await().atMost(Duration.ofSeconds(1))
+            .until(() -> pipeline.stats().get(PipelineStage.PERSIST.ordinal()).timings().completed() == 1);
+        assertEquals(0, pipeline.stats().get(PipelineStage.AUTHENTICATE.ordinal()).timings().completed());
+    }
+}
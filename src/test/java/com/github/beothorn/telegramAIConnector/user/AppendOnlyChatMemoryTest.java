@@ -0,0 +1,78 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AppendOnlyChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MessagesRepositoryFixture fixture;
+    private MessagesRepository repo;
+    private AppendOnlyChatMemory memory;
+
+    @BeforeEach
+    void setUp() {
+        fixture = MessagesRepositoryFixture.open(tempDir, 3);
+        repo = fixture.repo();
+        memory = new AppendOnlyChatMemory(repo);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * All messages added in one call are stored, not only the last one.
+     */
+    @Test
+    void addStoresEveryMessage() {
+        memory.add("1", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+
+        List<StoredMessage> stored = repo.getMessagePage("1", null, 10).messages();
+        assertEquals(2, stored.size());
+        assertEquals("a1", stored.get(0).content());
+        assertEquals("assistant", stored.get(0).role());
+        assertEquals("q1", stored.get(1).content());
+        assertEquals("user", stored.get(1).role());
+    }
+
+    /**
+     * Get returns the last messages in chronological order limited by the window.
+     */
+    @Test
+    void getReturnsWindow() {
+        memory.add("1", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        memory.add("1", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+
+        List<Message> window = memory.get("1");
+
+        assertEquals(List.of("a1", "q2", "a2"), window.stream().map(Message::getText).toList());
+        assertEquals(MessageType.ASSISTANT, window.get(0).getMessageType());
+        assertEquals(MessageType.USER, window.get(1).getMessageType());
+    }
+
+    /**
+     * Clear deletes the conversation.
+     */
+    @Test
+    void clearDeletesConversation() {
+        memory.add("1", List.of(new UserMessage("q1")));
+        memory.clear("1");
+        assertTrue(memory.get("1").isEmpty());
+        assertTrue(repo.getMessagePage("1", null, 10).messages().isEmpty());
+    }
+}
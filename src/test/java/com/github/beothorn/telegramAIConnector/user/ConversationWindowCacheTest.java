@@ -0,0 +1,101 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConversationWindowCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    /**
+     * The window keeps only the last messages, oldest first.
+     */
+    @Test
+    void ringKeepsLastMessages() {
+        ConversationWindowCache cache = new ConversationWindowCache(3, 10);
+        cache.put(1, List.of(new UserMessage("a"), new AssistantMessage("b")));
+        cache.appendIfPresent(1, new UserMessage("c"));
+        cache.appendIfPresent(1, new AssistantMessage("d"));
+        cache.appendIfPresent(1, new UserMessage("e"));
+
+        assertEquals(List.of("c", "d", "e"), texts(cache.get(1).orElseThrow()));
+    }
+
+    /**
+     * Appending to a conversation that is not cached does not create a partial window.
+     */
+    @Test
+    void appendWithoutEntryIsIgnored() {
+        ConversationWindowCache cache = new ConversationWindowCache(3, 10);
+        cache.appendIfPresent(1, new UserMessage("a"));
+        assertTrue(cache.get(1).isEmpty());
+    }
+
+    /**
+     * The least recently used conversation is evicted first.
+     */
+    @Test
+    void evictsLeastRecentlyUsed() {
+        ConversationWindowCache cache = new ConversationWindowCache(3, 2);
+        cache.put(1, List.of(new UserMessage("one")));
+        cache.put(2, List.of(new UserMessage("two")));
+        cache.get(1);
+        cache.put(3, List.of(new UserMessage("three")));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(1).isPresent());
+        assertTrue(cache.get(2).isEmpty());
+        assertTrue(cache.get(3).isPresent());
+    }
+
+    /**
+     * Returned windows are copies, changing them does not change the cache.
+     */
+    @Test
+    void getReturnsCopy() {
+        ConversationWindowCache cache = new ConversationWindowCache(3, 2);
+        cache.put(1, List.of(new UserMessage("one")));
+        cache.get(1).orElseThrow().clear();
+        assertEquals(1, cache.get(1).orElseThrow().size());
+    }
+
+    /**
+     * The repository keeps the cached window in sync with inserts, edits and deletes.
+     */
+    @Test
+    void repositoryKeepsWindowInSync() {
+        try (MessagesRepositoryFixture fixture = MessagesRepositoryFixture.open(tempDir, 2)) {
+            MessagesRepository repo = fixture.repo();
+
+            repo.insertMessage("1", "user", "a");
+            assertEquals(List.of("a"), texts(repo.findByConversationId("1")));
+
+            repo.insertMessage("1", "assistant", "b");
+            repo.insertMessage("1", "user", "c");
+            assertEquals(List.of("b", "c"), texts(repo.findByConversationId("1")));
+
+            long idOfC = repo.getMessagePage("1", null, 1).messages().getFirst().id();
+            repo.updateMessage(idOfC, "edited");
+            assertEquals(List.of("b", "edited"), texts(repo.findByConversationId("1")));
+
+            repo.deleteMessage(idOfC);
+            assertEquals(List.of("a", "b"), texts(repo.findByConversationId("1")));
+
+            repo.deleteByConversationId("1");
+            assertTrue(repo.findByConversationId("1").isEmpty());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageSearchTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MessagesRepositoryFixture fixture;
+    private MessagesRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        fixture = MessagesRepositoryFixture.open(tempDir, 10);
+        repo = fixture.repo();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    private static List<Long> ids(SearchPage page) {
+        return page.results().stream().map(SearchResult::id).toList();
+    }
+
+    /**
+     * Inserted messages are searchable, with a highlighted snippet, and results can be limited to a chat.
+     */
+    @Test
+    void findsInsertedMessages() {
+        repo.insertMessage("1", "user", "I planted tomatoes in the garden");
+        repo.insertMessage("1", "assistant", "Tomatoes need a lot of sun");
+        repo.insertMessage("2", "user", "My garden is full of weeds");
+
+        SearchPage all = repo.search("garden", null, 0, 10);
+        assertEquals(2, all.results().size());
+        assertNull(all.nextPage());
+
+        SearchPage chat1 = repo.search("garden", 1L, 0, 10);
+        assertEquals(1, chat1.results().size());
+        SearchResult result = chat1.results().getFirst();
+        assertEquals(1, result.chatId());
+        assertEquals("user", result.role());
+        assertTrue(result.snippet().contains("[garden]"), result.snippet());
+
+        // Prefix match on the last word and diacritics are ignored
+        assertEquals(2, repo.search("tomat", 1L, 0, 10).results().size());
+        assertEquals(1, repo.search("gärden weeds", null, 0, 10).results().size());
+    }
+
+    /**
+     * The index follows edits and deletes.
+     */
+    @Test
+    void indexFollowsUpdatesAndDeletes() {
+        repo.insertMessage("1", "user", "old words");
+        long id = repo.getMessagePage("1", null, 1).messages().getFirst().id();
+
+        repo.updateMessage(id, "new text");
+        assertTrue(repo.search("old", null, 0, 10).results().isEmpty());
+        assertEquals(List.of(id), ids(repo.search("new", null, 0, 10)));
+
+        repo.deleteMessage(id);
+        assertTrue(repo.search("new", null, 0, 10).results().isEmpty());
+    }
+
+    /**
+     * Results are paginated.
+     */
+    @Test
+    void paginates() {
+        for (int i = 0; i < 5; i++) {
+            repo.insertMessage("1", "user", "apple number " + i);
+        }
+        SearchPage first = repo.search("apple", null, 0, 2);
+        assertEquals(2, first.results().size());
+        assertEquals(1, first.nextPage());
+        SearchPage last = repo.search("apple", null, 2, 2);
+        assertEquals(1, last.results().size());
+        assertNull(last.nextPage());
+    }
+
+    /**
+     * Query syntax characters from users don't break the search.
+     */
+    @Test
+    void userInputIsQuoted() {
+        repo.insertMessage("1", "user", "what is AND or NOT");
+        assertEquals("\"a\" \"b\"\"c\"*", MessagesRepository.toMatchQuery("a  b\"c"));
+        assertEquals("", MessagesRepository.toMatchQuery(" !!! "));
+        assertTrue(repo.search("!!!", null, 0, 10).results().isEmpty());
+        assertEquals(1, repo.search("AND (NOT \"", null, 0, 10).results().size());
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.Message;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class MessageWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Database database;
+
+    @BeforeEach
+    void setUp() {
+        database = SQLite.open("jdbc:sqlite:" + tempDir.resolve("w.db"), 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    private int countRows() throws SQLException {
+        return database.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT COUNT(*) FROM messages").executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    /**
+     * Pending inserts are only written on flush, in the order they were queued.
+     */
+    @Test
+    void flushCommitsPendingMessagesInOrder() throws SQLException {
+        MessageWriter writer = new MessageWriter(database, 60_000, 1000);
+        writer.enqueue(1, MessageRole.USER, "first");
+        writer.enqueue(1, MessageRole.ASSISTANT, "second");
+        writer.enqueue(2, MessageRole.USER, "other chat");
+        assertEquals(3, writer.pendingCount());
+        assertEquals(0, countRows());
+
+        writer.flush();
+
+        assertEquals(0, writer.pendingCount());
+        assertEquals(3, countRows());
+        List<String> contents = database.read(conn -> {
+            List<String> result = new ArrayList<>();
+            try (ResultSet rs = conn.prepare("SELECT content FROM messages WHERE chatId = 1 ORDER BY timestamp, id")
+                    .executeQuery()) {
+                while (rs.next()) result.add(rs.getString(1));
+            }
+            return result;
+        });
+        assertEquals(List.of("first", "second"), contents);
+        writer.close();
+    }
+
+    /**
+     * A full batch is written without waiting for the linger time.
+     */
+    @Test
+    void fullBatchIsWrittenRightAway() {
+        MessageWriter writer = new MessageWriter(database, 60_000, 2);
+        writer.enqueue(1, MessageRole.USER, "a");
+        writer.enqueue(1, MessageRole.USER, "b");
+        await().atMost(Duration.ofSeconds(5)).until(() -> countRows() == 2);
+        writer.close();
+    }
+
+    /**
+     * Messages are written after the linger time even if the batch is not full.
+     */
+    @Test
+    void lingeringMessagesAreWritten() {
+        MessageWriter writer = new MessageWriter(database, 5, 1000);
+        writer.enqueue(1, MessageRole.USER, "a");
+        await().atMost(Duration.ofSeconds(5)).until(() -> countRows() == 1);
+        writer.close();
+    }
+
+    /**
+     * Closing the writer commits what is still queued.
+     */
+    @Test
+    void closeFlushes() throws SQLException {
+        MessageWriter writer = new MessageWriter(database, 60_000, 1000);
+        writer.enqueue(1, MessageRole.USER, "a");
+        writer.close();
+        assertEquals(1, countRows());
+    }
+
+    /**
+     * A failed batch does not fail the flush, it is retried in the background and dropped once it
+     * failed too many times.
+     */
+    @Test
+    void failingBatchIsRetriedThenDropped() throws SQLException {
+        Database failing = mock(Database.class);
+        when(failing.write(any())).thenThrow(new SQLException("disk I/O error"));
+        MessageWriter writer = new MessageWriter(failing, 60_000, 1000);
+        writer.enqueue(1, MessageRole.USER, "a");
+        writer.enqueue(1, MessageRole.USER, "b");
+
+        writer.flush();
+        for (int attempt = 2; attempt < 5; attempt++) {
+            writer.retryFailed();
+            assertEquals(2, writer.pendingCount());
+        }
+        writer.retryFailed();
+
+        assertEquals(0, writer.pendingCount());
+        assertEquals(2, writer.droppedCount());
+        writer.flush();
+        writer.retryFailed();
+        // One batch, then four retries of each message
+        verify(failing, times(9)).write(any());
+        writer.close();
+    }
+
+    /**
+     * Messages of other chats are still written while a failed batch waits to be retried.
+     */
+    @Test
+    void failedBatchDoesNotHoldOtherWrites() throws SQLException {
+        Database flaky = spy(database);
+        doThrow(new SQLException("disk I/O error")).doCallRealMethod().when(flaky).write(any());
+        MessageWriter writer = new MessageWriter(flaky, 60_000, 1000);
+        writer.enqueue(1, MessageRole.USER, "a");
+        writer.flush();
+        assertEquals(0, countRows());
+
+        writer.enqueue(2, MessageRole.USER, "b");
+        writer.flush();
+        assertEquals(1, countRows());
+        assertEquals(1, writer.pendingCount());
+
+        writer.retryFailed();
+        assertEquals(2, countRows());
+        assertEquals(0, writer.pendingCount());
+        writer.close();
+    }
+
+    /**
+     * The repository sees its own pending writes.
+     */
+    @Test
+    void repositoryReadsItsOwnWrites() {
+        try (MessagesRepositoryFixture fixture = MessagesRepositoryFixture.open(tempDir, 10)) {
+            MessagesRepository repo = fixture.repo();
+            repo.insertMessage("1", "user", "hi");
+            repo.insertMessage("1", "assistant", "hello");
+
+            List<Message> messages = repo.findByConversationId("1");
+
+            assertEquals(2, messages.size());
+            assertEquals("hi", messages.get(0).getText());
+            assertEquals("hello", messages.get(1).getText());
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package com.github.beothorn.telegramAIConnector.user;
 
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -12,23 +19,132 @@ public class MessagesRepositoryCrudTest {
     @TempDir
     Path tempDir;
 
+    private MessagesRepositoryFixture fixture;
+    private MessagesRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        fixture = MessagesRepositoryFixture.open(tempDir, 50, 5, 64);
+        repo = fixture.repo();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
     /**
      * Stores a message, updates its content and then deletes it.
      */
     @Test
     void insertUpdateDeleteMessage() {
-        MessagesRepository repo = new MessagesRepository(50);
-        String url = "jdbc:sqlite:" + tempDir.resolve("m.db");
-        repo.initDatabase(url);
 
         repo.insertMessage("1", "user", "hi");
-        List<StoredMessage> msgs = repo.getMessages("1", 50, 0);
+        List<StoredMessage> msgs = repo.getMessagePage("1", null, 50).messages();
         assertEquals(1, msgs.size());
 
         repo.updateMessage(msgs.get(0).id(), "bye");
-        assertEquals("bye", repo.getMessages("1", 50, 0).get(0).content());
+        assertEquals("bye", repo.getMessagePage("1", null, 50).messages().get(0).content());
 
         repo.deleteMessage(msgs.get(0).id());
-        assertTrue(repo.getMessages("1", 50, 0).isEmpty());
+        assertTrue(repo.getMessagePage("1", null, 50).messages().isEmpty());
+    }
+
+    /**
+     * Walks a conversation page by page using the returned cursors.
+     */
+    @Test
+    void keysetPagination() {
+        for (int i = 0; i < 5; i++) {
+            repo.insertMessage("1", "user", "m" + i);
+        }
+        repo.insertMessage("2", "user", "other");
+
+        MessagePage first = repo.getMessagePage("1", null, 2);
+        assertEquals(List.of("m4", "m3"), first.messages().stream().map(StoredMessage::content).toList());
+        assertNotNull(first.next());
+
+        MessagePage second = repo.getMessagePage("1", MessageCursor.parse(first.next()), 2);
+        assertEquals(List.of("m2", "m1"), second.messages().stream().map(StoredMessage::content).toList());
+        assertNotNull(second.next());
+
+        MessagePage last = repo.getMessagePage("1", MessageCursor.parse(second.next()), 2);
+        assertEquals(List.of("m0"), last.messages().stream().map(StoredMessage::content).toList());
+        assertNull(last.next());
+    }
+
+    /**
+     * Cursors survive a round trip through text and bad ones are rejected.
+     */
+    @Test
+    void cursorParsing() {
+        MessageCursor cursor = new MessageCursor(1700000000000L, 42);
+        assertEquals(cursor, MessageCursor.parse(cursor.toString()));
+        assertThrows(IllegalArgumentException.class, () -> MessageCursor.parse("abc"));
+        assertThrows(IllegalArgumentException.class, () -> MessageCursor.parse("1_x"));
+    }
+
+    /**
+     * Full conversation reads return the messages oldest first.
+     */
+    @Test
+    void fullConversationIsChronological() {
+        repo.insertMessage("1", "user", "first");
+        repo.insertMessage("1", "assistant", "second");
+        repo.insertMessage("1", "user", "third");
+
+        assertEquals(
+            List.of("first", "second", "third"),
+            repo.getConversations("1").stream().map(Message::getText).toList()
+        );
+        List<String> streamed = new ArrayList<>();
+        repo.forEachMessage("1", m -> streamed.add(m.content()));
+        assertEquals(List.of("first", "second", "third"), streamed);
+    }
+
+    /**
+     * Long conversations are streamed a page at a time, the reader is free while the consumer runs.
+     */
+    @Test
+    void forEachMessageReadsPages() {
+        for (int i = 0; i < 1200; i++) {
+            repo.insertMessage("1", "user", "m" + i);
+        }
+
+        List<String> streamed = new ArrayList<>();
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> repo.forEachMessage("1", m -> {
+            // Needs the only reader connection
+            if (streamed.isEmpty()) repo.getMessagePage("1", null, 1);
+            streamed.add(m.content());
+        }));
+        assertEquals(1200, streamed.size());
+        assertEquals("m0", streamed.getFirst());
+        assertEquals("m1199", streamed.getLast());
+    }
+
+    /**
+     * Saving a conversation replaces all its messages, in order, and leaves other chats alone.
+     */
+    @Test
+    void saveAllReplacesConversation() {
+        repo.insertMessage("1", "user", "old question");
+        repo.insertMessage("1", "assistant", "old answer");
+        repo.insertMessage("2", "user", "other");
+        assertEquals(2, repo.findByConversationId("1").size());
+
+        repo.saveAll("1", List.of(new UserMessage("q1"), new AssistantMessage("a1"), new UserMessage("q2")));
+
+        assertEquals(
+            List.of("q1", "a1", "q2"),
+            repo.findByConversationId("1").stream().map(Message::getText).toList()
+        );
+        assertEquals(
+            List.of("q1", "a1", "q2"),
+            repo.getConversations("1").stream().map(Message::getText).toList()
+        );
+        assertEquals(List.of("other"), repo.getConversations("2").stream().map(Message::getText).toList());
+
+        repo.saveAll("1", List.of());
+        assertTrue(repo.getConversations("1").isEmpty());
     }
 }
@@ -0,0 +1,79 @@
+package com.github.beothorn.telegramAIConnector.user;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
+
+import java.nio.file.Path;
+
+/**
+ * A messages repository on its own database in a test folder, archiving to {@code archive} there.
+ * Closing it commits the pending messages and then closes the database.
+ */
+public class MessagesRepositoryFixture implements AutoCloseable {
+
+    private final Database database;
+    private final MessagesRepository repo;
+
+    private MessagesRepositoryFixture(
+        final Database database,
+        final MessagesRepository repo
+    ) {
+        this.database = database;
+        this.repo = repo;
+    }
+
+    /**
+     * Opens a repository whose writes are only committed when read or closed.
+     *
+     * @param folder                 folder for the database and the archive
+     * @param messagesOnConversation messages on the conversation window
+     * @return the open repository
+     */
+    public static MessagesRepositoryFixture open(
+        final Path folder,
+        final int messagesOnConversation
+    ) {
+        return open(folder, messagesOnConversation, 60_000, 1000);
+    }
+
+    /**
+     * Opens a repository.
+     *
+     * @param folder                 folder for the database and the archive
+     * @param messagesOnConversation messages on the conversation window
+     * @param writeLingerMillis      how long writes wait for a batch
+     * @param writeBatchSize         most writes committed together
+     * @return the open repository
+     */
+    public static MessagesRepositoryFixture open(
+        final Path folder,
+        final int messagesOnConversation,
+        final long writeLingerMillis,
+        final int writeBatchSize
+    ) {
+        final Database database = SQLite.open("jdbc:sqlite:" + folder.resolve("messages.db"), 1);
+        final MessagesRepository repo = new MessagesRepository(
+            messagesOnConversation,
+            writeLingerMillis,
+            writeBatchSize,
+            16,
+            folder.resolve("archive").toString()
+        );
+        repo.initDatabase(database);
+        return new MessagesRepositoryFixture(database, repo);
+    }
+
+    public MessagesRepository repo() {
+        return repo;
+    }
+
+    public Database database() {
+        return database;
+    }
+
+    @Override
+    public void close() {
+        repo.close();
+        database.close();
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.beothorn.telegramAIConnector.user;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -18,18 +20,20 @@ public class UserRepositoryTest {
     void createAndRetrieveUser() {
         UserRepository repo = new UserRepository();
         String url = "jdbc:sqlite:" + tempDir.resolve("u.db");
-        repo.initDatabase(url);
+        try (Database database = SQLite.open(url, 1)) {
+            repo.initDatabase(database);
 
-        repo.createOrUpdateUser(1L, "user", "first", "last");
-        UserInfo info = repo.getUser(1L);
-        assertNotNull(info);
-        assertEquals(1L, info.chatId());
-        assertEquals("user", info.username());
-        assertEquals("first", info.firstName());
-        assertEquals("last", info.lastName());
+            repo.createOrUpdateUser(1L, "user", "first", "last");
+            UserInfo info = repo.getUser(1L);
+            assertNotNull(info);
+            assertEquals(1L, info.chatId());
+            assertEquals("user", info.username());
+            assertEquals("first", info.firstName());
+            assertEquals("last", info.lastName());
 
-        repo.createOrUpdateUser(1L, "newuser", "f", "l");
-        info = repo.getUser(1L);
-        assertEquals("newuser", info.username());
+            repo.createOrUpdateUser(1L, "newuser", "f", "l");
+            info = repo.getUser(1L);
+            assertEquals("newuser", info.username());
+        }
     }
 }
@@ -0,0 +1,212 @@
+package com.github.beothorn.telegramAIConnector.user.archive;
+
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import com.github.beothorn.telegramAIConnector.user.MessagePage;
+import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.MessagesRepositoryFixture;
+import com.github.beothorn.telegramAIConnector.user.SearchResult;
+import com.github.beothorn.telegramAIConnector.user.StoredMessage;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummarizer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class MessageArchiveTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path archiveFolder;
+    private MessagesRepositoryFixture fixture;
+    private Database database;
+    private MessagesRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        archiveFolder = tempDir.resolve("archive");
+        fixture = MessagesRepositoryFixture.open(tempDir, 3);
+        database = fixture.database();
+        repo = fixture.repo();
+        for (int i = 0; i < 10; i++) {
+            repo.insertMessage("1", i % 2 == 0 ? "user" : "assistant", "m" + i);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    private List<String> allPages(int pageSize) {
+        List<String> contents = new ArrayList<>();
+        MessageCursor cursor = null;
+        do {
+            MessagePage page = repo.getMessagePage("1", cursor, pageSize);
+            page.messages().forEach(m -> contents.add(m.content()));
+            cursor = page.next() == null ? null : MessageCursor.parse(page.next());
+        } while (cursor != null);
+        return contents;
+    }
+
+    private int rowsOnTable() throws SQLException {
+        return database.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT COUNT(*) FROM messages WHERE chatId = 1").executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    private long segmentFiles() throws IOException {
+        Path chatFolder = archiveFolder.resolve("1");
+        if (!Files.exists(chatFolder)) return 0;
+        try (Stream<Path> files = Files.list(chatFolder)) {
+            return files.filter(f -> f.toString().endsWith(".ndjson.gz")).count();
+        }
+    }
+
+    /**
+     * Messages beyond the count are moved out of the table but are still readable everywhere.
+     */
+    @Test
+    void archivedMessagesAreReadTransparently() throws IOException, SQLException {
+        assertEquals(6, repo.archive("1", Long.MIN_VALUE, 4, null));
+
+        assertEquals(4, rowsOnTable());
+        assertEquals(1, segmentFiles());
+        assertEquals(
+            List.of("m9", "m8", "m7", "m6", "m5", "m4", "m3", "m2", "m1", "m0"),
+            allPages(3)
+        );
+        List<String> exported = new ArrayList<>();
+        repo.forEachMessage("1", m -> exported.add(m.content()));
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9"), exported);
+        assertEquals(exported, repo.getConversations("1").stream().map(Message::getText).toList());
+
+        StoredMessage archived = repo.getMessagePage("1", null, 10).messages().getLast();
+        assertEquals("user", archived.role());
+        assertEquals("m0", archived.content());
+    }
+
+    /**
+     * Archived messages are still found by search, together with the ones on the table.
+     */
+    @Test
+    void archivedMessagesAreSearchable() {
+        assertEquals(6, repo.archive("1", Long.MIN_VALUE, 4, null));
+
+        List<SearchResult> archived = repo.search("m0", 1L, 0, 10).results();
+        assertEquals(1, archived.size());
+        assertEquals("[m0]", archived.getFirst().snippet());
+        assertEquals("user", archived.getFirst().role());
+        assertEquals(1, repo.search("m9", null, 0, 10).results().size());
+        assertTrue(repo.search("m0", 2L, 0, 10).results().isEmpty());
+    }
+
+    /**
+     * Archived messages are marked and can't be changed, messages on the table still can.
+     */
+    @Test
+    void archivedMessagesAreReadOnly() {
+        assertEquals(6, repo.archive("1", Long.MIN_VALUE, 4, null));
+        List<StoredMessage> page = repo.getMessagePage("1", null, 10).messages();
+        StoredMessage hot = page.getFirst();
+        StoredMessage archived = page.getLast();
+        assertFalse(hot.archived());
+        assertTrue(archived.archived());
+
+        assertTrue(repo.isArchived(archived.id()));
+        assertFalse(repo.updateMessage(archived.id(), "edited"));
+        assertFalse(repo.deleteMessage(archived.id()));
+        assertEquals("m0", repo.getMessagePage("1", null, 10).messages().getLast().content());
+
+        assertFalse(repo.isArchived(hot.id()));
+        assertTrue(repo.updateMessage(hot.id(), "edited"));
+        assertEquals("edited", repo.getMessagePage("1", null, 1).messages().getFirst().content());
+        assertTrue(repo.deleteMessage(hot.id()));
+        assertEquals(9, allPages(10).size());
+    }
+
+    /**
+     * The generation only changes when messages move to the archive.
+     */
+    @Test
+    void generationChangesWhenMessagesMove() {
+        // Commits the pending inserts
+        repo.getMessagePage("1", null, 1);
+        MessageArchive archive = new MessageArchive(database, archiveFolder, 1000);
+        long before = archive.generation();
+
+        assertEquals(6, archive.archiveChat(1, Long.MIN_VALUE, 4, 0, null));
+        long after = archive.generation();
+        assertNotEquals(before, after);
+        assertEquals(0, archive.archiveChat(1, Long.MIN_VALUE, 4, 0, null));
+        assertEquals(after, archive.generation());
+    }
+
+    /**
+     * Age based archiving never touches the conversation window and adds a new segment each run.
+     */
+    @Test
+    void archivingByAgeKeepsWindow() throws IOException, SQLException {
+        long future = System.currentTimeMillis() + 60_000;
+        assertEquals(2, repo.archive("1", Long.MIN_VALUE, 8, null));
+        assertEquals(5, repo.archive("1", future, 0, null));
+        assertEquals(0, repo.archive("1", future, 0, null));
+
+        assertEquals(List.of("m7", "m8", "m9"), repo.findByConversationId("1").stream().map(Message::getText).toList());
+        assertEquals(3, rowsOnTable());
+        assertEquals(2, segmentFiles());
+        assertEquals(10, allPages(4).size());
+    }
+
+    /**
+     * Messages after the upper bound stay on the table.
+     */
+    @Test
+    void archivingStopsAtUpperBound() throws SQLException {
+        // the newest 8 messages end on m2
+        MessageCursor upTo = MessageCursor.parse(repo.getMessagePage("1", null, 8).next());
+
+        assertEquals(3, repo.archive("1", Long.MIN_VALUE, 0, upTo));
+        assertEquals(7, rowsOnTable());
+    }
+
+    /**
+     * The archiver archives every conversation.
+     */
+    @Test
+    void archiverRunsOnAllChats() {
+        repo.insertMessage("2", "user", "other");
+        MessageArchiver archiver = new MessageArchiver(repo, mock(ConversationSummarizer.class), 0, 5, 60);
+        assertEquals(5, archiver.archiveAll());
+        archiver.shutdown();
+    }
+
+    /**
+     * Deleting a conversation deletes its archive.
+     */
+    @Test
+    void deleteRemovesArchive() throws IOException {
+        repo.archive("1", Long.MIN_VALUE, 4, null);
+        repo.deleteByConversationId("1");
+        assertEquals(0, segmentFiles());
+        assertTrue(repo.getMessagePage("1", null, 50).messages().isEmpty());
+        assertTrue(repo.search("m0", null, 0, 10).results().isEmpty());
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.beothorn.telegramAIConnector.user.profile;
 
+import com.github.beothorn.telegramAIConnector.persistence.Database;
+import com.github.beothorn.telegramAIConnector.persistence.SQLite;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -18,8 +20,10 @@ public class UserProfileRepositoryTest {
     void setAndGet() {
         UserProfileRepository repo = new UserProfileRepository();
         String url = "jdbc:sqlite:" + folder.resolve("p.db");
-        repo.initDatabase(url);
-        repo.setProfile(1L, "profile");
-        assertEquals("profile", repo.getProfile(1L).orElse(""));
+        try (Database database = SQLite.open(url, 1)) {
+            repo.initDatabase(database);
+            repo.setProfile(1L, "profile");
+            assertEquals("profile", repo.getProfile(1L).orElse(""));
+        }
     }
 }
@@ -2,18 +2,24 @@ package com.github.beothorn.telegramAIConnector.user.profile.advisors;
 
 import com.github.beothorn.telegramAIConnector.user.profile.UserProfileRepository;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.core.io.ByteArrayResource;
+import reactor.core.publisher.Flux;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -39,4 +45,29 @@ public class UserProfileAdvisorTest {
         assertSame(resp, r);
         verify(repo).setProfile(1L, "new");
     }
+
+    /**
+     * Streamed answers also get the updated profile.
+     */
+    @Test
+    void adviseStreamUpdatesProfile() {
+        ChatModel model = mock(ChatModel.class);
+        when(model.call(anyString())).thenReturn("new");
+        UserProfileRepository repo = mock(UserProfileRepository.class);
+        when(repo.getProfile(1L)).thenReturn(Optional.of("old"));
+        UserProfileAdvisor advisor = new UserProfileAdvisor(model, repo, new ByteArrayResource("%s %s".getBytes()));
+        ChatClientRequest request = ChatClientRequest.builder()
+                .prompt(new org.springframework.ai.chat.prompt.Prompt(new SystemMessage("s"), new UserMessage("u")))
+                .context(Map.of("chat_memory_conversation_id","1"))
+                .build();
+        StreamAdvisorChain chain = mock(StreamAdvisorChain.class);
+        ChatClientResponse resp = mock(ChatClientResponse.class);
+        when(chain.nextStream(any())).thenReturn(Flux.just(resp));
+
+        assertEquals(List.of(resp), advisor.adviseStream(request, chain).collectList().block());
+        verify(repo).setProfile(1L, "new");
+        ArgumentCaptor<ChatClientRequest> captor = ArgumentCaptor.forClass(ChatClientRequest.class);
+        verify(chain).nextStream(captor.capture());
+        assertTrue(captor.getValue().prompt().getSystemMessage().getText().endsWith("new"));
+    }
 }
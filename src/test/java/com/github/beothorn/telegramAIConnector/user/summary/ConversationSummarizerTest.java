@@ -0,0 +1,130 @@
+package com.github.beothorn.telegramAIConnector.user.summary;
+
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import com.github.beothorn.telegramAIConnector.user.MessagesRepository;
+import com.github.beothorn.telegramAIConnector.user.MessagesRepositoryFixture;
+import com.github.beothorn.telegramAIConnector.user.StoredMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ConversationSummarizerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MessagesRepositoryFixture fixture;
+    private MessagesRepository repo;
+    private ConversationSummaryRepository summaries;
+    private ChatModel model;
+    private ConversationSummarizer summarizer;
+
+    @BeforeEach
+    void setUp() {
+        fixture = MessagesRepositoryFixture.open(tempDir, 3);
+        repo = fixture.repo();
+        summaries = new ConversationSummaryRepository();
+        summaries.initDatabase(fixture.database());
+        model = mock(ChatModel.class);
+        summarizer = new ConversationSummarizer(model, repo, summaries, new ByteArrayResource("%s|%s".getBytes()), 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        summarizer.shutdown();
+        fixture.close();
+    }
+
+    private void insert(int from, int to) {
+        for (int i = from; i < to; i++) {
+            repo.insertMessage("1", i % 2 == 0 ? "user" : "assistant", "m" + i);
+        }
+    }
+
+    /**
+     * Messages still on the window are not summarized.
+     */
+    @Test
+    void windowIsNotSummarized() {
+        insert(0, 4);
+        assertFalse(summarizer.summarize(1));
+        assertTrue(summarizer.summaryOf(1).isEmpty());
+        verifyNoInteractions(model);
+    }
+
+    /**
+     * Each refresh folds only the messages newer than the last summarized one into the summary.
+     */
+    @Test
+    void summaryIsRefreshedIncrementally() {
+        when(model.call(anyString())).thenReturn("s1", "s2");
+        insert(0, 8);
+
+        assertTrue(summarizer.summarize(1));
+        verify(model).call("|user: m3\nassistant: m4");
+        ConversationSummary first = summarizer.summaryOf(1).orElseThrow();
+        assertEquals("s1", first.summary());
+
+        insert(8, 10);
+        assertTrue(summarizer.summarize(1));
+        verify(model).call("s1|user: m5\nassistant: m6");
+        ConversationSummary second = summarizer.summaryOf(1).orElseThrow();
+        assertEquals("s2", second.summary());
+        assertTrue(second.upTo().timestamp() >= first.upTo().timestamp());
+        assertTrue(second.upTo().id() > first.upTo().id());
+
+        assertFalse(summarizer.summarize(1));
+        verifyNoMoreInteractions(model);
+    }
+
+    /**
+     * Messages outside the window are paged oldest first after the cursor.
+     */
+    @Test
+    void messagesOutsideWindow() {
+        insert(0, 8);
+        List<String> newest = repo.getMessagesOutsideWindow("1", null, 2).messages().stream()
+            .map(StoredMessage::content).toList();
+        assertEquals(List.of("m3", "m4"), newest);
+
+        // the newest 7 messages end on m1
+        MessageCursor afterM1 = MessageCursor.parse(repo.getMessagePage("1", null, 7).next());
+        List<String> after = repo.getMessagesOutsideWindow("1", afterM1, 10).messages().stream()
+            .map(StoredMessage::content).toList();
+        assertEquals(List.of("m2", "m3", "m4"), after);
+    }
+
+    /**
+     * Deleting a conversation deletes its summary.
+     */
+    @Test
+    void deleteRemovesSummary() {
+        when(model.call(anyString())).thenReturn("s1");
+        insert(0, 8);
+        summarizer.summarize(1);
+        repo.deleteByConversationId("1");
+        assertTrue(summarizer.summaryOf(1).isEmpty());
+    }
+
+    /**
+     * A batch size of zero disables summaries.
+     */
+    @Test
+    void disabled() {
+        ConversationSummarizer off = new ConversationSummarizer(model, repo, summaries, new ByteArrayResource("%s|%s".getBytes()), 0);
+        insert(0, 8);
+        assertFalse(off.isEnabled());
+        assertFalse(off.summarize(1));
+        verifyNoInteractions(model);
+        off.shutdown();
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.beothorn.telegramAIConnector.user.summary.advisors;
+
+import com.github.beothorn.telegramAIConnector.user.MessageCursor;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummarizer;
+import com.github.beothorn.telegramAIConnector.user.summary.ConversationSummary;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ConversationSummaryAdvisorTest {
+
+    private static ChatClientRequest request() {
+        return ChatClientRequest.builder()
+                .prompt(new Prompt(new SystemMessage("s"), new UserMessage("u")))
+                .context(Map.of("chat_memory_conversation_id", "1"))
+                .build();
+    }
+
+    /**
+     * The summary is added to the system message and a refresh is requested after the call.
+     */
+    @Test
+    void adviseAddsSummary() {
+        ConversationSummarizer summarizer = mock(ConversationSummarizer.class);
+        when(summarizer.summaryOf(1L)).thenReturn(Optional.of(new ConversationSummary(1L, "earlier", new MessageCursor(1, 1))));
+        ConversationSummaryAdvisor advisor = new ConversationSummaryAdvisor(summarizer);
+        CallAdvisorChain chain = mock(CallAdvisorChain.class);
+        ChatClientResponse resp = mock(ChatClientResponse.class);
+        when(chain.nextCall(any())).thenReturn(resp);
+
+        assertSame(resp, advisor.adviseCall(request(), chain));
+
+        ArgumentCaptor<ChatClientRequest> captor = ArgumentCaptor.forClass(ChatClientRequest.class);
+        verify(chain).nextCall(captor.capture());
+        String system = captor.getValue().prompt().getSystemMessage().getText();
+        assertTrue(system.startsWith("s\n"));
+        assertTrue(system.endsWith("earlier"));
+        verify(summarizer).requestSummary(1L);
+    }
+
+    /**
+     * Without a summary the request is passed on unchanged.
+     */
+    @Test
+    void adviseWithoutSummary() {
+        ConversationSummarizer summarizer = mock(ConversationSummarizer.class);
+        when(summarizer.summaryOf(1L)).thenReturn(Optional.empty());
+        ConversationSummaryAdvisor advisor = new ConversationSummaryAdvisor(summarizer);
+        CallAdvisorChain chain = mock(CallAdvisorChain.class);
+        ChatClientRequest request = request();
+
+        advisor.adviseCall(request, chain);
+
+        verify(chain).nextCall(request);
+        verify(summarizer).requestSummary(1L);
+    }
+
+    /**
+     * Streamed answers get the summary, the refresh is requested once the stream ends.
+     */
+    @Test
+    void adviseStreamAddsSummary() {
+        ConversationSummarizer summarizer = mock(ConversationSummarizer.class);
+        when(summarizer.summaryOf(1L)).thenReturn(Optional.of(new ConversationSummary(1L, "earlier", new MessageCursor(1, 1))));
+        ConversationSummaryAdvisor advisor = new ConversationSummaryAdvisor(summarizer);
+        StreamAdvisorChain chain = mock(StreamAdvisorChain.class);
+        ChatClientResponse resp = mock(ChatClientResponse.class);
+        when(chain.nextStream(any())).thenReturn(Flux.just(resp));
+
+        Flux<ChatClientResponse> stream = advisor.adviseStream(request(), chain);
+        verify(summarizer, never()).requestSummary(anyLong());
+        assertEquals(List.of(resp), stream.collectList().block());
+
+        ArgumentCaptor<ChatClientRequest> captor = ArgumentCaptor.forClass(ChatClientRequest.class);
+        verify(chain).nextStream(captor.capture());
+        assertTrue(captor.getValue().prompt().getSystemMessage().getText().endsWith("earlier"));
+        verify(summarizer).requestSummary(1L);
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.beothorn.telegramAIConnector.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageSplitterTest {
+
+    @Test
+    void shortMessageIsKept() {
+        assertEquals(List.of("hello *world*"), MessageSplitter.split("hello *world*", true));
+    }
+
+    @Test
+    void cutsBetweenParagraphs() {
+        String text = "first paragraph\nsecond line\n\nthird paragraph";
+        assertEquals(
+            List.of("first paragraph\nsecond line", "third paragraph"),
+            MessageSplitter.split(text, 30, false)
+        );
+    }
+
+    @Test
+    void cutsOnLineBreakThenOnSpace() {
+        assertEquals(List.of("one two", "three four"), MessageSplitter.split("one two\nthree four", 12, false));
+        assertEquals(List.of("one two", "three four"), MessageSplitter.split("one two three four", 12, false));
+    }
+
+    @Test
+    void cutsAnywhereWhenThereIsNoSpace() {
+        List<String> parts = MessageSplitter.split("a".repeat(25), 10, false);
+        assertEquals(List.of("a".repeat(10), "a".repeat(10), "a".repeat(5)), parts);
+    }
+
+    @Test
+    void neverSplitsSurrogatePairs() {
+        String emoji = "\uD83D\uDE00";
+        List<String> parts = MessageSplitter.split(emoji.repeat(6), 5, false);
+        assertEquals(emoji.repeat(6), String.join("", parts));
+        for (String part : parts) {
+            assertTrue(part.length() <= 5);
+            assertTrue(!Character.isLowSurrogate(part.charAt(0)));
+        }
+    }
+
+    @Test
+    void doesNotCutInsideFormatting() {
+        String text = "intro text *bold words here* tail";
+        List<String> parts = MessageSplitter.split(text, 25, true);
+        assertEquals(List.of("intro text", "*bold words here* tail"), parts);
+    }
+
+    @Test
+    void doesNotCutInsideLinks() {
+        String text = "read more at [the docs](https://x.io)";
+        List<String> parts = MessageSplitter.split(text, 26, true);
+        assertEquals(List.of("read more at", "[the docs](https://x.io)"), parts);
+    }
+
+    @Test
+    void unclosedMarkerIsPlainText() {
+        String text = "2 * 3 is six and that is all";
+        assertEquals(List.of("2 * 3 is six and", "that is all"), MessageSplitter.split(text, 16, true));
+    }
+
+    @Test
+    void codeBlockIsClosedAndReopened() {
+        String text = "Code:\n```java\nint a = 1;\nint b = 2;\n```\ndone";
+        List<String> parts = MessageSplitter.split(text, 30, true);
+        assertEquals(
+            List.of(
+                "Code:",
+                "```java\nint a = 1;\n```",
+                "```java\nint b = 2;\n```\ndone"
+            ),
+            parts
+        );
+        for (String part : parts) assertTrue(part.length() <= 30);
+    }
+
+    @Test
+    void partsFitTelegram() {
+        String text = ("paragraph " + "word ".repeat(200) + "\n\n").repeat(10);
+        for (String part : MessageSplitter.split(text, false)) {
+            assertTrue(part.length() <= MessageSplitter.TELEGRAM_LIMIT);
+        }
+    }
+}
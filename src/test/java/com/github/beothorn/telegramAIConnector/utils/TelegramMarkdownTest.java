@@ -0,0 +1,106 @@
+package com.github.beothorn.telegramAIConnector.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TelegramMarkdownTest {
+
+    private static List<Path> corpus() throws URISyntaxException, IOException {
+        final Path folder = Path.of(TelegramMarkdownTest.class.getResource("/markdown").toURI());
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(f -> f.toString().endsWith(".md")).sorted().toList();
+        }
+    }
+
+    /**
+     * Answers recorded from models convert to MarkdownV2 Telegram accepts, also after being split.
+     */
+    @Test
+    void modelAnswersAreValid() throws Exception {
+        final List<Path> files = corpus();
+        assertFalse(files.isEmpty());
+        for (Path file : files) {
+            final String converted = TelegramMarkdown.toMarkdownV2(Files.readString(file));
+            assertTrue(TelegramMarkdown.isValidMarkdownV2(converted), file + "\n" + converted);
+            for (String part : MessageSplitter.split(converted, 120, true)) {
+                assertTrue(TelegramMarkdown.isValidMarkdownV2(part), file + "\n" + part);
+            }
+        }
+    }
+
+    @Test
+    void keepsFormatting() {
+        assertEquals(
+            "*bold* _italic_ ~gone~ `code_here` [link](https://x.io)",
+            TelegramMarkdown.toMarkdownV2("**bold** *italic* ~~gone~~ `code_here` [link](https://x.io)")
+        );
+    }
+
+    @Test
+    void escapesReservedCharacters() {
+        assertEquals(
+            "1\\. a \\+ b \\= c \\(really\\)\\!",
+            TelegramMarkdown.toMarkdownV2("1. a + b = c (really)!")
+        );
+    }
+
+    @Test
+    void unclosedMarkersAreText() {
+        assertEquals("\\*\\*not bold and snake\\_case", TelegramMarkdown.toMarkdownV2("**not bold and snake_case"));
+        assertEquals("2 \\* 3 \\* 4", TelegramMarkdown.toMarkdownV2("2 * 3 * 4"));
+    }
+
+    @Test
+    void headingsAndBullets() {
+        assertEquals(
+            "*Title*\n\u2022 one\n  \u2022 two",
+            TelegramMarkdown.toMarkdownV2("## Title ##\n- one\n  * two")
+        );
+    }
+
+    @Test
+    void codeOnlyEscapesBackticksAndBackslashes() {
+        assertEquals(
+            "```java\nString s = \"a\\\\n\" + `x`;\n```".replace("`x`", "\\`x\\`"),
+            TelegramMarkdown.toMarkdownV2("```java\nString s = \"a\\n\" + `x`;\n```")
+        );
+    }
+
+    @Test
+    void unclosedCodeBlockIsClosed() {
+        assertEquals("```\nsome code\n```", TelegramMarkdown.toMarkdownV2("```\nsome code"));
+    }
+
+    @Test
+    void linkUrlsEscapeParentheses() {
+        assertEquals(
+            "[wiki](https://en.wikipedia.org/wiki/Java_(language\\))",
+            TelegramMarkdown.toMarkdownV2("[wiki](https://en.wikipedia.org/wiki/Java_(language))")
+        );
+    }
+
+    @Test
+    void validatesMarkdownV2() {
+        assertTrue(TelegramMarkdown.isValidMarkdownV2("*bold _italic_* \\. `a.b` [x](y)"));
+        assertFalse(TelegramMarkdown.isValidMarkdownV2("end."));
+        assertFalse(TelegramMarkdown.isValidMarkdownV2("*open"));
+        assertFalse(TelegramMarkdown.isValidMarkdownV2("*a _b* c_"));
+        assertFalse(TelegramMarkdown.isValidMarkdownV2("`code"));
+        assertFalse(TelegramMarkdown.isValidMarkdownV2("[x]"));
+    }
+
+    @Test
+    void unescapeGivesBackTheText() {
+        assertEquals("1. a (b)!", TelegramMarkdown.unescape(TelegramMarkdown.toMarkdownV2("1. a (b)!")));
+    }
+}